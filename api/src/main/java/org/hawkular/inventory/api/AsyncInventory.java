@@ -0,0 +1,81 @@
+/*
+ * Copyright 2015 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.inventory.api;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Non-blocking variant of {@link Inventory}.
+ *
+ * Every method returns at once; the work runs on a bounded pool of threads reserved for the
+ * database, and the returned stage completes with the result or with the exception the
+ * blocking method would have thrown. If the pool is saturated the stage fails with a
+ * {@link java.util.concurrent.RejectedExecutionException}, so callers can shed load instead
+ * of queueing without bounds.
+ *
+ * The streaming methods of {@link Inventory} have no counterpart here, as they write to the
+ * caller's Writer while they run.
+ *
+ * @author agent
+ */
+public interface AsyncInventory {
+
+    CompletionStage<String> addResource(String tenant, Resource resource);
+
+    CompletionStage<List<ItemResult>> addResources(String tenant, Collection<Resource> resources);
+
+    CompletionStage<Collection<Resource>> getResourcesForType(String tenant, ResourceType type);
+
+    CompletionStage<Page<Resource>> getResourcesForType(String tenant, ResourceType type, int limit, String after);
+
+    CompletionStage<List<Resource>> findResourcesByParameter(String tenant, String name, String value);
+
+    /** Completes with null if there is no such resource */
+    CompletionStage<Resource> getResource(String tenant, String uid);
+
+    CompletionStage<Boolean> resourceExists(String tenant, String uid);
+
+    CompletionStage<Boolean> deleteResource(String tenant, String uid);
+
+    CompletionStage<Integer> deleteResources(String tenant, Collection<String> ids);
+
+    CompletionStage<Integer> purgeTenant(String tenant);
+
+    CompletionStage<Boolean> addMetricToResource(String tenant, String resourceId, String metricName);
+
+    CompletionStage<List<ItemResult>> upsertMetrics(String tenant, String resourceId,
+                                                    Collection<MetricDefinition> definitions);
+
+    CompletionStage<Boolean> addMetricsToResource(String tenant, String resourceId,
+                                                  Collection<MetricDefinition> definitions);
+
+    CompletionStage<Collection<MetricDefinition>> listMetricsForResource(String tenant, String resourceId);
+
+    CompletionStage<Page<MetricDefinition>> listMetricsForResource(String tenant, String resourceId, int limit,
+                                                                   String after);
+
+    CompletionStage<Boolean> updateMetric(String tenant, String resourceId, MetricDefinition metric);
+
+    /** Completes with null if the resource has no such metric */
+    CompletionStage<MetricDefinition> getMetric(String tenant, String resourceId, String metricId);
+
+    /** See {@link Inventory#awaitChanges(String, long, int, long, TimeUnit)}, no database thread is taken */
+    CompletionStage<Changes> awaitChanges(String tenant, long after, int limit, long timeout, TimeUnit unit);
+}
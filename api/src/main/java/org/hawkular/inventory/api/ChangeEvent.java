@@ -0,0 +1,109 @@
+/*
+ * Copyright 2015 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.inventory.api;
+
+/**
+ * A change of the inventory, as published on the change feed.
+ *
+ * Events are numbered by a sequence that grows by one with every event of any tenant,
+ * so a consumer can resume after the last sequence it has seen.
+ *
+ * @author agent
+ */
+public class ChangeEvent {
+
+    public enum Type {
+        RESOURCE_ADDED,
+        /** The resource has been removed together with its metrics */
+        RESOURCE_DELETED,
+        METRIC_ADDED,
+        /** The metric has been written by a merge, which may have added it as well */
+        METRIC_UPDATED,
+        /** All resources of the tenant have been removed, there is no event per resource */
+        TENANT_PURGED
+    }
+
+    private long sequence;
+    private Type type;
+    private String tenant;
+    private String resourceId;
+    private String metricName;
+    private long timestamp;
+
+    public ChangeEvent() {
+    }
+
+    public ChangeEvent(long sequence, Type type, String tenant, String resourceId, String metricName,
+                       long timestamp) {
+        this.sequence = sequence;
+        this.type = type;
+        this.tenant = tenant;
+        this.resourceId = resourceId;
+        this.metricName = metricName;
+        this.timestamp = timestamp;
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    public void setSequence(long sequence) {
+        this.sequence = sequence;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public void setType(Type type) {
+        this.type = type;
+    }
+
+    public String getTenant() {
+        return tenant;
+    }
+
+    public void setTenant(String tenant) {
+        this.tenant = tenant;
+    }
+
+    public String getResourceId() {
+        return resourceId;
+    }
+
+    public void setResourceId(String resourceId) {
+        this.resourceId = resourceId;
+    }
+
+    /** Name of the metric, null for the events of a resource */
+    public String getMetricName() {
+        return metricName;
+    }
+
+    public void setMetricName(String metricName) {
+        this.metricName = metricName;
+    }
+
+    /** Time of the change in ms since the epoch */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public void setTimestamp(long timestamp) {
+        this.timestamp = timestamp;
+    }
+}
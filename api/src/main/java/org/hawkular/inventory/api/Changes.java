@@ -0,0 +1,71 @@
+/*
+ * Copyright 2015 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.inventory.api;
+
+import java.util.List;
+
+/**
+ * Events read from the change feed.
+ *
+ * The sequence is the position to pass back as 'after' for the next read. It can be ahead
+ * of the last event, as events of other tenants are skipped as well.
+ *
+ * @author agent
+ */
+public class Changes {
+
+    private List<ChangeEvent> events;
+    private long sequence;
+    private boolean missed;
+
+    public Changes() {
+    }
+
+    public Changes(List<ChangeEvent> events, long sequence, boolean missed) {
+        this.events = events;
+        this.sequence = sequence;
+        this.missed = missed;
+    }
+
+    public List<ChangeEvent> getEvents() {
+        return events;
+    }
+
+    public void setEvents(List<ChangeEvent> events) {
+        this.events = events;
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    public void setSequence(long sequence) {
+        this.sequence = sequence;
+    }
+
+    /**
+     * @return true if events after the requested position have been dropped from the feed before
+     * they were read, in which case the consumer has to list the inventory again
+     */
+    public boolean isMissed() {
+        return missed;
+    }
+
+    public void setMissed(boolean missed) {
+        this.missed = missed;
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2015 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.inventory.api;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Outcome of an import. Only the first {@link #MAX_FAILURES} failures are listed, so the
+ * result stays small however large the import is; the count covers all of them.
+ *
+ * @author agent
+ */
+public class ImportResult {
+
+    /** Upper bound of the failures that are listed */
+    public static final int MAX_FAILURES = 100;
+
+    private long resources;
+    private long metrics;
+    private long failed;
+    private List<ItemResult> failures = new ArrayList<>();
+
+    /**
+     * @return the number of resources that have been added
+     */
+    public long getResources() {
+        return resources;
+    }
+
+    public void setResources(long resources) {
+        this.resources = resources;
+    }
+
+    /**
+     * @return the number of metrics that have been written
+     */
+    public long getMetrics() {
+        return metrics;
+    }
+
+    public void setMetrics(long metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * @return the number of resources and metrics that could not be imported
+     */
+    public long getFailed() {
+        return failed;
+    }
+
+    public void setFailed(long failed) {
+        this.failed = failed;
+    }
+
+    public List<ItemResult> getFailures() {
+        return failures;
+    }
+
+    public void setFailures(List<ItemResult> failures) {
+        this.failures = failures;
+    }
+
+    /**
+     * Counts the failure and lists it unless the list is full.
+     */
+    public void addFailure(ItemResult failure) {
+        failed++;
+        if (failures.size() < MAX_FAILURES) {
+            failures.add(failure);
+        }
+    }
+}
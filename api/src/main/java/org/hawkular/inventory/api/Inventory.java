@@ -16,10 +16,19 @@
  */
 package org.hawkular.inventory.api;
 
+import java.io.Reader;
+import java.io.Writer;
 import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Provides an inventory api.
+ *
+ * The metric operations check that the resource exists as part of their work and throw
+ * a {@link ResourceNotFoundException} if it does not, so callers don't need to look it up first.
+ *
  * TODO factor in the environment
  * @author Heiko Rupp
  */
@@ -29,23 +38,122 @@ public interface Inventory {
     /** Add a resource for a tenant */
     String addResource(String tenant, Resource resource) throws Exception;
 
+    /**
+     * Add many resources for a tenant at once. Resources that can't be added (e.g. because
+     * their id is taken) don't keep the others from being added.
+     * @return one result per resource, in the order of the input
+     */
+    List<ItemResult> addResources(String tenant, Collection<Resource> resources) throws Exception;
+
     /** Retrieve a collection of resources for a given type */
     Collection<Resource> getResourcesForType(String tenant, ResourceType type) throws Exception;
 
+    /**
+     * Retrieve one page of the resources for a given type, ordered by id.
+     * @param limit Maximum number of resources on the page
+     * @param after Continuation of the previous page or null for the first page
+     */
+    Page<Resource> getResourcesForType(String tenant, ResourceType type, int limit, String after) throws Exception;
+
+    /**
+     * Write the resources for a given type as JSON array to out. Resources are written while
+     * they are read, so the listing is never held in memory as a whole.
+     */
+    void writeResourcesForType(String tenant, ResourceType type, Writer out) throws Exception;
+
+    /**
+     * Write the resources of a tenant together with their metrics as JSON array to out, in one query.
+     * Every element is an object <code>{"resource":{..},"metrics":[..]}</code>; resources are ordered by id,
+     * their metrics by name. As with {@link #writeResourcesForType(String, ResourceType, Writer)} the result
+     * is written while it is read.
+     * @param type Type of the resources, or null for the resources of all types
+     */
+    void writeResourcesWithMetrics(String tenant, ResourceType type, Writer out) throws Exception;
+
+    /** Find the resources of a tenant that have a parameter with the given name and value */
+    List<Resource> findResourcesByParameter(String tenant, String name, String value) throws Exception;
+
     /** Get a resource by its Id */
     Resource getResource(String tenant, String uid) throws Exception;
 
+    /** Check if a resource exists, without loading it */
+    boolean resourceExists(String tenant, String uid) throws Exception;
+
     /** Remove a resource with a certain id */
     boolean deleteResource(String tenant, String uid) throws Exception;
 
-    /** Adds metrics to a resource */
+    /**
+     * Remove many resources of a tenant at once, together with their metrics, in one transaction.
+     * Ids that don't exist are skipped.
+     * @return the number of resources that have been removed
+     */
+    int deleteResources(String tenant, Collection<String> ids) throws Exception;
+
+    /**
+     * Remove all resources of a tenant together with their metrics. This is done in chunks, each in
+     * its own transaction, so a failure can leave part of the tenant behind; purging again removes the rest.
+     * @return the number of resources that have been removed
+     */
+    int purgeTenant(String tenant) throws Exception;
+
+    /**
+     * Write all resources of a tenant together with their metrics to out as newline delimited JSON: one line
+     * <code>{"resource":{..},"metrics":[..]}</code> per resource. As with
+     * {@link #writeResourcesForType(String, ResourceType, Writer)} the result is written while it is read.
+     */
+    void exportTenant(String tenant, Writer out) throws Exception;
+
+    /**
+     * Add the resources with their metrics that are read from in, in the format of
+     * {@link #exportTenant(String, Writer)}. The input is read while it is imported, a chunk of resources at a time,
+     * and every chunk is committed on its own. Resources that can't be added (e.g. because their id is taken)
+     * are reported as failed together with their metrics, and don't keep the others from being added.
+     * @throws IllegalArgumentException if the input is not valid; the chunks before stay imported
+     */
+    ImportResult importTenant(String tenant, Reader in) throws Exception;
+
+    /** Adds metrics to a resource, existing definitions of the same name are replaced */
     boolean addMetricToResource(String tenant, String resourceId, String metric_name) throws Exception;
     boolean addMetricsToResource(String tenant, String resourceId, Collection<MetricDefinition> definitions)
             throws Exception;
 
+    /**
+     * Adds or replaces many metrics of a resource at once. Definitions that are the same as the
+     * stored ones are not written. If a name occurs more than once, the first definition wins.
+     * @return one result per definition, in the order given, with the metric name as id
+     */
+    List<ItemResult> upsertMetrics(String tenant, String resourceId, Collection<MetricDefinition> definitions)
+            throws Exception;
+
+    /**
+     * Read the changes of a tenant from the change feed, without waiting.
+     * @param after Sequence of the last change seen, 0 to start with the oldest change still kept
+     * @param limit Maximum number of changes to return
+     */
+    Changes getChanges(String tenant, long after, int limit);
+
+    /**
+     * Like {@link #getChanges(String, long, int)}, but if there is no change yet, the stage completes
+     * with the next one or with no changes once the timeout has passed. The caller is not blocked.
+     */
+    CompletionStage<Changes> awaitChanges(String tenant, long after, int limit, long timeout, TimeUnit unit);
+
     /** Retrieve all metrics for a resource */
     Collection<MetricDefinition> listMetricsForResource(String tenant, String resourceId) throws Exception;
 
+    /**
+     * Retrieve one page of the metrics for a resource, ordered by name.
+     * @param limit Maximum number of metrics on the page
+     * @param after Continuation of the previous page or null for the first page
+     */
+    Page<MetricDefinition> listMetricsForResource(String tenant, String resourceId, int limit, String after)
+            throws Exception;
+
+    /**
+     * Write all metrics for a resource as JSON array to out while they are read.
+     */
+    void writeMetricsForResource(String tenant, String resourceId, Writer out) throws Exception;
+
     /** Updates a single metric */
     boolean updateMetric(String tenant, String resourceId, MetricDefinition metric) throws Exception;
 
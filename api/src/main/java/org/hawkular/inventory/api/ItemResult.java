@@ -0,0 +1,89 @@
+/*
+ * Copyright 2015 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.inventory.api;
+
+/**
+ * Outcome for one item of a bulk operation.
+ *
+ * @author agent
+ */
+public class ItemResult {
+
+    public enum Status {
+        /** A new item was added, also by an upsert */
+        CREATED,
+        /** An existing item was replaced by an upsert */
+        UPDATED,
+        /** The item was the same as the stored one, so nothing was written */
+        UNCHANGED,
+        FAILED
+    }
+
+    private String id;
+    private Status status;
+    private String error;
+
+    public ItemResult() {
+    }
+
+    public ItemResult(String id, Status status, String error) {
+        this.id = id;
+        this.status = status;
+        this.error = error;
+    }
+
+    public static ItemResult created(String id) {
+        return new ItemResult(id, Status.CREATED, null);
+    }
+
+    public static ItemResult updated(String id) {
+        return new ItemResult(id, Status.UPDATED, null);
+    }
+
+    public static ItemResult unchanged(String id) {
+        return new ItemResult(id, Status.UNCHANGED, null);
+    }
+
+    public static ItemResult failed(String id, String error) {
+        return new ItemResult(id, Status.FAILED, error);
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public void setStatus(Status status) {
+        this.status = status;
+    }
+
+    /** Reason of the failure, null unless the status is FAILED */
+    public String getError() {
+        return error;
+    }
+
+    public void setError(String error) {
+        this.error = error;
+    }
+}
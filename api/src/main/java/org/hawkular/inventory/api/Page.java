@@ -0,0 +1,61 @@
+/*
+ * Copyright 2015 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.inventory.api;
+
+import java.util.List;
+
+/**
+ * One page of a larger result.
+ *
+ * The continuation is an opaque token that is passed back to get the next page.
+ * It is null on the last page.
+ *
+ * @author agent
+ */
+public class Page<T> {
+
+    private List<T> items;
+    private String continuation;
+
+    public Page() {
+    }
+
+    public Page(List<T> items, String continuation) {
+        this.items = items;
+        this.continuation = continuation;
+    }
+
+    public List<T> getItems() {
+        return items;
+    }
+
+    public void setItems(List<T> items) {
+        this.items = items;
+    }
+
+    public String getContinuation() {
+        return continuation;
+    }
+
+    public void setContinuation(String continuation) {
+        this.continuation = continuation;
+    }
+
+    public boolean hasMore() {
+        return continuation != null;
+    }
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright 2015 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.inventory.api;
+
+/**
+ * Thrown by the metric operations if the resource the metrics belong to does not exist.
+ *
+ * @author agent
+ */
+public class ResourceNotFoundException extends Exception {
+
+    private final String tenant;
+    private final String resourceId;
+
+    public ResourceNotFoundException(String tenant, String resourceId) {
+        super("Resource with ID " + resourceId + " not found for tenant");
+        this.tenant = tenant;
+        this.resourceId = resourceId;
+    }
+
+    public String getTenant() {
+        return tenant;
+    }
+
+    public String getResourceId() {
+        return resourceId;
+    }
+}
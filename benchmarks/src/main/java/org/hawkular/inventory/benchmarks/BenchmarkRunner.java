@@ -0,0 +1,52 @@
+/*
+ * Copyright 2015 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.inventory.benchmarks;
+
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the selected benchmarks once for every thread count.
+ *
+ * Takes the usual JMH command line options, e.g. a benchmark pattern or <code>-p size=100</code>;
+ * the thread counts are given with the system property {@value #THREADS_PROPERTY}, separated by commas.
+ *
+ * @author agent
+ */
+public class BenchmarkRunner {
+
+    public static final String THREADS_PROPERTY = "hawkular.benchmark.threads";
+
+    private BenchmarkRunner() {
+    }
+
+    public static void main(String[] args) throws Exception {
+
+        Options commandLine = new CommandLineOptions(args);
+        String threads = System.getProperty(THREADS_PROPERTY, "1,4,16");
+
+        for (String count : threads.split(",")) {
+            Options options = new OptionsBuilder()
+                    .parent(commandLine)
+                    .threads(Integer.parseInt(count.trim()))
+                    .build();
+            new Runner(options).run();
+        }
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2015 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.inventory.benchmarks;
+
+import org.hawkular.inventory.api.MetricDefinition;
+import org.hawkular.inventory.api.MetricUnit;
+import org.hawkular.inventory.api.Resource;
+import org.hawkular.inventory.api.ResourceType;
+import org.hawkular.inventory.impl.InventoryService;
+import org.h2.jdbcx.JdbcConnectionPool;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An {@link InventoryService} on a fresh in-memory H2 database, shared by all benchmark threads.
+ *
+ * The tenant is preloaded with {@link #size} URL resources, each with one metric, plus the
+ * same number of resources spread over other tenants, so lookups do not run on a table that
+ * only holds the measured data.
+ *
+ * @author agent
+ */
+@State(Scope.Benchmark)
+public class InventoryState {
+
+    static final String TENANT = "bench";
+
+    private static final AtomicInteger databases = new AtomicInteger();
+
+    /** Number of resources of the measured tenant */
+    @Param({"100", "10000", "100000"})
+    public int size;
+
+    JdbcConnectionPool dataSource;
+    InventoryService inventory;
+
+    private final AtomicInteger next = new AtomicInteger();
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        dataSource = JdbcConnectionPool.create(
+                "jdbc:h2:mem:bench" + databases.incrementAndGet() + ";DB_CLOSE_DELAY=-1", "sa", "sa");
+        dataSource.setMaxConnections(256);
+        inventory = new InventoryService(dataSource);
+
+        List<Resource> own = new ArrayList<>(size);
+        List<Resource> others = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            own.add(resource(resourceId(i)));
+            others.add(resource("other-" + i));
+        }
+        inventory.addResources(TENANT, own);
+        inventory.addResources("other", others);
+        for (int i = 0; i < size; i++) {
+            inventory.addMetricsToResource(TENANT, resourceId(i), metrics("preloaded", 1));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        dataSource.dispose();
+    }
+
+    /** Id of the n-th preloaded resource */
+    static String resourceId(int n) {
+        return "res-" + n;
+    }
+
+    /** Id of a preloaded resource, the threads walk through them in turns */
+    String nextResourceId() {
+        return resourceId((next.getAndIncrement() & Integer.MAX_VALUE) % size);
+    }
+
+    static Resource resource(String id) {
+        Resource resource = new Resource();
+        resource.setId(id);
+        resource.setType(ResourceType.URL);
+        resource.addParameter("url", "http://hawkular.org/" + id);
+        return resource;
+    }
+
+    static List<MetricDefinition> metrics(String prefix, int count) {
+        List<MetricDefinition> metrics = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            MetricDefinition metric = new MetricDefinition(prefix + ".metric" + i, MetricUnit.MILLI_SECOND);
+            metric.setDescription("Metric " + i + " of " + prefix);
+            metrics.add(metric);
+        }
+        return metrics;
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2015 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.inventory.benchmarks;
+
+import org.hawkular.inventory.api.MetricDefinition;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Metric writes and lookups of the {@link org.hawkular.inventory.impl.InventoryService}.
+ *
+ * @author agent
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class MetricBenchmark {
+
+    /**
+     * The metrics one thread adds in one call. The names are changed before every call,
+     * as the insert would fail on names that already exist.
+     */
+    @State(Scope.Thread)
+    public static class Batch {
+
+        private static final AtomicInteger threads = new AtomicInteger();
+
+        /** Number of metrics added per call */
+        @Param({"1", "10", "100"})
+        public int batchSize;
+
+        List<MetricDefinition> metrics;
+        String prefix;
+        int round;
+
+        @Setup
+        public void setup() {
+            prefix = "thread" + threads.incrementAndGet();
+            metrics = InventoryState.metrics(prefix, batchSize);
+        }
+
+        List<MetricDefinition> next() {
+            round++;
+            for (int i = 0; i < metrics.size(); i++) {
+                metrics.get(i).setName(prefix + "." + round + "." + i);
+            }
+            return metrics;
+        }
+    }
+
+    @Benchmark
+    public boolean addMetricsToResource(InventoryState state, Batch batch) throws Exception {
+        return state.inventory.addMetricsToResource(InventoryState.TENANT, state.nextResourceId(), batch.next());
+    }
+
+    @Benchmark
+    public List<MetricDefinition> listMetricsForResource(InventoryState state) throws Exception {
+        return state.inventory.listMetricsForResource(InventoryState.TENANT, state.nextResourceId());
+    }
+
+    @Benchmark
+    public MetricDefinition getMetric(InventoryState state) throws Exception {
+        return state.inventory.getMetric(InventoryState.TENANT, state.nextResourceId(), "preloaded.metric0");
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2015 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.inventory.benchmarks;
+
+import com.google.gson.GsonBuilder;
+import org.hawkular.inventory.api.MetricDefinition;
+import org.hawkular.inventory.api.Resource;
+import org.hawkular.inventory.impl.codec.PayloadCodec;
+import org.hawkular.inventory.impl.codec.PayloadCodecs;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encode and decode time of the payload codecs. The size of the payloads each codec
+ * produces (i.e. the bytes stored per row) is printed when the benchmark is set up.
+ *
+ * @author agent
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PayloadCodecBenchmark {
+
+    @Param({PayloadCodecs.JSON, PayloadCodecs.BINARY})
+    public String codecName;
+
+    /** Number of parameters of the resource */
+    @Param({"1", "10"})
+    public int parameters;
+
+    PayloadCodec codec;
+    Resource resource;
+    byte[] resourcePayload;
+    MetricDefinition metric;
+    byte[] metricPayload;
+
+    @Setup
+    public void setup() {
+        codec = PayloadCodecs.forName(codecName, new GsonBuilder().create());
+
+        resource = InventoryState.resource("0150a3b2c4d5e6f70001abcd");
+        for (int i = 1; i < parameters; i++) {
+            resource.addParameter("param" + i, "value of parameter " + i);
+        }
+        resourcePayload = codec.encode(resource);
+
+        metric = InventoryState.metrics("encoded", 1).get(0);
+        metricPayload = codec.encode(metric);
+
+        System.out.printf("%n%s payload bytes: resource %d, metric %d%n",
+                codecName, resourcePayload.length, metricPayload.length);
+    }
+
+    @Benchmark
+    public byte[] encodeResource() {
+        return codec.encode(resource);
+    }
+
+    @Benchmark
+    public Resource decodeResource() {
+        return codec.decode(resourcePayload, Resource.class);
+    }
+
+    @Benchmark
+    public byte[] encodeMetric() {
+        return codec.encode(metric);
+    }
+
+    @Benchmark
+    public MetricDefinition decodeMetric() {
+        return codec.decode(metricPayload, MetricDefinition.class);
+    }
+}
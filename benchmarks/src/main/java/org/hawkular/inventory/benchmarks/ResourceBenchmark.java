@@ -0,0 +1,68 @@
+/*
+ * Copyright 2015 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.inventory.benchmarks;
+
+import org.hawkular.inventory.api.Page;
+import org.hawkular.inventory.api.Resource;
+import org.hawkular.inventory.api.ResourceType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Resource writes and lookups of the {@link org.hawkular.inventory.impl.InventoryService}.
+ *
+ * @author agent
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class ResourceBenchmark {
+
+    /** Inserts a new resource, the id is generated by the service */
+    @Benchmark
+    public String addResource(InventoryState state) throws Exception {
+        Resource resource = InventoryState.resource(null);
+        return state.inventory.addResource(InventoryState.TENANT, resource);
+    }
+
+    @Benchmark
+    public Resource getResource(InventoryState state) throws Exception {
+        return state.inventory.getResource(InventoryState.TENANT, state.nextResourceId());
+    }
+
+    /** Reads all resources of the tenant, i.e. scales with the size parameter */
+    @Benchmark
+    public List<Resource> getResourcesForType(InventoryState state) throws Exception {
+        return state.inventory.getResourcesForType(InventoryState.TENANT, ResourceType.URL);
+    }
+
+    /** Reads the first page of the tenant's resources, should not depend on the size parameter */
+    @Benchmark
+    public Page<Resource> getResourcesForTypeFirstPage(InventoryState state) throws Exception {
+        return state.inventory.getResourcesForType(InventoryState.TENANT, ResourceType.URL, 100, null);
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2015 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.inventory.benchmarks;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import org.hawkular.inventory.api.MetricDefinition;
+import org.hawkular.inventory.api.Resource;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Gson (de)serialization of the payloads the service stores, without any database access.
+ *
+ * @author agent
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SerializationBenchmark {
+
+    /** Number of parameters of the resource */
+    @Param({"1", "10", "100"})
+    public int parameters;
+
+    // Gson instances are thread safe, the service shares one as well
+    Gson gson;
+    Resource resource;
+    String resourceJson;
+    MetricDefinition metric;
+    String metricJson;
+
+    @Setup
+    public void setup() {
+        gson = new GsonBuilder().create();
+
+        resource = InventoryState.resource("serialized");
+        for (int i = 1; i < parameters; i++) {
+            resource.addParameter("param" + i, "value of parameter " + i);
+        }
+        resourceJson = gson.toJson(resource);
+
+        metric = InventoryState.metrics("serialized", 1).get(0);
+        metricJson = gson.toJson(metric);
+    }
+
+    @Benchmark
+    public String resourceToJson() {
+        return gson.toJson(resource);
+    }
+
+    @Benchmark
+    public Resource resourceFromJson() {
+        return gson.fromJson(resourceJson, Resource.class);
+    }
+
+    @Benchmark
+    public String metricToJson() {
+        return gson.toJson(metric);
+    }
+
+    @Benchmark
+    public MetricDefinition metricFromJson() {
+        return gson.fromJson(metricJson, MetricDefinition.class);
+    }
+}
@@ -0,0 +1,254 @@
+/*
+ * Copyright 2015 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.inventory.impl;
+
+import org.hawkular.inventory.api.AsyncInventory;
+import org.hawkular.inventory.api.Changes;
+import org.hawkular.inventory.api.Inventory;
+import org.hawkular.inventory.api.ItemResult;
+import org.hawkular.inventory.api.MetricDefinition;
+import org.hawkular.inventory.api.Page;
+import org.hawkular.inventory.api.Resource;
+import org.hawkular.inventory.api.ResourceType;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.EJB;
+import javax.ejb.Singleton;
+import javax.enterprise.concurrent.ManagedExecutorService;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * {@link AsyncInventory} that runs the calls of the blocking {@link Inventory} on a bounded
+ * pool of database threads.
+ *
+ * In the container the calls run on the managed executor service of the server, so they see
+ * its transactions, security and naming context; its number of threads should match
+ * {@link #THREADS_PROPERTY} and not be larger than the connection pool of the datasource.
+ * Outside of the container the service has a fixed pool of its own.
+ *
+ * At most {@link #THREADS_PROPERTY} calls run and {@link #QUEUE_PROPERTY} calls wait at a time.
+ * Beyond that, new calls fail at once instead of piling up.
+ *
+ * @author agent
+ */
+@Singleton
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class AsyncInventoryService implements AsyncInventory {
+
+    /** Number of threads that run database calls */
+    public static final String THREADS_PROPERTY = "hawkular.inventory.async.threads";
+    /** Number of calls that may wait for a free thread */
+    public static final String QUEUE_PROPERTY = "hawkular.inventory.async.queue";
+
+    @EJB
+    private Inventory inventory;
+
+    @javax.annotation.Resource
+    private ManagedExecutorService managedExecutor;
+
+    private ExecutorService executor;
+    private int threads;
+    /** Admits the running and the waiting calls */
+    private Semaphore admitted;
+    private int maxAdmitted;
+
+    public AsyncInventoryService() {
+    }
+
+    /**
+     * Creates a service outside of the container, e.g. for tests.
+     */
+    public AsyncInventoryService(Inventory inventory, int threads, int queueSize) {
+        this.inventory = inventory;
+        this.executor = createExecutor(threads, queueSize);
+        bound(threads, queueSize);
+    }
+
+    @PostConstruct
+    public void startup() {
+        executor = managedExecutor;
+        bound(Integer.getInteger(THREADS_PROPERTY, 16), Integer.getInteger(QUEUE_PROPERTY, 1000));
+    }
+
+    @PreDestroy
+    public void cleanup() {
+        // the managed executor belongs to the container
+        if (executor != managedExecutor) {
+            executor.shutdown();
+        }
+    }
+
+    private void bound(int threads, int queueSize) {
+        this.threads = threads;
+        this.maxAdmitted = threads + queueSize;
+        this.admitted = new Semaphore(maxAdmitted);
+    }
+
+    private static ThreadPoolExecutor createExecutor(int threads, int queueSize) {
+        final AtomicInteger count = new AtomicInteger();
+        ThreadFactory factory = runnable -> {
+            Thread thread = new Thread(runnable, "hawkular-inventory-db-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+        return new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueSize), factory);
+    }
+
+    /**
+     * @return the number of calls waiting for a thread
+     */
+    public int getQueueSize() {
+        return Math.max(0, maxAdmitted - admitted.availablePermits() - threads);
+    }
+
+    /**
+     * Runs the call on the pool. The stage fails with a RejectedExecutionException if the pool is saturated.
+     */
+    private <T> CompletionStage<T> submit(Callable<T> call) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        if (!admitted.tryAcquire()) {
+            result.completeExceptionally(new RejectedExecutionException("Too many calls waiting for the database"));
+            return result;
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    result.complete(call.call());
+                } catch (Throwable t) {
+                    result.completeExceptionally(t);
+                } finally {
+                    admitted.release();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            admitted.release();
+            result.completeExceptionally(e);
+        }
+        return result;
+    }
+
+    @Override
+    public CompletionStage<String> addResource(String tenant, Resource resource) {
+        return submit(() -> inventory.addResource(tenant, resource));
+    }
+
+    @Override
+    public CompletionStage<List<ItemResult>> addResources(String tenant, Collection<Resource> resources) {
+        return submit(() -> inventory.addResources(tenant, resources));
+    }
+
+    @Override
+    public CompletionStage<Collection<Resource>> getResourcesForType(String tenant, ResourceType type) {
+        return submit(() -> inventory.getResourcesForType(tenant, type));
+    }
+
+    @Override
+    public CompletionStage<Page<Resource>> getResourcesForType(String tenant, ResourceType type, int limit,
+                                                               String after) {
+        return submit(() -> inventory.getResourcesForType(tenant, type, limit, after));
+    }
+
+    @Override
+    public CompletionStage<List<Resource>> findResourcesByParameter(String tenant, String name, String value) {
+        return submit(() -> inventory.findResourcesByParameter(tenant, name, value));
+    }
+
+    @Override
+    public CompletionStage<Resource> getResource(String tenant, String uid) {
+        return submit(() -> inventory.getResource(tenant, uid));
+    }
+
+    @Override
+    public CompletionStage<Boolean> resourceExists(String tenant, String uid) {
+        return submit(() -> inventory.resourceExists(tenant, uid));
+    }
+
+    @Override
+    public CompletionStage<Boolean> deleteResource(String tenant, String uid) {
+        return submit(() -> inventory.deleteResource(tenant, uid));
+    }
+
+    @Override
+    public CompletionStage<Integer> deleteResources(String tenant, Collection<String> ids) {
+        return submit(() -> inventory.deleteResources(tenant, ids));
+    }
+
+    @Override
+    public CompletionStage<Integer> purgeTenant(String tenant) {
+        return submit(() -> inventory.purgeTenant(tenant));
+    }
+
+    @Override
+    public CompletionStage<Boolean> addMetricToResource(String tenant, String resourceId, String metricName) {
+        return submit(() -> inventory.addMetricToResource(tenant, resourceId, metricName));
+    }
+
+    @Override
+    public CompletionStage<Boolean> addMetricsToResource(String tenant, String resourceId,
+                                                         Collection<MetricDefinition> definitions) {
+        return submit(() -> inventory.addMetricsToResource(tenant, resourceId, definitions));
+    }
+
+    @Override
+    public CompletionStage<List<ItemResult>> upsertMetrics(String tenant, String resourceId,
+                                                           Collection<MetricDefinition> definitions) {
+        return submit(() -> inventory.upsertMetrics(tenant, resourceId, definitions));
+    }
+
+    @Override
+    public CompletionStage<Collection<MetricDefinition>> listMetricsForResource(String tenant, String resourceId) {
+        return submit(() -> inventory.listMetricsForResource(tenant, resourceId));
+    }
+
+    @Override
+    public CompletionStage<Page<MetricDefinition>> listMetricsForResource(String tenant, String resourceId,
+                                                                          int limit, String after) {
+        return submit(() -> inventory.listMetricsForResource(tenant, resourceId, limit, after));
+    }
+
+    @Override
+    public CompletionStage<Boolean> updateMetric(String tenant, String resourceId, MetricDefinition metric) {
+        return submit(() -> inventory.updateMetric(tenant, resourceId, metric));
+    }
+
+    @Override
+    public CompletionStage<MetricDefinition> getMetric(String tenant, String resourceId, String metricId) {
+        return submit(() -> inventory.getMetric(tenant, resourceId, metricId));
+    }
+
+    @Override
+    public CompletionStage<Changes> awaitChanges(String tenant, long after, int limit, long timeout, TimeUnit unit) {
+        // waits on the feed, not on the database
+        return inventory.awaitChanges(tenant, after, limit, timeout, unit);
+    }
+}
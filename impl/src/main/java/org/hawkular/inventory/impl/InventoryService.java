@@ -18,292 +18,1060 @@ package org.hawkular.inventory.impl;
 
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.MalformedJsonException;
+import org.hawkular.inventory.api.ChangeEvent;
+import org.hawkular.inventory.api.Changes;
+import org.hawkular.inventory.api.ImportResult;
 import org.hawkular.inventory.api.Inventory;
+import org.hawkular.inventory.api.ItemResult;
 import org.hawkular.inventory.api.MetricDefinition;
+import org.hawkular.inventory.api.Page;
 import org.hawkular.inventory.api.Resource;
+import org.hawkular.inventory.api.ResourceNotFoundException;
 import org.hawkular.inventory.api.ResourceType;
-import org.hawkular.inventory.impl.db.DbManager;
+import org.hawkular.inventory.impl.cache.BoundedCache;
+import org.hawkular.inventory.impl.cache.CacheKey;
+import org.hawkular.inventory.impl.cache.WriteBehindBuffer;
+import org.hawkular.inventory.impl.codec.BinaryPayloadCodec;
+import org.hawkular.inventory.impl.codec.JsonPayloadCodec;
+import org.hawkular.inventory.impl.codec.PayloadCodec;
+import org.hawkular.inventory.impl.codec.PayloadCodecs;
+import org.hawkular.inventory.impl.db.SlowQueryLog;
+import org.hawkular.inventory.impl.feed.ChangeFeed;
+import org.hawkular.inventory.impl.id.IdGenerator;
+import org.hawkular.inventory.impl.id.TimeOrderedIdGenerator;
+import org.hawkular.inventory.impl.stats.Statistics;
+import org.hawkular.inventory.impl.storage.JdbcStorage;
+import org.hawkular.inventory.impl.storage.LogStorage;
+import org.hawkular.inventory.impl.storage.MemoryStorage;
+import org.hawkular.inventory.impl.storage.Storage;
 
 import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
-import javax.ejb.Stateless;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.Singleton;
+import javax.ejb.TransactionManagement;
+import javax.ejb.TransactionManagementType;
+import javax.enterprise.concurrent.ManagedScheduledExecutorService;
+import javax.management.JMException;
 import javax.sql.DataSource;
-import java.sql.Connection;
-import java.sql.PreparedStatement;
-import java.sql.ResultSet;
+import java.io.File;
+import java.io.Reader;
+import java.io.Writer;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 
 /**
- * The inventory backend. Currently using the WildFly embedded H2
+ * The inventory backend. The data is kept in a {@link Storage}, selected by {@link #STORAGE_PROPERTY}:
+ * the WildFly embedded H2 ({@link JdbcStorage}, the default), the heap ({@link MemoryStorage}) or
+ * the heap backed by a log of files ({@link LogStorage}).
+ *
+ * The storages are safe for concurrent callers without locking, so a single bean-managed-concurrency
+ * instance is enough. Transactions are bean managed as well, so that the JDBC storage can group the
+ * statements of bulk operations on its borrowed connection.
+ *
+ * This service generates the missing ids, validates bulk requests and leaves only the storing and
+ * finding to the storage. Single resources and metrics are cached (see {@link #CACHE_SIZE_PROPERTY}).
+ * Cached objects are handed out to every caller, so they must not be modified. The cache is local
+ * to this node; writes on other nodes become visible here once the entries expire.
+ *
+ * Payloads in the database are written with the codec selected by {@link #PAYLOAD_CODEC_PROPERTY},
+ * see {@link JdbcStorage}.
+ *
+ * With {@link #WRITE_BEHIND_SIZE_PROPERTY} set, metric definitions are not written at once but
+ * collected in a {@link WriteBehindBuffer} and merged in batches. Definitions that are sent again
+ * unchanged are skipped. Until they are flushed, the buffered definitions are returned by
+ * {@link #getMetric(String, String, String)}, but not yet by the lists of metrics.
+ *
+ * Calls of the {@link Inventory} methods are counted and timed in {@link Statistics#INVENTORY},
+ * with the time spent encoding and decoding payloads apart from the rest.
+ *
+ * Every change is published on a {@link ChangeFeed} once it is committed, so other components
+ * can follow the inventory instead of listing it again and again.
+ *
  * @author Heiko Rupp
  */
-@Stateless
+@Singleton
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+@TransactionManagement(TransactionManagementType.BEAN)
 public class InventoryService implements Inventory {
 
+    /** Where the data is kept, "jdbc" (the default), "memory" or "log" */
+    public static final String STORAGE_PROPERTY = "hawkular.inventory.storage";
+    /** Maximum number of cached resources and of cached metrics, 0 turns the cache off */
+    public static final String CACHE_SIZE_PROPERTY = "hawkular.inventory.cache.size";
+    /** Seconds a cached resource or metric stays valid */
+    public static final String CACHE_TTL_PROPERTY = "hawkular.inventory.cache.ttl";
+    /** Codec for newly written payloads, "json" (the default) or "binary" */
+    public static final String PAYLOAD_CODEC_PROPERTY = "hawkular.inventory.payload.codec";
+    /** If "true", existing payloads are converted to the format of the codec on startup */
+    public static final String PAYLOAD_CONVERT_PROPERTY = "hawkular.inventory.payload.convert";
+    /** Maximum number of metric definitions held for write-behind, 0 (the default) writes them at once */
+    public static final String WRITE_BEHIND_SIZE_PROPERTY = "hawkular.inventory.writebehind.size";
+    /** Milliseconds between two flushes of the write-behind buffer */
+    public static final String WRITE_BEHIND_INTERVAL_PROPERTY = "hawkular.inventory.writebehind.interval";
+    /** Number of changes the change feed keeps for its readers */
+    public static final String CHANGES_SIZE_PROPERTY = "hawkular.inventory.changes.size";
+
+    /** Resources an import adds per chunk, each chunk with its metrics in two transactions */
+    static final int IMPORT_CHUNK_SIZE = 500;
+    /** Names of the caches over JMX */
+    private static final String RESOURCE_CACHE = "resources";
+    private static final String METRIC_CACHE = "metrics";
+    /** Chunks between two progress messages of an import */
+    private static final int IMPORT_PROGRESS_CHUNKS = 20;
+
     @javax.annotation.Resource( lookup = "java:/jdbc/HawkularDS")
     private DataSource db;
 
+    @javax.annotation.Resource
+    private ManagedScheduledExecutorService scheduler;
+
     Gson gson;
-    PreparedStatement insertResourceStatement;
-    PreparedStatement findResourceByTypeStatement;
-    PreparedStatement findResourceByIdStatement;
-    PreparedStatement deleteResourceByIdStatement;
-    private PreparedStatement addMetricToResourceStatement;
-    private PreparedStatement listMetricsOfResourceStatement;
-    Connection connection;
-    private PreparedStatement deleteMetricsOfResourceStatement;
+    private final JsonPayloadCodec jsonCodec;
+    private final BinaryPayloadCodec binaryCodec;
+    /** Codec for the payloads that are written */
+    private final PayloadCodec codec;
+    private final BoundedCache<CacheKey, Resource> resourceCache;
+    private final BoundedCache<CacheKey, MetricDefinition> metricCache;
+    /** Pending metric definitions, null if they are written at once */
+    private volatile WriteBehindBuffer<CacheKey, MetricDefinition> metricBuffer;
+    private volatile ChangeFeed changeFeed;
+    private final Statistics stats = Statistics.INVENTORY;
+    private volatile IdGenerator idGenerator = new TimeOrderedIdGenerator();
+    private volatile Storage storage;
 
     public InventoryService() {
 
         gson = new GsonBuilder().create();
+        // fails for a misspelled codec instead of writing JSON silently
+        codec = PayloadCodecs.forName(System.getProperty(PAYLOAD_CODEC_PROPERTY, PayloadCodecs.JSON), gson);
+        jsonCodec = codec instanceof JsonPayloadCodec ? (JsonPayloadCodec) codec : new JsonPayloadCodec(gson);
+        binaryCodec = codec instanceof BinaryPayloadCodec ? (BinaryPayloadCodec) codec : new BinaryPayloadCodec();
+
+        int cacheSize = Integer.getInteger(CACHE_SIZE_PROPERTY, 10000);
+        long cacheTtl = Long.getLong(CACHE_TTL_PROPERTY, 60);
+        resourceCache = new BoundedCache<>(cacheSize, cacheTtl, TimeUnit.SECONDS);
+        metricCache = new BoundedCache<>(cacheSize, cacheTtl, TimeUnit.SECONDS);
+    }
 
+    /**
+     * Creates a service on a database outside of the container, e.g. for tests.
+     * @param dataSource Pool to borrow the connections from
+     */
+    public InventoryService(DataSource dataSource) {
+        this();
+        this.db = dataSource;
+        this.storage = new JdbcStorage(dataSource, jsonCodec, binaryCodec, codec);
+        storage.start();
+        seedIdGenerator();
+        metricBuffer = createMetricBuffer(null);
+        changeFeed = createChangeFeed(null);
     }
 
-    public InventoryService(Connection conn) {
+    /**
+     * Creates a service on the given storage outside of the container, e.g. for tests.
+     */
+    public InventoryService(Storage storage) {
         this();
-        this.connection = conn;
-        try {
-            DbManager.setupDB(conn);
-            prepareH2Statements(conn);
-        } catch (Exception e) {
-            e.printStackTrace();  // TODO: Customise this generated block
+        this.storage = storage;
+        storage.start();
+        seedIdGenerator();
+        metricBuffer = createMetricBuffer(null);
+        changeFeed = createChangeFeed(null);
+    }
+
+    /**
+     * @param timer Runs the background flushes, null for a timer of the buffer's own
+     * @return the buffer for write-behind of metric definitions or null if it is turned off
+     */
+    private WriteBehindBuffer<CacheKey, MetricDefinition> createMetricBuffer(ScheduledExecutorService timer) {
+        int bufferSize = Integer.getInteger(WRITE_BEHIND_SIZE_PROPERTY, 0);
+        long bufferInterval = Long.getLong(WRITE_BEHIND_INTERVAL_PROPERTY, 1000);
+        if (bufferSize <= 0) {
+            return null;
         }
+        WriteBehindBuffer.Flusher<CacheKey, MetricDefinition> flusher = this::flushMetrics;
+        return timer != null
+                ? new WriteBehindBuffer<>(bufferSize, bufferInterval, TimeUnit.MILLISECONDS, timer, flusher)
+                : new WriteBehindBuffer<>(bufferSize, bufferInterval, TimeUnit.MILLISECONDS, flusher);
+    }
+
+    /**
+     * @param timer Times out the waiting readers, null for a timer of the feed's own
+     */
+    private ChangeFeed createChangeFeed(ScheduledExecutorService timer) {
+        int capacity = Integer.getInteger(CHANGES_SIZE_PROPERTY, 8192);
+        return timer != null ? new ChangeFeed(capacity, timer) : new ChangeFeed(capacity);
     }
 
     @PostConstruct
     public void startup() {
 
-        if (db == null) {
-            Log.LOG.warn("Backend database not available");
-            throw new RuntimeException("No db, can't continue");
+        String name = System.getProperty(STORAGE_PROPERTY, Storage.JDBC);
+        if (Storage.MEMORY.equals(name)) {
+            storage = new MemoryStorage();
+        } else if (Storage.LOG.equals(name)) {
+            String dir = System.getProperty("jboss.server.data.dir", ".") + File.separator + "inventory";
+            storage = new LogStorage(new File(System.getProperty(LogStorage.DIR_PROPERTY, dir)));
+        } else if (Storage.JDBC.equals(name)) {
+            if (db == null) {
+                Log.LOG.warn("Backend database not available");
+                throw new RuntimeException("No db, can't continue");
+            }
+            storage = new JdbcStorage(db, jsonCodec, binaryCodec, codec);
+        } else {
+            throw new IllegalArgumentException("Unknown storage: " + name);
         }
+        storage.start();
+        seedIdGenerator();
+        metricBuffer = createMetricBuffer(scheduler);
+        changeFeed = createChangeFeed(scheduler);
 
         try {
-            connection = db.getConnection("sa","sa");
-            DbManager.setupDB(connection);
-            prepareH2Statements(connection);
-        } catch (Exception e) {
-            e.printStackTrace();  // TODO: Customise this generated block
+            stats.register();
+            resourceCache.register(RESOURCE_CACHE);
+            metricCache.register(METRIC_CACHE);
+        } catch (JMException e) {
+            Log.LOG.warn(e.getMessage());
         }
 
+        if (Boolean.getBoolean(PAYLOAD_CONVERT_PROPERTY) && storage instanceof JdbcStorage) {
+            try {
+                Log.LOG.payloadsConverted(convertPayloads(), codec.getName());
+            } catch (SQLException e) {
+                Log.LOG.warn(e.getMessage());
+            }
+        }
     }
 
     @PreDestroy
     public void cleanup() {
-        if (connection!=null) {
+        if (metricBuffer != null) {
             try {
-                connection.close();
-            } catch (SQLException e) {
-                e.printStackTrace();  // TODO: Customise this generated block
+                metricBuffer.close();
+            } catch (Exception e) {
+                Log.LOG.warn(e.getMessage());
             }
         }
+        if (changeFeed != null) {
+            changeFeed.close();
+        }
+        storage.stop();
+        try {
+            stats.unregister();
+            resourceCache.unregister(RESOURCE_CACHE);
+            metricCache.unregister(METRIC_CACHE);
+        } catch (JMException e) {
+            Log.LOG.warn(e.getMessage());
+        }
     }
 
     @Override
     public String addResource(String tenant, Resource resource) throws Exception {
 
-        String id = resource.getId();
-        if (id == null || id.isEmpty()) {
-            id = createUUID();
-            resource.setId(id);
+        long start = stats.start();
+        try {
+            String id = resource.getId();
+            if (id == null || id.isEmpty()) {
+                id = createUUID();
+                resource.setId(id);
+            }
+
+            storage.insertResource(tenant, resource);
+            resourceCache.invalidate(CacheKey.resource(tenant, id));
+            changeFeed.publish(ChangeEvent.Type.RESOURCE_ADDED, tenant, id, null);
+
+            return id;
+        } catch (Exception e) {
+            stats.failed();
+            throw e;
+        } finally {
+            stats.stop("addResource", tenant, start);
         }
+    }
+
+    @Override
+    public List<ItemResult> addResources(String tenant, Collection<Resource> resources) throws Exception {
+
+        long start = stats.start();
+        try {
+            // null where the storage has the say
+            List<ItemResult> results = new ArrayList<>(resources.size());
+            List<Resource> valid = new ArrayList<>(resources.size());
+            Set<String> idsInBatch = new HashSet<>();
+
+            for (Resource resource : resources) {
+                String id = resource.getId();
+                if (id == null || id.isEmpty()) {
+                    id = createUUID();
+                    resource.setId(id);
+                }
+                if (resource.getType() == null) {
+                    results.add(ItemResult.failed(id, "Resource type is missing"));
+                } else if (!idsInBatch.add(id)) {
+                    results.add(ItemResult.failed(id, "Duplicate id in request"));
+                } else {
+                    results.add(null);
+                    valid.add(resource);
+                }
+            }
+            fillIn(results, storage.insertResources(tenant, valid));
 
-        insertResourceStatement.setString(1, id);
-        insertResourceStatement.setString(2, tenant);
-        insertResourceStatement.setString(3, resource.getType().name());
-        String payload = toJson(resource);
-        insertResourceStatement.setString(4, payload);
-        insertResourceStatement.execute();
+            for (ItemResult result : results) {
+                resourceCache.invalidate(CacheKey.resource(tenant, result.getId()));
+                if (result.getStatus() == ItemResult.Status.CREATED) {
+                    changeFeed.publish(ChangeEvent.Type.RESOURCE_ADDED, tenant, result.getId(), null);
+                }
+            }
+
+            return results;
+        } catch (Exception e) {
+            stats.failed();
+            throw e;
+        } finally {
+            stats.stop("addResources", tenant, start);
+        }
+    }
 
-        return id;
+    /**
+     * Fills the gaps that the validation left in results with the results of the storage, in order.
+     */
+    private static void fillIn(List<ItemResult> results, List<ItemResult> stored) {
+        Iterator<ItemResult> next = stored.iterator();
+        for (int i = 0; i < results.size(); i++) {
+            if (results.get(i) == null) {
+                results.set(i, next.next());
+            }
+        }
     }
 
     @Override
     public List<Resource> getResourcesForType(String tenant, ResourceType type) throws Exception {
 
-        List<Resource> result = new ArrayList<>();
+        long start = stats.start();
+        try {
+            return storage.getResourcesForType(tenant, type);
+        } catch (Exception e) {
+            stats.failed();
+            throw e;
+        } finally {
+            stats.stop("getResourcesForType", tenant, start);
+        }
+    }
+
+    @Override
+    public Page<Resource> getResourcesForType(String tenant, ResourceType type, int limit, String after)
+            throws Exception {
 
-        findResourceByTypeStatement.setString(1, type.name());
-        findResourceByTypeStatement.setString(2, tenant);
-        ResultSet resultSet = findResourceByTypeStatement.executeQuery();
-        while (resultSet.next()) {
-            String payload = resultSet.getString(1);
-            Resource resource = fromJson(payload, Resource.class);
-            result.add(resource);
+        long start = stats.start();
+        try {
+            return storage.getResourcesForType(tenant, type, limit, after);
+        } catch (Exception e) {
+            stats.failed();
+            throw e;
+        } finally {
+            stats.stop("getResourcesForTypePaged", tenant, start);
         }
-        resultSet.close();
+    }
+
+    @Override
+    public void writeResourcesForType(String tenant, ResourceType type, Writer out) throws Exception {
 
-        return result;
+        long start = stats.start();
+        try {
+            storage.writeResourcesForType(tenant, type, out);
+        } catch (Exception e) {
+            stats.failed();
+            throw e;
+        } finally {
+            stats.stop("writeResourcesForType", tenant, start);
+        }
     }
 
     @Override
-    public Resource getResource(String tenant, String uid) throws Exception {
+    public void writeResourcesWithMetrics(String tenant, ResourceType type, Writer out) throws Exception {
 
-        Resource result = null;
+        long start = stats.start();
+        try {
+            storage.writeResourcesWithMetrics(tenant, type, out);
+        } catch (Exception e) {
+            stats.failed();
+            throw e;
+        } finally {
+            stats.stop("writeResourcesWithMetrics", tenant, start);
+        }
+    }
+
+    @Override
+    public void exportTenant(String tenant, Writer out) throws Exception {
+
+        long start = stats.start();
+        try {
+            storage.exportTenant(tenant, out);
+        } catch (Exception e) {
+            stats.failed();
+            throw e;
+        } finally {
+            stats.stop("exportTenant", tenant, start);
+        }
+    }
+
+    /**
+     * Only a chunk of records is held at a time, so the memory used does not grow with the input. The
+     * input is read only as fast as the chunks are written, which slows down a client that sends faster.
+     */
+    @Override
+    public ImportResult importTenant(String tenant, Reader in) throws Exception {
+
+        long start = stats.start();
+        try {
+            ImportResult result = new ImportResult();
+            JsonReader reader = new JsonReader(in);
+            reader.setLenient(true); // a sequence of objects instead of a single one
+            List<ExportedResource> chunk = new ArrayList<>(IMPORT_CHUNK_SIZE);
+            long records = 0;
+            int chunks = 0;
+            while (true) {
+                ExportedResource record;
+                try {
+                    if (reader.peek() == JsonToken.END_DOCUMENT) {
+                        break;
+                    }
+                    record = gson.fromJson(reader, ExportedResource.class);
+                } catch (JsonParseException | MalformedJsonException e) {
+                    throw new IllegalArgumentException("Invalid record " + (records + 1) + ": " + e.getMessage(), e);
+                }
+                records++;
+
+                if (record == null || record.resource == null) {
+                    result.addFailure(ItemResult.failed(null, "Record " + records + " has no resource"));
+                    continue;
+                }
+                chunk.add(record);
+                if (chunk.size() == IMPORT_CHUNK_SIZE) {
+                    importChunk(tenant, chunk, result);
+                    if (++chunks % IMPORT_PROGRESS_CHUNKS == 0) {
+                        Log.LOG.importProgress(tenant, result.getResources(), result.getMetrics(), result.getFailed());
+                    }
+                }
+            }
+            importChunk(tenant, chunk, result);
+            Log.LOG.importProgress(tenant, result.getResources(), result.getMetrics(), result.getFailed());
+
+            return result;
+        } catch (Exception e) {
+            stats.failed();
+            throw e;
+        } finally {
+            stats.stop("importTenant", tenant, start);
+        }
+    }
+
+    /**
+     * Adds the resources of the chunk, then merges the metrics of those that were added, and clears the chunk.
+     */
+    private void importChunk(String tenant, List<ExportedResource> chunk, ImportResult result) throws Exception {
+
+        if (chunk.isEmpty()) {
+            return;
+        }
+        List<Resource> resources = new ArrayList<>(chunk.size());
+        for (ExportedResource record : chunk) {
+            resources.add(record.resource);
+        }
+        List<ItemResult> results = addResources(tenant, resources);
+
+        Map<CacheKey, MetricDefinition> metrics = new HashMap<>();
+        for (int i = 0; i < results.size(); i++) {
+            ItemResult added = results.get(i);
+            if (added.getStatus() != ItemResult.Status.CREATED) {
+                result.addFailure(added);
+                continue;
+            }
+            result.setResources(result.getResources() + 1);
+            List<MetricDefinition> definitions = chunk.get(i).metrics;
+            if (definitions == null) {
+                continue;
+            }
+            for (MetricDefinition definition : definitions) {
+                if (definition == null || definition.getName() == null || definition.getName().isEmpty()) {
+                    result.addFailure(ItemResult.failed(added.getId(), "Metric name is missing"));
+                } else {
+                    metrics.put(CacheKey.metric(tenant, added.getId(), definition.getName()), definition);
+                }
+            }
+        }
+        if (!metrics.isEmpty()) {
+            // the resources are new, so are their metrics
+            List<CacheKey> written = writeMetrics(metrics, ChangeEvent.Type.METRIC_ADDED);
+            result.setMetrics(result.getMetrics() + written.size());
+        }
+        chunk.clear();
+    }
 
-        findResourceByIdStatement.setString(1, uid);
-        findResourceByIdStatement.setString(2, tenant);
+    @Override
+    public List<Resource> findResourcesByParameter(String tenant, String name, String value) throws Exception {
 
-        ResultSet resultSet = findResourceByIdStatement.executeQuery();
-        while (resultSet.next()) {
-            String payload = resultSet.getString(1);
-            result = fromJson(payload, Resource.class);
+        long start = stats.start();
+        try {
+            return storage.findResourcesByParameter(tenant, name, value);
+        } catch (Exception e) {
+            stats.failed();
+            throw e;
+        } finally {
+            stats.stop("findResourcesByParameter", tenant, start);
         }
-        resultSet.close();
+    }
 
-        return result;
+    @Override
+    public Resource getResource(String tenant, String uid) throws Exception {
+
+        long start = stats.start();
+        try {
+            CacheKey key = CacheKey.resource(tenant, uid);
+            Resource result = resourceCache.get(key);
+            if (result == null) {
+                long stamp = resourceCache.stamp(key);
+                result = storage.getResource(tenant, uid);
+                resourceCache.put(key, result, stamp);
+            }
+            return result;
+        } catch (Exception e) {
+            stats.failed();
+            throw e;
+        } finally {
+            stats.stop("getResource", tenant, start);
+        }
+    }
+
+    @Override
+    public boolean resourceExists(String tenant, String uid) throws Exception {
+
+        long start = stats.start();
+        try {
+            if (resourceCache.get(CacheKey.resource(tenant, uid)) != null) {
+                return true;
+            }
+            return storage.resourceExists(tenant, uid);
+        } catch (Exception e) {
+            stats.failed();
+            throw e;
+        } finally {
+            stats.stop("resourceExists", tenant, start);
+        }
     }
 
     @Override
     public boolean deleteResource(String tenant, String uid) throws Exception {
 
-        deleteMetricsOfResourceStatement.setString(1, uid);
-        deleteMetricsOfResourceStatement.setString(2, tenant);
-        deleteMetricsOfResourceStatement.executeUpdate();
+        long start = stats.start();
+        try {
+            boolean deleted = !storage.deleteResources(tenant, Collections.singletonList(uid)).isEmpty();
+            invalidateResource(tenant, uid);
+            if (deleted) {
+                changeFeed.publish(ChangeEvent.Type.RESOURCE_DELETED, tenant, uid, null);
+            }
 
-        deleteResourceByIdStatement.setString(1, uid);
-        deleteResourceByIdStatement.setString(2, tenant);
-        int count = deleteResourceByIdStatement.executeUpdate();
+            return deleted;
+        } catch (Exception e) {
+            stats.failed();
+            throw e;
+        } finally {
+            stats.stop("deleteResource", tenant, start);
+        }
+    }
+
+    @Override
+    public int deleteResources(String tenant, Collection<String> ids) throws Exception {
+
+        long start = stats.start();
+        try {
+            List<String> deleted;
+            try {
+                deleted = storage.deleteResources(tenant, ids);
+            } finally {
+                invalidateResources(tenant, ids);
+            }
+            for (String id : deleted) {
+                changeFeed.publish(ChangeEvent.Type.RESOURCE_DELETED, tenant, id, null);
+            }
 
-        return count ==1;
+            return deleted.size();
+        } catch (Exception e) {
+            stats.failed();
+            throw e;
+        } finally {
+            stats.stop("deleteResources", tenant, start);
+        }
+    }
+
+    /**
+     * The change feed gets a single {@link ChangeEvent.Type#TENANT_PURGED} event instead of one per resource.
+     */
+    @Override
+    public int purgeTenant(String tenant) throws Exception {
+
+        long start = stats.start();
+        try {
+            int purged;
+            try {
+                purged = storage.purgeTenant(tenant);
+            } finally {
+                invalidateTenant(tenant);
+            }
+            changeFeed.publish(ChangeEvent.Type.TENANT_PURGED, tenant, null, null);
+
+            return purged;
+        } catch (Exception e) {
+            stats.failed();
+            throw e;
+        } finally {
+            stats.stop("purgeTenant", tenant, start);
+        }
     }
 
     @Override
     public boolean addMetricToResource(String tenant, String resourceId, String metric_name) throws Exception {
-        List<MetricDefinition> definitions = new ArrayList<>(1);
-        definitions.add(new MetricDefinition(metric_name));
-        return addMetricsToResource(tenant,resourceId,definitions);
+
+        long start = stats.start();
+        try {
+            List<MetricDefinition> definitions = new ArrayList<>(1);
+            definitions.add(new MetricDefinition(metric_name));
+            return addMetricsToResource(tenant,resourceId,definitions);
+        } catch (Exception e) {
+            stats.failed();
+            throw e;
+        } finally {
+            stats.stop("addMetricToResource", tenant, start);
+        }
     }
 
     @Override
     public boolean addMetricsToResource(String tenant, String resourceId, Collection<MetricDefinition> definitions)
             throws Exception {
 
+        long start = stats.start();
         try {
+            if (definitions.isEmpty()) {
+                return true;
+            }
 
-            for (MetricDefinition definition : definitions) {
-                addMetricToResourceStatement.setString(1, resourceId);
-                addMetricToResourceStatement.setString(2, tenant);
-                addMetricToResourceStatement.setString(3, definition.getName());
-                addMetricToResourceStatement.setString(4, toJson(definition));
-
-                addMetricToResourceStatement.addBatch();
-
+            if (metricBuffer != null) {
+                checkResourceExists(tenant, resourceId);
+                Set<String> names = new HashSet<>();
+                for (MetricDefinition definition : definitions) {
+                    if (names.add(definition.getName())) { // the first definition of a name wins, as with upsertMetrics
+                        bufferMetric(tenant, resourceId, definition);
+                    }
+                }
+                return true;
             }
-            addMetricToResourceStatement.executeBatch();
-        } catch (SQLException e) {
-            if (!e.getSQLState().equals("23505")) { // violated PK - we don't care
+
+            try {
+                upsertMetrics(tenant, resourceId, definitions);
+            } catch (SQLException e) {
                 Log.LOG.warn(e.getMessage());
+                return false;
             }
-            return false;
+
+            return true;
+        } catch (Exception e) {
+            stats.failed();
+            throw e;
+        } finally {
+            stats.stop("addMetricsToResource", tenant, start);
         }
+    }
+
+    @Override
+    public List<ItemResult> upsertMetrics(String tenant, String resourceId, Collection<MetricDefinition> definitions)
+            throws Exception {
+
+        long start = stats.start();
+        try {
+            if (metricBuffer != null) {
+                // the buffered definitions are older and must not overwrite the ones given here later on
+                metricBuffer.flush();
+            }
+
+            // null where the storage has the say
+            List<ItemResult> results = new ArrayList<>(definitions.size());
+            if (definitions.isEmpty()) {
+                return results;
+            }
+
+            List<MetricDefinition> valid = new ArrayList<>(definitions.size());
+            Set<String> namesInBatch = new HashSet<>();
+            for (MetricDefinition definition : definitions) {
+                String name = definition.getName();
+                if (name == null || name.isEmpty()) {
+                    results.add(ItemResult.failed(name, "Metric name is missing"));
+                } else if (!namesInBatch.add(name)) {
+                    results.add(ItemResult.failed(name, "Duplicate name in request"));
+                } else {
+                    results.add(null);
+                    valid.add(definition);
+                }
+            }
+
+            try {
+                // called even without a valid definition, so a missing resource is reported
+                fillIn(results, storage.upsertMetrics(tenant, resourceId, valid));
+            } finally {
+                invalidateMetrics(tenant, resourceId, definitions);
+            }
+
+            for (ItemResult result : results) {
+                if (result.getStatus() == ItemResult.Status.CREATED) {
+                    changeFeed.publish(ChangeEvent.Type.METRIC_ADDED, tenant, resourceId, result.getId());
+                } else if (result.getStatus() == ItemResult.Status.UPDATED) {
+                    changeFeed.publish(ChangeEvent.Type.METRIC_UPDATED, tenant, resourceId, result.getId());
+                }
+            }
 
-        return true;
+            return results;
+        } catch (Exception e) {
+            stats.failed();
+            throw e;
+        } finally {
+            stats.stop("upsertMetrics", tenant, start);
+        }
     }
 
 
     @Override
     public List<MetricDefinition> listMetricsForResource(String tenant, String resourceId) throws Exception {
 
-        List<MetricDefinition> result = new ArrayList<>();
-
-        listMetricsOfResourceStatement.setString(1,resourceId);
-        listMetricsOfResourceStatement.setString(2, tenant);
+        long start = stats.start();
+        try {
+            return storage.listMetricsForResource(tenant, resourceId);
+        } catch (Exception e) {
+            stats.failed();
+            throw e;
+        } finally {
+            stats.stop("listMetricsForResource", tenant, start);
+        }
+    }
 
-        ResultSet resultSet = listMetricsOfResourceStatement.executeQuery();
-        while (resultSet.next()) {
-            String payload = resultSet.getString(1);
+    @Override
+    public Page<MetricDefinition> listMetricsForResource(String tenant, String resourceId, int limit, String after)
+            throws Exception {
 
-            result.add(fromJson(payload,MetricDefinition.class));
+        long start = stats.start();
+        try {
+            return storage.listMetricsForResource(tenant, resourceId, limit, after);
+        } catch (Exception e) {
+            stats.failed();
+            throw e;
+        } finally {
+            stats.stop("listMetricsForResourcePaged", tenant, start);
         }
-        resultSet.close();
+    }
 
-        return result;
+    @Override
+    public void writeMetricsForResource(String tenant, String resourceId, Writer out) throws Exception {
+
+        long start = stats.start();
+        try {
+            storage.writeMetricsForResource(tenant, resourceId, out);
+        } catch (Exception e) {
+            stats.failed();
+            throw e;
+        } finally {
+            stats.stop("writeMetricsForResource", tenant, start);
+        }
     }
 
     @Override
     public boolean updateMetric(String tenant, String resourceId, MetricDefinition metric) throws Exception {
-        PreparedStatement s = connection.prepareStatement("MERGE INTO HWK_METRICS VALUES (?,?,?,?)");
 
-        s.setString(1, resourceId);
-        s.setString(2, tenant);
-        s.setString(3, metric.getName());
-        s.setString(4, toJson(metric));
+        long start = stats.start();
+        try {
+            if (metricBuffer != null) {
+                checkResourceExists(tenant, resourceId);
+                bufferMetric(tenant, resourceId, metric);
+                return true;
+            }
 
-        int count = s.executeUpdate();
+            CacheKey key = CacheKey.metric(tenant, resourceId, metric.getName());
+            boolean written;
+            try {
+                written = !storage.mergeMetrics(Collections.singletonMap(key, metric)).isEmpty();
+            } finally {
+                metricCache.invalidate(key);
+            }
+            if (!written) {
+                throw new ResourceNotFoundException(tenant, resourceId);
+            }
+            changeFeed.publish(ChangeEvent.Type.METRIC_UPDATED, tenant, resourceId, metric.getName());
 
-        return count == 1;
+            return true;
 
+        } catch (Exception e) {
+            stats.failed();
+            throw e;
+        } finally {
+            stats.stop("updateMetric", tenant, start);
+        }
     }
 
     @Override
     public MetricDefinition getMetric(String tenant, String resourceId, String metricId) throws Exception {
-        PreparedStatement s = connection.prepareStatement("SELECT m.payload FROM HWK_METRICS m " +
-                "WHERE m.TENANT = ? AND m.RESOURCE_ID = ? and m.METRIC_NAME = ?");
 
-        s.setString(1, tenant);
-        s.setString(2, resourceId);
-        s.setString(3, metricId);
+        long start = stats.start();
+        try {
+            CacheKey key = CacheKey.metric(tenant, resourceId, metricId);
+            MetricDefinition result = metricBuffer != null ? metricBuffer.get(key) : null;
+            if (result != null) {
+                return result;
+            }
+            result = metricCache.get(key);
+            if (result == null) {
+                long stamp = metricCache.stamp(key);
+                result = storage.getMetric(tenant, resourceId, metricId);
+                metricCache.put(key, result, stamp);
+            }
+            return result;
+        } catch (Exception e) {
+            stats.failed();
+            throw e;
+        } finally {
+            stats.stop("getMetric", tenant, start);
+        }
+    }
 
-        MetricDefinition result;
+    private void checkResourceExists(String tenant, String resourceId) throws Exception {
+        // read through the cache, as agents send the definitions of the same resources over and over
+        if (getResource(tenant, resourceId) == null) {
+            throw new ResourceNotFoundException(tenant, resourceId);
+        }
+    }
 
-        try (ResultSet resultSet = s.executeQuery()) {
-            result = null;
-            while (resultSet.next()) {
-                String payload = resultSet.getString(1);
-                result = fromJson(payload,MetricDefinition.class);
-            }
+    /**
+     * Hands the definition to the write-behind buffer, unless it is the same as the one that is
+     * pending or cached already.
+     */
+    private void bufferMetric(String tenant, String resourceId, MetricDefinition definition) throws Exception {
 
+        CacheKey key = CacheKey.metric(tenant, resourceId, definition.getName());
+        MetricDefinition current = metricBuffer.get(key);
+        if (current == null) {
+            current = metricCache.get(key);
+        }
+        // equals() only looks at name and unit, the payloads tell if anything has changed
+        if (current != null && jsonCodec.encodeText(current).equals(jsonCodec.encodeText(definition))) {
+            return;
         }
-        return result;
+        metricBuffer.put(key, definition);
+    }
 
+    /**
+     * Merges a batch of buffered metric definitions at once. Definitions of resources that have been
+     * deleted in the meantime are dropped by the storage. The written definitions are cached, so
+     * sending them again is recognized as unchanged.
+     */
+    private void flushMetrics(Map<CacheKey, MetricDefinition> batch) throws Exception {
+        writeMetrics(batch, ChangeEvent.Type.METRIC_UPDATED);
+    }
 
+    /**
+     * Merges the metric definitions and publishes a change of the given type for each one written.
+     *
+     * @return the keys of the written definitions
+     */
+    private List<CacheKey> writeMetrics(Map<CacheKey, MetricDefinition> batch, ChangeEvent.Type type)
+            throws Exception {
+
+        // stamped before the write, so a resource deleted meanwhile does not get its metrics cached again
+        Map<CacheKey, Long> stamps = new HashMap<>(batch.size() * 2);
+        for (CacheKey key : batch.keySet()) {
+            metricCache.invalidate(key);
+            stamps.put(key, metricCache.stamp(key));
+        }
+
+        List<CacheKey> written;
+        try {
+            written = storage.mergeMetrics(batch);
+        } catch (Exception e) {
+            Log.LOG.metricFlushFailed(batch.size(), e.getMessage());
+            throw e;
+        }
+        for (CacheKey key : written) {
+            changeFeed.publish(type, key.getTenant(), key.getResourceId(), key.getMetricName());
+        }
 
+        for (Map.Entry<CacheKey, MetricDefinition> entry : batch.entrySet()) {
+            metricCache.put(entry.getKey(), entry.getValue(), stamps.get(entry.getKey()));
+        }
+        return written;
     }
 
-    private String createUUID() {
-        return "x" + String.valueOf(System.currentTimeMillis());
+    /**
+     * Writes the metric definitions that are held for write-behind.
+     *
+     * @return the number of written definitions
+     */
+    public int flushMetrics() throws Exception {
+        return metricBuffer != null ? metricBuffer.flush() : 0;
+    }
+
+    @Override
+    public Changes getChanges(String tenant, long after, int limit) {
+        return changeFeed.read(tenant, after, limit);
+    }
+
+    @Override
+    public CompletionStage<Changes> awaitChanges(String tenant, long after, int limit, long timeout, TimeUnit unit) {
+        return changeFeed.await(tenant, after, limit, timeout, unit);
     }
 
+    /**
+     * Rewrites the payloads in the database that are not in the format of the current codec, see
+     * {@link JdbcStorage#convertPayloads()}. Cached objects stay valid, only the format changes.
+     *
+     * @return the number of converted rows
+     * @throws IllegalStateException if the data is not kept in a database
+     */
+    public int convertPayloads() throws SQLException {
+        return jdbcStorage().convertPayloads();
+    }
 
+    /**
+     * Replaces the generator for the ids of resources that are added without one.
+     */
+    public void setIdGenerator(IdGenerator idGenerator) {
+        this.idGenerator = idGenerator;
+    }
 
-    void prepareH2Statements(Connection c ) throws Exception {
+    /**
+     * Replaces the log the slow statements are reported to, {@link SlowQueryLog#INSTANCE} by default.
+     */
+    public void setSlowQueryLog(SlowQueryLog slowQueryLog) {
+        jdbcStorage().setSlowQueryLog(slowQueryLog);
+    }
 
-        // deal with resources
-        insertResourceStatement = c.prepareStatement("INSERT INTO HWK_RESOURCES VALUES ( ?, ?, ?, ? ) ");
-        findResourceByIdStatement =
-                c.prepareStatement("SELECT r.payload FROM HWK_RESOURCES r  WHERE ID = ? AND TENANT = ?");
-        findResourceByTypeStatement =
-                c.prepareStatement("SELECT r.payload FROM HWK_RESOURCES r WHERE type = ? AND tenant = ?");
-        deleteResourceByIdStatement = c.prepareStatement("DELETE FROM HWK_RESOURCES WHERE ID = ? AND TENANT = ?");
+    public Storage getStorage() {
+        return storage;
+    }
 
-        // deal with metrics
-        addMetricToResourceStatement = c.prepareStatement("INSERT INTO HWK_METRICS VALUES ( ?,?,?, ?)");
-        listMetricsOfResourceStatement = c.prepareStatement("SELECT m.payload FROM HWK_METRICS m WHERE m" +
-                ".resource_id = ? AND TENANT = ?");
+    private JdbcStorage jdbcStorage() {
+        if (!(storage instanceof JdbcStorage)) {
+            throw new IllegalStateException("Not available with " + storage.getClass().getSimpleName());
+        }
+        return (JdbcStorage) storage;
+    }
 
-        deleteMetricsOfResourceStatement =
-                c.prepareStatement("DELETE FROM HWK_METRICS where resource_id = ? AND TENANT = ?");
+    public BoundedCache<CacheKey, Resource> getResourceCache() {
+        return resourceCache;
+    }
 
+    public BoundedCache<CacheKey, MetricDefinition> getMetricCache() {
+        return metricCache;
     }
 
-    private String toJson(Object resource) {
+    public ChangeFeed getChangeFeed() {
+        return changeFeed;
+    }
 
-        return gson.toJson(resource);
+    /**
+     * @return the write-behind buffer of the metric definitions or null if they are written at once
+     */
+    public WriteBehindBuffer<CacheKey, MetricDefinition> getMetricBuffer() {
+        return metricBuffer;
+    }
 
+    private void invalidateResource(final String tenant, final String resourceId) {
+        resourceCache.invalidate(CacheKey.resource(tenant, resourceId));
+        BoundedCache.Matcher<CacheKey> matcher = new BoundedCache.Matcher<CacheKey>() {
+            @Override
+            public boolean matches(CacheKey key) {
+                return key.belongsTo(tenant, resourceId);
+            }
+        };
+        metricCache.invalidateIf(matcher);
+        if (metricBuffer != null) {
+            metricBuffer.removeIf(matcher);
+        }
     }
 
-    private <T> T fromJson(String json, Class<T> clazz) {
+    private void invalidateTenant(final String tenant) {
+        BoundedCache.Matcher<CacheKey> matcher = new BoundedCache.Matcher<CacheKey>() {
+            @Override
+            public boolean matches(CacheKey key) {
+                return key.belongsTo(tenant);
+            }
+        };
+        resourceCache.invalidateIf(matcher);
+        metricCache.invalidateIf(matcher);
+        if (metricBuffer != null) {
+            metricBuffer.removeIf(matcher);
+        }
+    }
 
-        return gson.fromJson(json,clazz);
+    private void invalidateResources(final String tenant, Collection<String> resourceIds) {
+        final Set<String> ids = new HashSet<>(resourceIds);
+        for (String id : ids) {
+            resourceCache.invalidate(CacheKey.resource(tenant, id));
+        }
+        BoundedCache.Matcher<CacheKey> matcher = new BoundedCache.Matcher<CacheKey>() {
+            @Override
+            public boolean matches(CacheKey key) {
+                return key.belongsTo(tenant, ids);
+            }
+        };
+        metricCache.invalidateIf(matcher);
+        if (metricBuffer != null) {
+            metricBuffer.removeIf(matcher);
+        }
+    }
+
+    private void invalidateMetrics(String tenant, String resourceId, Collection<MetricDefinition> definitions) {
+        for (MetricDefinition definition : definitions) {
+            metricCache.invalidate(CacheKey.metric(tenant, resourceId, definition.getName()));
+        }
+    }
+
+
+    private String createUUID() {
+        return idGenerator.nextId();
+    }
+
+    /**
+     * Seeds a time ordered generator with the largest stored id, so it does not issue ids of an earlier
+     * run again if the clock has been set back in the meantime.
+     */
+    private void seedIdGenerator() {
+        IdGenerator generator = idGenerator;
+        if (generator instanceof TimeOrderedIdGenerator) {
+            try {
+                ((TimeOrderedIdGenerator) generator).seed(storage.getLastResourceId(TimeOrderedIdGenerator.MIN_ID,
+                        TimeOrderedIdGenerator.MAX_ID));
+            } catch (Exception e) {
+                Log.LOG.warn(e.getMessage());
+            }
+        }
     }
 
-    @SuppressWarnings("unused")
-    public void setConnection(Connection conn) {
-        // used for mocking
+    /** A line of {@link #exportTenant(String, Writer)} */
+    private static final class ExportedResource {
+        Resource resource;
+        List<MetricDefinition> metrics;
     }
 }
@@ -36,4 +36,32 @@ public interface Log {
     @LogMessage(level = Logger.Level.WARN)
     @Message(id = 3100, value = "Something bad has happened: %s")
     void warn(String s);
+
+    @LogMessage(level = Logger.Level.INFO)
+    @Message(id = 3101, value = "Converted %d stored payloads to the %s format")
+    void payloadsConverted(int count, String codec);
+
+    @LogMessage(level = Logger.Level.WARN)
+    @Message(id = 3102, value = "Could not write %d buffered metric definitions, retrying with the next flush: %s")
+    void metricFlushFailed(int count, String s);
+
+    @LogMessage(level = Logger.Level.WARN)
+    @Message(id = 3103, value = "Slow query (%.1f ms, %d rows): %s with %s")
+    void slowQuery(double millis, long rows, String sql, String binds);
+
+    @LogMessage(level = Logger.Level.INFO)
+    @Message(id = 3104, value = "Recovered %d records from %s")
+    void logRecovered(long records, String dir);
+
+    @LogMessage(level = Logger.Level.WARN)
+    @Message(id = 3105, value = "Skipped the records of %s from offset %d on, they are incomplete")
+    void logRecordSkipped(String file, int offset);
+
+    @LogMessage(level = Logger.Level.INFO)
+    @Message(id = 3106, value = "Compacted %s into %d records")
+    void logCompacted(String dir, long records);
+
+    @LogMessage(level = Logger.Level.INFO)
+    @Message(id = 3107, value = "Import into %s: %d resources and %d metrics added, %d failed")
+    void importProgress(String tenant, long resources, long metrics, long failed);
 }
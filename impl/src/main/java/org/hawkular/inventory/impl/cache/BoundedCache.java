@@ -0,0 +1,252 @@
+/*
+ * Copyright 2015 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.inventory.impl.cache;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.InstanceNotFoundException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A size and time bounded LRU cache.
+ *
+ * The cache is split into segments by key hash, each with its own lock, so concurrent
+ * readers of different keys rarely contend. Every segment holds at most its share of
+ * the maximum size and drops the least recently used entry when it is full. Entries
+ * older than the time to live are treated as absent.
+ *
+ * To use it as a read-through cache, take a {@link #stamp(Object)} before loading a value
+ * and store it with {@link #put(Object, Object, long)}. If the key was invalidated while the
+ * value was loaded, the (possibly stale) value is not stored.
+ *
+ * Its hits, misses and evictions can be published over JMX by {@link #register(String)}.
+ *
+ * @author agent
+ */
+public class BoundedCache<K, V> implements BoundedCacheMXBean {
+
+    private static final int SEGMENTS = 16;
+
+    private final Segment<K, V>[] segments;
+    private final long ttlNanos;
+    private final boolean enabled;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * @param maxSize Maximum number of entries, 0 disables the cache
+     * @param ttl Time an entry stays valid after it was stored
+     * @param unit Unit of the ttl
+     */
+    @SuppressWarnings("unchecked")
+    public BoundedCache(int maxSize, long ttl, TimeUnit unit) {
+        this.enabled = maxSize > 0;
+        this.ttlNanos = unit.toNanos(ttl);
+        this.segments = new Segment[SEGMENTS];
+        int perSegment = Math.max(1, (maxSize + SEGMENTS - 1) / SEGMENTS);
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment<>(perSegment);
+        }
+    }
+
+    /**
+     * @return the cached value or null if there is none or it has expired
+     */
+    public V get(K key) {
+        if (!enabled) {
+            return null;
+        }
+        Segment<K, V> segment = segmentFor(key);
+        synchronized (segment) {
+            Entry<V> entry = segment.map.get(key);
+            if (entry != null && System.nanoTime() - entry.created < ttlNanos) {
+                hits.incrementAndGet();
+                return entry.value;
+            }
+            if (entry != null) {
+                segment.map.remove(key);
+                evictions.incrementAndGet();
+            }
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * @return a stamp to pass to {@link #put(Object, Object, long)} after the value for key is loaded
+     */
+    public long stamp(K key) {
+        Segment<K, V> segment = segmentFor(key);
+        synchronized (segment) {
+            return segment.invalidations;
+        }
+    }
+
+    /**
+     * Stores the value unless an entry of the key's segment was invalidated since the stamp was taken.
+     */
+    public void put(K key, V value, long stamp) {
+        if (!enabled || value == null) {
+            return;
+        }
+        Segment<K, V> segment = segmentFor(key);
+        synchronized (segment) {
+            if (segment.invalidations != stamp) {
+                return;
+            }
+            segment.map.put(key, new Entry<>(value, System.nanoTime()));
+            if (segment.map.size() > segment.capacity) {
+                Iterator<Map.Entry<K, Entry<V>>> eldest = segment.map.entrySet().iterator();
+                eldest.next();
+                eldest.remove();
+                evictions.incrementAndGet();
+            }
+        }
+    }
+
+    public void invalidate(K key) {
+        Segment<K, V> segment = segmentFor(key);
+        synchronized (segment) {
+            segment.invalidations++;
+            segment.map.remove(key);
+        }
+    }
+
+    /**
+     * Removes all entries whose key matches.
+     */
+    public void invalidateIf(Matcher<K> matcher) {
+        for (Segment<K, V> segment : segments) {
+            synchronized (segment) {
+                segment.invalidations++;
+                Iterator<K> keys = segment.map.keySet().iterator();
+                while (keys.hasNext()) {
+                    if (matcher.matches(keys.next())) {
+                        keys.remove();
+                    }
+                }
+            }
+        }
+    }
+
+    public void invalidateAll() {
+        for (Segment<K, V> segment : segments) {
+            synchronized (segment) {
+                segment.invalidations++;
+                segment.map.clear();
+            }
+        }
+    }
+
+    public int size() {
+        int size = 0;
+        for (Segment<K, V> segment : segments) {
+            synchronized (segment) {
+                size += segment.map.size();
+            }
+        }
+        return size;
+    }
+
+    @Override
+    public int getSize() {
+        return size();
+    }
+
+    @Override
+    public long getHits() {
+        return hits.get();
+    }
+
+    @Override
+    public long getMisses() {
+        return misses.get();
+    }
+
+    @Override
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    /**
+     * Registers the cache with the platform MBean server as org.hawkular.inventory:type=Cache,name=...
+     * in place of a cache of the same name that was not unregistered.
+     */
+    public void register(String name) throws JMException {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            server.registerMBean(this, objectName(name));
+        } catch (InstanceAlreadyExistsException e) {
+            // the cache of an earlier deployment, whose counters are of no use anymore
+            unregister(name);
+            server.registerMBean(this, objectName(name));
+        }
+    }
+
+    public void unregister(String name) throws JMException {
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName(name));
+        } catch (InstanceNotFoundException e) {
+            // not registered
+        }
+    }
+
+    private static ObjectName objectName(String name) throws JMException {
+        return new ObjectName("org.hawkular.inventory:type=Cache,name=" + name);
+    }
+
+    private Segment<K, V> segmentFor(K key) {
+        int h = key.hashCode();
+        h ^= (h >>> 16);
+        return segments[h & (SEGMENTS - 1)];
+    }
+
+    /** Selects the keys to drop in {@link #invalidateIf(Matcher)} */
+    public interface Matcher<K> {
+        boolean matches(K key);
+    }
+
+    private static final class Segment<K, V> {
+        final int capacity;
+        final LinkedHashMap<K, Entry<V>> map;
+        long invalidations;
+
+        Segment(int capacity) {
+            this.capacity = capacity;
+            this.map = new LinkedHashMap<>(16, 0.75f, true);
+        }
+    }
+
+    private static final class Entry<V> {
+        final V value;
+        final long created;
+
+        Entry(V value, long created) {
+            this.value = value;
+            this.created = created;
+        }
+    }
+}
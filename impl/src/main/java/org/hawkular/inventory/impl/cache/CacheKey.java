@@ -0,0 +1,109 @@
+/*
+ * Copyright 2015 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.inventory.impl.cache;
+
+import java.util.Set;
+
+/**
+ * Key of a cached resource or metric. The tenant is part of the key, so entries
+ * of different tenants never mix even if their ids are the same.
+ *
+ * @author agent
+ */
+public final class CacheKey {
+
+    private final String tenant;
+    private final String resourceId;
+    private final String metricName;
+
+    private CacheKey(String tenant, String resourceId, String metricName) {
+        this.tenant = tenant;
+        this.resourceId = resourceId;
+        this.metricName = metricName;
+    }
+
+    public static CacheKey resource(String tenant, String resourceId) {
+        return new CacheKey(tenant, resourceId, null);
+    }
+
+    public static CacheKey metric(String tenant, String resourceId, String metricName) {
+        return new CacheKey(tenant, resourceId, metricName);
+    }
+
+    public String getTenant() {
+        return tenant;
+    }
+
+    public String getResourceId() {
+        return resourceId;
+    }
+
+    /**
+     * @return the name of the metric, null for the key of a resource
+     */
+    public String getMetricName() {
+        return metricName;
+    }
+
+    /**
+     * @return true if this key belongs to the tenant
+     */
+    public boolean belongsTo(String tenant) {
+        return this.tenant.equals(tenant);
+    }
+
+    /**
+     * @return true if this key belongs to the given resource, be it the resource itself or one of its metrics
+     */
+    public boolean belongsTo(String tenant, String resourceId) {
+        return this.tenant.equals(tenant) && this.resourceId.equals(resourceId);
+    }
+
+    /**
+     * @return true if this key belongs to one of the given resources of the tenant
+     */
+    public boolean belongsTo(String tenant, Set<String> resourceIds) {
+        return this.tenant.equals(tenant) && resourceIds.contains(resourceId);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        CacheKey that = (CacheKey) o;
+
+        if (!tenant.equals(that.tenant)) return false;
+        if (!resourceId.equals(that.resourceId)) return false;
+        if (metricName != null ? !metricName.equals(that.metricName) : that.metricName != null) return false;
+
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = tenant.hashCode();
+        result = 31 * result + resourceId.hashCode();
+        result = 31 * result + (metricName != null ? metricName.hashCode() : 0);
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return tenant + "/" + resourceId + (metricName != null ? "/" + metricName : "");
+    }
+}
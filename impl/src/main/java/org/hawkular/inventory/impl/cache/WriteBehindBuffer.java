@@ -0,0 +1,261 @@
+/*
+ * Copyright 2015 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.inventory.impl.cache;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Holds writes in memory and hands them to a {@link Flusher} in batches.
+ *
+ * Writes are coalesced by key: a value put while an older one for the same key is still pending
+ * replaces it, so only the latest value is written. The pending writes are flushed in the
+ * background when half of the maximum size is reached and at a fixed interval. A caller that
+ * finds the buffer full flushes it itself before its value is taken, so memory stays bounded
+ * and fast writers are slowed down to the speed of the database.
+ *
+ * Flushes run one at a time, in the order the writes were taken, so an older value never
+ * overwrites a newer one. If the flusher fails, the batch goes back into the pending writes,
+ * behind the values that were put for the same keys meanwhile, and is retried with the next
+ * background flush.
+ *
+ * @author agent
+ */
+public class WriteBehindBuffer<K, V> {
+
+    private final int maxSize;
+    private final Flusher<K, V> flusher;
+    private final ScheduledExecutorService timer;
+    /** Whether the timer was created by the buffer and is shut down with it */
+    private final boolean ownTimer;
+    private final ScheduledFuture<?> schedule;
+    private final Object flushLock = new Object();
+
+    private LinkedHashMap<K, V> pending = new LinkedHashMap<>();
+    /** The batch the flusher is working on, so its values are still visible to {@link #get(Object)} */
+    private Map<K, V> flushing = new LinkedHashMap<>();
+    /** Keys dropped while a batch is being flushed, so a failed batch does not bring them back */
+    private final List<BoundedCache.Matcher<K>> removedWhileFlushing = new ArrayList<>();
+    private boolean flushRequested;
+
+    private final AtomicLong writes = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong flushes = new AtomicLong();
+
+    /**
+     * Creates a buffer with a timer thread of its own, for use outside of a container.
+     *
+     * @param maxSize Maximum number of pending writes
+     * @param interval Time between two background flushes
+     * @param unit Unit of the interval
+     * @param flusher Writes the pending values
+     */
+    public WriteBehindBuffer(int maxSize, long interval, TimeUnit unit, Flusher<K, V> flusher) {
+        this(maxSize, interval, unit, Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "hawkular-inventory-write-behind");
+            thread.setDaemon(true);
+            return thread;
+        }), true, flusher);
+    }
+
+    /**
+     * Creates a buffer that flushes in the background on the given executor, e.g. a managed one
+     * of the container. The executor is not shut down by {@link #close()}.
+     *
+     * @param maxSize Maximum number of pending writes
+     * @param interval Time between two background flushes
+     * @param unit Unit of the interval
+     * @param timer Runs the background flushes
+     * @param flusher Writes the pending values
+     */
+    public WriteBehindBuffer(int maxSize, long interval, TimeUnit unit, ScheduledExecutorService timer,
+                             Flusher<K, V> flusher) {
+        this(maxSize, interval, unit, timer, false, flusher);
+    }
+
+    private WriteBehindBuffer(int maxSize, long interval, TimeUnit unit, ScheduledExecutorService timer,
+                              boolean ownTimer, Flusher<K, V> flusher) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("maxSize must be positive");
+        }
+        this.maxSize = maxSize;
+        this.flusher = flusher;
+        this.timer = timer;
+        this.ownTimer = ownTimer;
+        this.schedule = timer.scheduleWithFixedDelay(this::flushQuietly, interval, interval, unit);
+    }
+
+    /**
+     * Adds the value to the pending writes, replacing a pending value of the same key.
+     * If the buffer is full, it is flushed by the calling thread first.
+     */
+    public void put(K key, V value) throws Exception {
+        while (true) {
+            synchronized (this) {
+                if (pending.size() < maxSize || pending.containsKey(key)) {
+                    writes.incrementAndGet();
+                    if (pending.put(key, value) != null) {
+                        coalesced.incrementAndGet();
+                    }
+                    if (!flushRequested && pending.size() >= (maxSize + 1) / 2) {
+                        flushRequested = true;
+                        timer.execute(this::flushQuietly);
+                    }
+                    return;
+                }
+            }
+            flush();
+        }
+    }
+
+    /**
+     * @return the pending value of the key or null if there is none
+     */
+    public synchronized V get(K key) {
+        V value = pending.get(key);
+        return value != null ? value : flushing.get(key);
+    }
+
+    /**
+     * Drops the pending writes whose key matches.
+     */
+    public synchronized void removeIf(BoundedCache.Matcher<K> matcher) {
+        Iterator<K> keys = pending.keySet().iterator();
+        while (keys.hasNext()) {
+            if (matcher.matches(keys.next())) {
+                keys.remove();
+            }
+        }
+        if (!flushing.isEmpty()) {
+            removedWhileFlushing.add(matcher);
+        }
+    }
+
+    /**
+     * Writes all pending values. If the flusher fails, its batch is pending again and the
+     * exception is passed on.
+     *
+     * @return the number of values handed to the flusher
+     */
+    public int flush() throws Exception {
+        synchronized (flushLock) {
+            Map<K, V> batch;
+            synchronized (this) {
+                batch = pending;
+                flushing = batch;
+                pending = new LinkedHashMap<>();
+                flushRequested = false;
+            }
+            if (batch.isEmpty()) {
+                return 0;
+            }
+            flushes.incrementAndGet();
+            boolean written = false;
+            try {
+                flusher.flush(batch);
+                written = true;
+            } finally {
+                synchronized (this) {
+                    if (!written) {
+                        requeue(batch);
+                    }
+                    flushing = new LinkedHashMap<>();
+                    removedWhileFlushing.clear();
+                }
+            }
+            return batch.size();
+        }
+    }
+
+    /**
+     * Puts a batch that could not be written back in front of the pending writes. Values put for
+     * the same keys meanwhile are newer and win, keys dropped meanwhile stay dropped.
+     */
+    private void requeue(Map<K, V> batch) {
+        LinkedHashMap<K, V> merged = new LinkedHashMap<>();
+        for (Map.Entry<K, V> entry : batch.entrySet()) {
+            if (!isRemovedWhileFlushing(entry.getKey())) {
+                merged.put(entry.getKey(), entry.getValue());
+            }
+        }
+        merged.putAll(pending);
+        pending = merged;
+        // retried with the next background flush, not with every put
+        flushRequested = true;
+    }
+
+    private boolean isRemovedWhileFlushing(K key) {
+        for (BoundedCache.Matcher<K> matcher : removedWhileFlushing) {
+            if (matcher.matches(key)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Stops the background flushes and writes the values that are still pending.
+     */
+    public void close() throws Exception {
+        schedule.cancel(false);
+        if (ownTimer) {
+            timer.shutdown();
+            timer.awaitTermination(1, TimeUnit.MINUTES);
+        }
+        flush();
+    }
+
+    public synchronized int size() {
+        return pending.size();
+    }
+
+    /** Values put into the buffer */
+    public long getWrites() {
+        return writes.get();
+    }
+
+    /** Values that replaced a pending value and so saved a write */
+    public long getCoalesced() {
+        return coalesced.get();
+    }
+
+    /** Batches handed to the flusher */
+    public long getFlushes() {
+        return flushes.get();
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (Exception e) {
+            // the flusher reports its failures and the batch is retried, the timer must keep running
+        }
+    }
+
+    /** Writes a batch of pending values, in the order they were first put */
+    public interface Flusher<K, V> {
+        void flush(Map<K, V> batch) throws Exception;
+    }
+}
@@ -0,0 +1,207 @@
+/*
+ * Copyright 2015 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.inventory.impl.codec;
+
+import org.hawkular.inventory.api.MetricDefinition;
+import org.hawkular.inventory.api.MetricUnit;
+import org.hawkular.inventory.api.Resource;
+import org.hawkular.inventory.api.ResourceType;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A compact binary payload format with hand written serializers, so that reading a payload
+ * needs neither text parsing nor reflection.
+ *
+ * Every payload starts with the format version and a kind byte, followed by the fields in a
+ * fixed order:
+ * <pre>
+ *   Resource:         version 'R' type id parameterCount (name value)*
+ *   MetricDefinition: version 'M' name unit description
+ * </pre>
+ * Counts are unsigned varints. Strings are a varint of their UTF-8 length plus one followed by
+ * the bytes, a length of 0 stands for null. Enums are written by name, so new constants can be
+ * added anywhere. A change of the layout needs a new version; payloads of older versions must
+ * stay readable.
+ *
+ * @author agent
+ */
+public class BinaryPayloadCodec implements PayloadCodec {
+
+    private static final byte VERSION = 1;
+    private static final byte RESOURCE = 'R';
+    private static final byte METRIC = 'M';
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    @Override
+    public String getName() {
+        return PayloadCodecs.BINARY;
+    }
+
+    @Override
+    public boolean isText() {
+        return false;
+    }
+
+    @Override
+    public byte[] encode(Object value) {
+        Output out = new Output();
+        out.write(VERSION);
+        if (value instanceof Resource) {
+            Resource resource = (Resource) value;
+            out.write(RESOURCE);
+            out.writeString(resource.getType() != null ? resource.getType().name() : null);
+            out.writeString(resource.getId());
+            Map<String, String> parameters = resource.getParameters();
+            if (parameters == null) {
+                out.writeVarInt(0);
+            } else {
+                out.writeVarInt(parameters.size());
+                for (Map.Entry<String, String> parameter : parameters.entrySet()) {
+                    out.writeString(parameter.getKey());
+                    out.writeString(parameter.getValue());
+                }
+            }
+        } else if (value instanceof MetricDefinition) {
+            MetricDefinition metric = (MetricDefinition) value;
+            out.write(METRIC);
+            out.writeString(metric.getName());
+            out.writeString(metric.getUnit() != null ? metric.getUnit().name() : null);
+            out.writeString(metric.getDescription());
+        } else {
+            throw new IllegalArgumentException("Can not encode " + value);
+        }
+        return out.toByteArray();
+    }
+
+    @Override
+    public <T> T decode(byte[] payload, Class<T> type) {
+        Input in = new Input(payload);
+        if (in.read() != VERSION) {
+            throw new IllegalArgumentException("Unknown payload version " + payload[0]);
+        }
+        byte kind = in.read();
+        if (type == Resource.class && kind == RESOURCE) {
+            Resource resource = new Resource();
+            String resourceType = in.readString();
+            resource.setType(resourceType != null ? ResourceType.valueOf(resourceType) : null);
+            resource.setId(in.readString());
+            int count = in.readVarInt();
+            Map<String, String> parameters = new HashMap<>(Math.max(16, count * 2));
+            for (int i = 0; i < count; i++) {
+                parameters.put(in.readString(), in.readString());
+            }
+            resource.setParameters(parameters);
+            return type.cast(resource);
+        }
+        if (type == MetricDefinition.class && kind == METRIC) {
+            MetricDefinition metric = new MetricDefinition();
+            metric.setName(in.readString());
+            String unit = in.readString();
+            metric.setUnit(unit != null ? MetricUnit.valueOf(unit) : null);
+            metric.setDescription(in.readString());
+            return type.cast(metric);
+        }
+        throw new IllegalArgumentException("Payload of kind " + (char) kind + " is no " + type.getSimpleName());
+    }
+
+    private static final class Output {
+        private byte[] buffer = new byte[128];
+        private int length;
+
+        void write(byte b) {
+            ensure(1);
+            buffer[length++] = b;
+        }
+
+        void writeVarInt(int value) {
+            ensure(5);
+            while ((value & ~0x7F) != 0) {
+                buffer[length++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            buffer[length++] = (byte) value;
+        }
+
+        void writeString(String s) {
+            if (s == null) {
+                writeVarInt(0);
+                return;
+            }
+            byte[] bytes = s.getBytes(UTF_8);
+            writeVarInt(bytes.length + 1);
+            ensure(bytes.length);
+            System.arraycopy(bytes, 0, buffer, length, bytes.length);
+            length += bytes.length;
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(buffer, length);
+        }
+
+        private void ensure(int more) {
+            if (length + more > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, length + more));
+            }
+        }
+    }
+
+    private static final class Input {
+        private final byte[] buffer;
+        private int position;
+
+        Input(byte[] buffer) {
+            this.buffer = buffer;
+        }
+
+        byte read() {
+            if (position >= buffer.length) {
+                throw new IllegalArgumentException("Payload is truncated");
+            }
+            return buffer[position++];
+        }
+
+        int readVarInt() {
+            int value = 0;
+            for (int shift = 0; shift < 35; shift += 7) {
+                byte b = read();
+                value |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IllegalArgumentException("Malformed varint in payload");
+        }
+
+        String readString() {
+            int length = readVarInt() - 1;
+            if (length < 0) {
+                return null;
+            }
+            if (length > buffer.length - position) {
+                throw new IllegalArgumentException("Payload is truncated");
+            }
+            String s = new String(buffer, position, length, UTF_8);
+            position += length;
+            return s;
+        }
+    }
+}
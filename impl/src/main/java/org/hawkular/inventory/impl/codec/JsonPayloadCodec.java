@@ -0,0 +1,65 @@
+/*
+ * Copyright 2015 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.inventory.impl.codec;
+
+import com.google.gson.Gson;
+
+import java.nio.charset.Charset;
+
+/**
+ * The original payload format: the objects as JSON text, written and read by Gson.
+ *
+ * @author agent
+ */
+public class JsonPayloadCodec implements PayloadCodec {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final Gson gson;
+
+    public JsonPayloadCodec(Gson gson) {
+        this.gson = gson;
+    }
+
+    @Override
+    public String getName() {
+        return PayloadCodecs.JSON;
+    }
+
+    @Override
+    public boolean isText() {
+        return true;
+    }
+
+    @Override
+    public byte[] encode(Object value) {
+        return encodeText(value).getBytes(UTF_8);
+    }
+
+    @Override
+    public <T> T decode(byte[] payload, Class<T> type) {
+        return decodeText(new String(payload, UTF_8), type);
+    }
+
+    public String encodeText(Object value) {
+        return gson.toJson(value);
+    }
+
+    public <T> T decodeText(String payload, Class<T> type) {
+        return gson.fromJson(payload, type);
+    }
+}
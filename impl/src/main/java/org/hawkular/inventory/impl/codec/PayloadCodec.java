@@ -0,0 +1,45 @@
+/*
+ * Copyright 2015 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.inventory.impl.codec;
+
+/**
+ * Turns the stored objects ({@link org.hawkular.inventory.api.Resource} and
+ * {@link org.hawkular.inventory.api.MetricDefinition}) into the payload that is written
+ * to the database and back.
+ *
+ * @author agent
+ */
+public interface PayloadCodec {
+
+    /**
+     * @return the name to select this codec with, see {@link PayloadCodecs#forName(String, com.google.gson.Gson)}
+     */
+    String getName();
+
+    /**
+     * @return true if the payload is text and goes into the payload column,
+     * false if it goes into the binary payload_bin column
+     */
+    boolean isText();
+
+    byte[] encode(Object value);
+
+    /**
+     * @throws IllegalArgumentException if the payload can not be decoded into the given type
+     */
+    <T> T decode(byte[] payload, Class<T> type);
+}
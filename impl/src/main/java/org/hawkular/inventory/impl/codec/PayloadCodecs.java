@@ -0,0 +1,48 @@
+/*
+ * Copyright 2015 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.inventory.impl.codec;
+
+import com.google.gson.Gson;
+
+/**
+ * Lookup of the available payload codecs.
+ *
+ * @author agent
+ */
+public final class PayloadCodecs {
+
+    public static final String JSON = "json";
+    public static final String BINARY = "binary";
+
+    private PayloadCodecs() {
+    }
+
+    /**
+     * @param name One of {@link #JSON} or {@link #BINARY}
+     * @param gson Gson instance for the JSON codec
+     * @throws IllegalArgumentException for an unknown name
+     */
+    public static PayloadCodec forName(String name, Gson gson) {
+        if (JSON.equals(name)) {
+            return new JsonPayloadCodec(gson);
+        }
+        if (BINARY.equals(name)) {
+            return new BinaryPayloadCodec();
+        }
+        throw new IllegalArgumentException("Unknown payload codec: " + name);
+    }
+}
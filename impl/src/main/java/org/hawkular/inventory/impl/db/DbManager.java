@@ -17,41 +17,224 @@
 package org.hawkular.inventory.impl.db;
 
 import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Small helper class that deals with DB setup
  *
+ * The schema is versioned: every entry in {@link #MIGRATIONS} brings the schema one version
+ * further and the versions already applied are recorded in HWK_SCHEMA_VERSION. On startup only
+ * the missing steps are run, so a step must never be changed once released - add a new one instead.
+ *
+ * The tables are shared by all tenants, or every tenant gets a schema of its own with the same
+ * tables (see {@link #setupTenant(Connection, String)}), which are migrated the same way.
+ *
  * @author Heiko W. Rupp
  */
 public class DbManager {
 
-    public static void setupDB(Connection connection) {
-        try {
-            createH2DDL(connection);
-        } catch (Exception e) {
-                  e.printStackTrace();  // TODO: Customise this generated block
-              }
-    }
-
-    private static void createH2DDL(Connection c) throws Exception {
-
-        Statement s = c.createStatement();
-        s.execute("CREATE TABLE IF NOT EXISTS HWK_RESOURCES " +
-              " (  id VARCHAR(250) PRIMARY KEY ,"+
-              "  tenant VARCHAR(250) ,  \n" +
-              "  type VARCHAR(12) ,   \n" +
-              "  payload VARCHAR(1024) )");
-
-        s.execute("CREATE TABLE IF NOT EXISTS HWK_METRICS " +
-              " ( resource_id VARCHAR(250) NOT NULL, " +
-              "  tenant VARCHAR(250) , " +
-              "   metric_name VARCHAR(250) NOT NULL," +
-                " payload VARCHAR(2048) ," +
-                "PRIMARY KEY (resource_id, metric_name) ) ");
-//        s.execute("CREATE UNIQUE INDEX ON HWK_METRICS ( resource_id, metric_name) ");
-
-        s.close();
-      }
+    /** Version that introduced HWK_RESOURCE_PARAMS, older databases need their parameters indexed */
+    public static final int RESOURCE_PARAMS_VERSION = 6;
+
+    /** Prefix of the schemas that hold the tables of a single tenant */
+    private static final String TENANT_SCHEMA_PREFIX = "HWK_T_";
+
+    /**
+     * Migration steps, index + 1 is the schema version the step produces.
+     */
+    private static final String[][] MIGRATIONS = {
+            // 1: initial tables
+            {
+                    "CREATE TABLE IF NOT EXISTS HWK_RESOURCES " +
+                            " (  id VARCHAR(250) PRIMARY KEY ," +
+                            "  tenant VARCHAR(250) ,  \n" +
+                            "  type VARCHAR(12) ,   \n" +
+                            "  payload VARCHAR(1024) )",
+                    "CREATE TABLE IF NOT EXISTS HWK_METRICS " +
+                            " ( resource_id VARCHAR(250) NOT NULL, " +
+                            "  tenant VARCHAR(250) , " +
+                            "   metric_name VARCHAR(250) NOT NULL," +
+                            " payload VARCHAR(2048) ," +
+                            "PRIMARY KEY (resource_id, metric_name) ) "
+            },
+            // 2: tenant first secondary indexes for the type and per resource lookups
+            {
+                    "CREATE INDEX IF NOT EXISTS HWK_RESOURCES_TENANT_TYPE ON HWK_RESOURCES (tenant, type)",
+                    "CREATE INDEX IF NOT EXISTS HWK_METRICS_TENANT_RESOURCE ON HWK_METRICS (tenant, resource_id)"
+            },
+            // 3: extend the indexes by the sort key, so pages can be found by seeking to the last key
+            {
+                    "DROP INDEX IF EXISTS HWK_RESOURCES_TENANT_TYPE",
+                    "CREATE INDEX IF NOT EXISTS HWK_RESOURCES_TENANT_TYPE_ID ON HWK_RESOURCES (tenant, type, id)",
+                    "DROP INDEX IF EXISTS HWK_METRICS_TENANT_RESOURCE",
+                    "CREATE INDEX IF NOT EXISTS HWK_METRICS_TENANT_RESOURCE_NAME " +
+                            "ON HWK_METRICS (tenant, resource_id, metric_name)"
+            },
+            // 4: covering index for existence checks and the joins from metrics to their resource
+            {
+                    "CREATE UNIQUE INDEX IF NOT EXISTS HWK_RESOURCES_TENANT_ID ON HWK_RESOURCES (tenant, id)"
+            },
+            // 5: binary payloads; a row has either the JSON payload or payload_bin set
+            {
+                    "ALTER TABLE HWK_RESOURCES ADD COLUMN IF NOT EXISTS payload_bin VARBINARY(1024)",
+                    "ALTER TABLE HWK_METRICS ADD COLUMN IF NOT EXISTS payload_bin VARBINARY(2048)"
+            },
+            // 6: resource parameters as rows of their own, so resources can be found by parameter value
+            {
+                    "CREATE TABLE IF NOT EXISTS HWK_RESOURCE_PARAMS " +
+                            " ( tenant VARCHAR(250) NOT NULL, " +
+                            "   resource_id VARCHAR(250) NOT NULL, " +
+                            "   name VARCHAR(250) NOT NULL, " +
+                            "   value VARCHAR(1024), " +
+                            "PRIMARY KEY (tenant, resource_id, name) )",
+                    "CREATE INDEX IF NOT EXISTS HWK_RESOURCE_PARAMS_TENANT_NAME_VALUE " +
+                            "ON HWK_RESOURCE_PARAMS (tenant, name, value)"
+            },
+            // 7: metrics and parameters go with their resource; rows left behind by earlier deletes are dropped first
+            {
+                    "DELETE FROM HWK_METRICS m WHERE NOT EXISTS " +
+                            "(SELECT 1 FROM HWK_RESOURCES r WHERE r.tenant = m.tenant AND r.id = m.resource_id)",
+                    "ALTER TABLE HWK_METRICS ADD CONSTRAINT IF NOT EXISTS HWK_METRICS_RESOURCE_FK " +
+                            "FOREIGN KEY (tenant, resource_id) REFERENCES HWK_RESOURCES (tenant, id) ON DELETE CASCADE",
+                    "DELETE FROM HWK_RESOURCE_PARAMS p WHERE NOT EXISTS " +
+                            "(SELECT 1 FROM HWK_RESOURCES r WHERE r.tenant = p.tenant AND r.id = p.resource_id)",
+                    "ALTER TABLE HWK_RESOURCE_PARAMS ADD CONSTRAINT IF NOT EXISTS HWK_RESOURCE_PARAMS_RESOURCE_FK " +
+                            "FOREIGN KEY (tenant, resource_id) REFERENCES HWK_RESOURCES (tenant, id) ON DELETE CASCADE"
+            },
+            // 8: metrics are keyed by tenant as well; rows without a tenant have no resource and are dropped
+            {
+                    "DELETE FROM HWK_METRICS WHERE tenant IS NULL",
+                    "ALTER TABLE HWK_METRICS ALTER COLUMN tenant SET NOT NULL",
+                    "ALTER TABLE HWK_METRICS DROP PRIMARY KEY",
+                    "ALTER TABLE HWK_METRICS ADD PRIMARY KEY (tenant, resource_id, metric_name)"
+            },
+    };
+
+    /**
+     * Brings the schema to the latest version.
+     *
+     * @return the schema version before the migration, 0 for a new database
+     * @throws SQLException if a step fails, naming the version it should have produced; the steps
+     *         before it stay applied
+     */
+    public static int setupDB(Connection connection) throws SQLException {
+        return migrate(connection);
+    }
+
+    /**
+     * Creates the schema of the tenant if needed and brings its tables to the latest version. The
+     * tables of a tenant are the same as the shared ones, they just live in a schema of their own.
+     *
+     * @return the schema version before the migration, 0 for a new tenant
+     */
+    public static int setupTenant(Connection connection, String tenant) throws SQLException {
+        try (Statement s = connection.createStatement()) {
+            s.execute("CREATE SCHEMA IF NOT EXISTS " + schemaOf(tenant));
+            s.execute("SET SCHEMA " + schemaOf(tenant));
+            try {
+                return migrate(connection);
+            } finally {
+                s.execute("SET SCHEMA PUBLIC");
+            }
+        }
+    }
+
+    /**
+     * Drops the tables and the schema of the tenant, which takes about the same time for every size.
+     */
+    public static void dropTenant(Connection connection, String tenant) throws SQLException {
+        String schema = schemaOf(tenant);
+        try (Statement s = connection.createStatement()) {
+            // referencing tables first
+            for (String table : new String[] {"HWK_RESOURCE_PARAMS", "HWK_METRICS", "HWK_RESOURCES",
+                    "HWK_SCHEMA_VERSION"}) {
+                s.execute("DROP TABLE IF EXISTS " + schema + "." + table);
+            }
+            s.execute("DROP SCHEMA IF EXISTS " + schema);
+        }
+    }
+
+    /**
+     * @return the tenants that have a schema of their own
+     */
+    public static List<String> getTenants(Connection connection) throws SQLException {
+        List<String> tenants = new ArrayList<>();
+        try (Statement s = connection.createStatement();
+             ResultSet rs = s.executeQuery("SELECT SCHEMA_NAME FROM INFORMATION_SCHEMA.SCHEMATA")) {
+            while (rs.next()) {
+                if (rs.getString(1).startsWith(TENANT_SCHEMA_PREFIX)) {
+                    tenants.add(rs.getString(1).substring(TENANT_SCHEMA_PREFIX.length()));
+                }
+            }
+        }
+        return tenants;
+    }
+
+    /**
+     * @return true if the tenant has a schema of its own
+     */
+    public static boolean hasTenant(Connection connection, String tenant) throws SQLException {
+        try (PreparedStatement ps = connection.prepareStatement(
+                "SELECT 1 FROM INFORMATION_SCHEMA.SCHEMATA WHERE SCHEMA_NAME = ?")) {
+            ps.setString(1, TENANT_SCHEMA_PREFIX + tenant);
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next();
+            }
+        }
+    }
+
+    /**
+     * @return the quoted name of the tenant's schema, to qualify the table names with
+     */
+    public static String schemaOf(String tenant) {
+        return '"' + (TENANT_SCHEMA_PREFIX + tenant).replace("\"", "\"\"") + '"';
+    }
+
+    /**
+     * @return the schema version the code expects
+     */
+    public static int getLatestVersion() {
+        return MIGRATIONS.length;
+    }
+
+    /**
+     * @return the schema version of the database, 0 if it has never been migrated
+     */
+    public static int getSchemaVersion(Connection c) throws SQLException {
+        try (Statement s = c.createStatement()) {
+            s.execute("CREATE TABLE IF NOT EXISTS HWK_SCHEMA_VERSION " +
+                    " ( version INT PRIMARY KEY, " +
+                    "   applied TIMESTAMP DEFAULT CURRENT_TIMESTAMP() )");
+            try (ResultSet rs = s.executeQuery("SELECT MAX(version) FROM HWK_SCHEMA_VERSION")) {
+                return rs.next() ? rs.getInt(1) : 0;
+            }
+        }
+    }
+
+    private static int migrate(Connection c) throws SQLException {
+
+        int current = getSchemaVersion(c);
+
+        for (int version = current + 1; version <= MIGRATIONS.length; version++) {
+            try (Statement s = c.createStatement()) {
+                for (String ddl : MIGRATIONS[version - 1]) {
+                    s.execute(ddl);
+                }
+            } catch (SQLException e) {
+                throw new SQLException("Migration to schema version " + version + " failed: " + e.getMessage(),
+                        e.getSQLState(), e);
+            }
+            try (PreparedStatement ps = c.prepareStatement("INSERT INTO HWK_SCHEMA_VERSION (version) VALUES (?)")) {
+                ps.setInt(1, version);
+                ps.executeUpdate();
+            }
+        }
+        return current;
+    }
 
 }
@@ -0,0 +1,159 @@
+/*
+ * Copyright 2015 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.inventory.impl.db;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A connection borrowed from the pool for the duration of one operation.
+ *
+ * Statements are prepared at most once per session and are cached by their SQL text,
+ * so an operation that runs the same statement several times (e.g. in a batch or a loop)
+ * does not parse it again. The cache holds at most {@link #MAX_CACHED_STATEMENTS}; the least
+ * recently used statement is closed when another one is needed. Closing the session closes
+ * all cached statements and hands the connection back to the pool. All SQL goes through
+ * {@link #prepare(String)}, the raw connection is not handed out, so no statement can escape
+ * this lifecycle.
+ *
+ * Reuse of statements across sessions is up to the pool: with the prepared-statement-cache-size
+ * of the datasource set, the pool keeps the statements of each physical connection open and
+ * hands them out again when the same SQL is prepared later.
+ *
+ * By default every statement commits on its own. {@link #beginTransaction()} groups the following
+ * statements until {@link #commit()}; a transaction that is still open when the session is closed
+ * is rolled back.
+ *
+ * With a {@link SlowQueryLog} enabled, every statement is wrapped to time its executions.
+ *
+ * Sessions are not thread safe; every thread borrows its own.
+ *
+ * @author agent
+ */
+public class DbSession implements AutoCloseable {
+
+    /** Upper bound of the statements a single session keeps open */
+    static final int MAX_CACHED_STATEMENTS = 16;
+
+    private static final AtomicLong prepared = new AtomicLong();
+    private static final AtomicLong open = new AtomicLong();
+
+    private final Connection connection;
+    private final SlowQueryLog slowQueries;
+    private final LinkedHashMap<String, PreparedStatement> statements = new LinkedHashMap<>(16, 0.75f, true);
+    private boolean inTransaction;
+
+    public DbSession(DataSource dataSource) throws SQLException {
+        this(dataSource, SlowQueryLog.INSTANCE);
+    }
+
+    public DbSession(DataSource dataSource, SlowQueryLog slowQueries) throws SQLException {
+        this.connection = dataSource.getConnection();
+        this.slowQueries = slowQueries;
+    }
+
+    /**
+     * Returns the prepared statement for the given SQL, preparing it on first use.
+     * Parameters of a cached statement are cleared before it is handed out again.
+     */
+    public PreparedStatement prepare(String sql) throws SQLException {
+        PreparedStatement statement = statements.get(sql);
+        if (statement == null) {
+            if (statements.size() == MAX_CACHED_STATEMENTS) {
+                Iterator<PreparedStatement> eldest = statements.values().iterator();
+                close(eldest.next());
+                eldest.remove();
+            }
+            statement = connection.prepareStatement(sql);
+            if (slowQueries.isEnabled()) {
+                statement = TimedStatement.wrap(statement, sql, slowQueries);
+            }
+            prepared.incrementAndGet();
+            open.incrementAndGet();
+            statements.put(sql, statement);
+        } else {
+            statement.clearParameters();
+        }
+        return statement;
+    }
+
+    /**
+     * @return the number of statements prepared by all sessions since startup
+     */
+    public static long getPreparedStatementCount() {
+        return prepared.get();
+    }
+
+    /**
+     * @return the number of statements of all sessions that are currently open
+     */
+    public static long getOpenStatementCount() {
+        return open.get();
+    }
+
+    public void beginTransaction() throws SQLException {
+        connection.setAutoCommit(false);
+        inTransaction = true;
+    }
+
+    public void commit() throws SQLException {
+        connection.commit();
+        connection.setAutoCommit(true);
+        inTransaction = false;
+    }
+
+    @Override
+    public void close() throws SQLException {
+        SQLException failure = null;
+        if (inTransaction) {
+            try {
+                connection.rollback();
+                connection.setAutoCommit(true);
+            } catch (SQLException e) {
+                failure = e;
+            }
+            inTransaction = false;
+        }
+        for (PreparedStatement statement : statements.values()) {
+            try {
+                close(statement);
+            } catch (SQLException e) {
+                failure = e;
+            }
+        }
+        statements.clear();
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            failure = e;
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private static void close(PreparedStatement statement) throws SQLException {
+        open.decrementAndGet();
+        statement.close();
+    }
+}
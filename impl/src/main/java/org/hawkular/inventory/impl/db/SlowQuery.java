@@ -0,0 +1,70 @@
+/*
+ * Copyright 2015 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.inventory.impl.db;
+
+/**
+ * A statement that took longer than the threshold of the {@link SlowQueryLog}.
+ *
+ * @author agent
+ */
+public class SlowQuery {
+
+    private final long timestamp;
+    private final String sql;
+    private final String binds;
+    private final long rows;
+    private final double millis;
+    private final String plan;
+
+    public SlowQuery(long timestamp, String sql, String binds, long rows, double millis, String plan) {
+        this.timestamp = timestamp;
+        this.sql = sql;
+        this.binds = binds;
+        this.rows = rows;
+        this.millis = millis;
+        this.plan = plan;
+    }
+
+    /** Time the statement was finished in ms since the epoch */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public String getSql() {
+        return sql;
+    }
+
+    /** The bind values, with strings and binary values reduced to their length */
+    public String getBinds() {
+        return binds;
+    }
+
+    /** Rows returned by a query, or updated by an update or batch */
+    public long getRows() {
+        return rows;
+    }
+
+    /** Time from the start of the execution until the result was read completely */
+    public double getMillis() {
+        return millis;
+    }
+
+    /** The plan of the database, null unless the log is configured to capture it */
+    public String getPlan() {
+        return plan;
+    }
+}
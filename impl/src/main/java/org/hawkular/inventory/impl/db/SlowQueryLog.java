@@ -0,0 +1,106 @@
+/*
+ * Copyright 2015 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.inventory.impl.db;
+
+import org.hawkular.inventory.impl.Log;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the last statements that took longer than a threshold, and logs them.
+ *
+ * Statements are only timed if the log is enabled (see {@link #THRESHOLD_PROPERTY}), as
+ * {@link DbSession} has to wrap every statement for that.
+ *
+ * @author agent
+ */
+public class SlowQueryLog {
+
+    /** Milliseconds after which a statement counts as slow, negative (the default) turns the log off */
+    public static final String THRESHOLD_PROPERTY = "hawkular.inventory.slowquery.threshold";
+    /** Number of slow statements that are kept */
+    public static final String SIZE_PROPERTY = "hawkular.inventory.slowquery.size";
+    /** If "true", the plan of every slow statement is captured with EXPLAIN */
+    public static final String EXPLAIN_PROPERTY = "hawkular.inventory.slowquery.explain";
+
+    /** The log used by sessions that are not given one of their own */
+    public static final SlowQueryLog INSTANCE = new SlowQueryLog(Long.getLong(THRESHOLD_PROPERTY, -1),
+            Integer.getInteger(SIZE_PROPERTY, 100), Boolean.getBoolean(EXPLAIN_PROPERTY));
+
+    private final long thresholdNanos;
+    private final int size;
+    private final boolean explain;
+    private final ArrayDeque<SlowQuery> recent;
+
+    /**
+     * @param thresholdMillis Statements that take longer are logged, negative to log none
+     * @param size Number of slow statements that are kept
+     * @param explain Whether to capture the plans of the slow statements
+     */
+    public SlowQueryLog(long thresholdMillis, int size, boolean explain) {
+        this.thresholdNanos = thresholdMillis < 0 ? -1 : TimeUnit.MILLISECONDS.toNanos(thresholdMillis);
+        this.size = Math.max(size, 1);
+        this.explain = explain;
+        this.recent = new ArrayDeque<>(this.size);
+    }
+
+    public boolean isEnabled() {
+        return thresholdNanos >= 0;
+    }
+
+    boolean isSlow(long nanos) {
+        return thresholdNanos >= 0 && nanos >= thresholdNanos;
+    }
+
+    boolean isExplain() {
+        return explain;
+    }
+
+    void add(SlowQuery query) {
+        Log.LOG.slowQuery(query.getMillis(), query.getRows(), query.getSql(), query.getBinds());
+        synchronized (recent) {
+            if (recent.size() == size) {
+                recent.removeFirst();
+            }
+            recent.addLast(query);
+        }
+    }
+
+    /**
+     * @return the slow statements that are kept, the latest first
+     */
+    public List<SlowQuery> getRecent() {
+        synchronized (recent) {
+            List<SlowQuery> result = new ArrayList<>(recent.size());
+            Iterator<SlowQuery> queries = recent.descendingIterator();
+            while (queries.hasNext()) {
+                result.add(queries.next());
+            }
+            return result;
+        }
+    }
+
+    public void clear() {
+        synchronized (recent) {
+            recent.clear();
+        }
+    }
+}
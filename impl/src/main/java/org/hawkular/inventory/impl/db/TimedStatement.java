@@ -0,0 +1,195 @@
+/*
+ * Copyright 2015 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.inventory.impl.db;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+
+/**
+ * Wraps a prepared statement to report its slow executions to a {@link SlowQueryLog}.
+ *
+ * The bind values are remembered as they are set. A query is timed from its execution until its
+ * result set is closed, so the rows fetched while reading count as well; updates and batches
+ * are timed while they execute.
+ *
+ * @author agent
+ */
+final class TimedStatement implements InvocationHandler {
+
+    private final PreparedStatement statement;
+    private final String sql;
+    private final SlowQueryLog log;
+    private Object[] binds = new Object[8];
+    private int batchRows;
+
+    private TimedStatement(PreparedStatement statement, String sql, SlowQueryLog log) {
+        this.statement = statement;
+        this.sql = sql;
+        this.log = log;
+    }
+
+    static PreparedStatement wrap(PreparedStatement statement, String sql, SlowQueryLog log) {
+        return (PreparedStatement) Proxy.newProxyInstance(TimedStatement.class.getClassLoader(),
+                new Class<?>[] { PreparedStatement.class }, new TimedStatement(statement, sql, log));
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        String name = method.getName();
+        if (name.startsWith("set") && args != null && args.length >= 2 && args[0] instanceof Integer) {
+            bind((Integer) args[0], name.equals("setNull") ? null : args[1]);
+        } else if (name.equals("clearParameters")) {
+            Arrays.fill(binds, null);
+        } else if (name.equals("addBatch") && (args == null || args.length == 0)) {
+            batchRows++;
+        }
+
+        boolean execute = name.startsWith("execute") && (args == null || args.length == 0);
+        long start = System.nanoTime();
+        Object result = call(statement, method, args);
+        if (!execute) {
+            return result;
+        }
+
+        if (result instanceof ResultSet) {
+            return Proxy.newProxyInstance(TimedStatement.class.getClassLoader(), new Class<?>[] { ResultSet.class },
+                    new TimedResultSet((ResultSet) result, start));
+        }
+        long rows = 0;
+        if (result instanceof Integer) {
+            rows = (Integer) result;
+        } else if (result instanceof int[]) {
+            for (int count : (int[]) result) {
+                rows += Math.max(count, 0);
+            }
+            batchRows = 0;
+        }
+        report(start, rows);
+        return result;
+    }
+
+    private void bind(int index, Object value) {
+        if (index > binds.length) {
+            binds = Arrays.copyOf(binds, Math.max(index, binds.length * 2));
+        }
+        binds[index - 1] = value;
+    }
+
+    private void report(long start, long rows) {
+        long nanos = System.nanoTime() - start;
+        if (!log.isSlow(nanos)) {
+            return;
+        }
+        String plan = null;
+        if (log.isExplain()) {
+            try {
+                plan = explain(statement.getConnection());
+            } catch (SQLException e) {
+                plan = "EXPLAIN failed: " + e.getMessage();
+            }
+        }
+        String values = redactedBinds();
+        if (batchRows > 0) {
+            values = batchRows + " rows, last " + values;
+        }
+        log.add(new SlowQuery(System.currentTimeMillis(), sql, values, rows, nanos / 1e6, plan));
+    }
+
+    private String explain(Connection connection) throws SQLException {
+        try (PreparedStatement explain = connection.prepareStatement("EXPLAIN " + sql)) {
+            for (int i = 0; i < explain.getParameterMetaData().getParameterCount() && i < binds.length; i++) {
+                explain.setObject(i + 1, binds[i]);
+            }
+            StringBuilder plan = new StringBuilder();
+            try (ResultSet resultSet = explain.executeQuery()) {
+                while (resultSet.next()) {
+                    plan.append(resultSet.getString(1)).append('\n');
+                }
+            }
+            return plan.toString().trim();
+        }
+    }
+
+    /**
+     * Strings and binary values can contain anything a client has sent, so only their length is shown.
+     */
+    private String redactedBinds() {
+        int last = binds.length;
+        while (last > 0 && binds[last - 1] == null) {
+            last--;
+        }
+        StringBuilder result = new StringBuilder("[");
+        for (int i = 0; i < last; i++) {
+            if (i > 0) {
+                result.append(", ");
+            }
+            Object value = binds[i];
+            if (value instanceof String) {
+                result.append("<").append(((String) value).length()).append(" chars>");
+            } else if (value instanceof byte[]) {
+                result.append("<").append(((byte[]) value).length).append(" bytes>");
+            } else if (value == null || value instanceof Number || value instanceof Boolean) {
+                result.append(value);
+            } else {
+                result.append("<").append(value.getClass().getSimpleName()).append(">");
+            }
+        }
+        return result.append("]").toString();
+    }
+
+    private static Object call(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    /** Counts the rows read and reports the query when the result set is closed */
+    private final class TimedResultSet implements InvocationHandler {
+
+        private final ResultSet resultSet;
+        private final long start;
+        private long rows;
+        private boolean closed;
+
+        TimedResultSet(ResultSet resultSet, long start) {
+            this.resultSet = resultSet;
+            this.start = start;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            Object result = call(resultSet, method, args);
+            String name = method.getName();
+            if (name.equals("next") && Boolean.TRUE.equals(result)) {
+                rows++;
+            } else if (name.equals("close") && !closed) {
+                closed = true;
+                report(start, rows);
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,228 @@
+/*
+ * Copyright 2015 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.inventory.impl.feed;
+
+import org.hawkular.inventory.api.ChangeEvent;
+import org.hawkular.inventory.api.Changes;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * In-memory feed of the latest changes, kept in a ring buffer of fixed size.
+ *
+ * Publishers claim the next sequence and store their event in the slot of that sequence, without
+ * taking a lock. Once the ring is full, every new event overwrites the oldest one; a reader that
+ * has fallen that far behind is told that it has missed events. Readers stop at the first slot
+ * that has been claimed but not filled yet, so events are always read in sequence order.
+ *
+ * Waiting readers are woken up by every publish through a future that is replaced each time, and
+ * then look for events of their tenant on the timer of the feed. Readers still waiting when the
+ * feed is closed get no events.
+ *
+ * @author agent
+ */
+public class ChangeFeed {
+
+    private final AtomicReferenceArray<ChangeEvent> ring;
+    private final int mask;
+    /** Last sequence handed out, the first event gets 1 */
+    private final AtomicLong sequence = new AtomicLong();
+    private final AtomicReference<CompletableFuture<Void>> published =
+            new AtomicReference<>(new CompletableFuture<Void>());
+    private final ScheduledExecutorService timer;
+    /** Whether the timer was created by the feed and is shut down with it */
+    private final boolean ownTimer;
+    /** Waiting readers and the position they wait after */
+    private final Map<CompletableFuture<Changes>, Long> waiting = new ConcurrentHashMap<>();
+    private volatile boolean closed;
+
+    /**
+     * Creates a feed with a timer thread of its own, for use outside of a container.
+     *
+     * @param capacity Number of events kept, rounded up to the next power of two
+     */
+    public ChangeFeed(int capacity) {
+        this(capacity, Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "hawkular-inventory-change-feed");
+            thread.setDaemon(true);
+            return thread;
+        }), true);
+    }
+
+    /**
+     * Creates a feed on a timer that is shared with others, e.g. the managed one of the container.
+     *
+     * @param capacity Number of events kept, rounded up to the next power of two
+     * @param timer Times out the waiting readers and looks for their events
+     */
+    public ChangeFeed(int capacity, ScheduledExecutorService timer) {
+        this(capacity, timer, false);
+    }
+
+    private ChangeFeed(int capacity, ScheduledExecutorService timer, boolean ownTimer) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        this.ring = new AtomicReferenceArray<>(size);
+        this.mask = size - 1;
+        this.timer = timer;
+        this.ownTimer = ownTimer;
+    }
+
+    /**
+     * Appends an event and wakes up the waiting readers.
+     *
+     * @return the sequence of the event
+     */
+    public long publish(ChangeEvent.Type type, String tenant, String resourceId, String metricName) {
+        long seq = sequence.incrementAndGet();
+        ring.set(index(seq), new ChangeEvent(seq, type, tenant, resourceId, metricName, System.currentTimeMillis()));
+        published.getAndSet(new CompletableFuture<Void>()).complete(null);
+        return seq;
+    }
+
+    /**
+     * @return the sequence of the latest event, 0 if there is none yet
+     */
+    public long getSequence() {
+        return sequence.get();
+    }
+
+    public int getCapacity() {
+        return ring.length();
+    }
+
+    /**
+     * Reads up to limit events of the tenant after the given sequence, without waiting.
+     */
+    public Changes read(String tenant, long after, int limit) {
+        if (limit < 1) {
+            throw new IllegalArgumentException("Limit must be positive, but was " + limit);
+        }
+
+        long last = sequence.get();
+        long oldest = Math.max(1, last - ring.length() + 1);
+        // a position in the future (e.g. from before a restart) starts over at the latest event
+        long position = Math.min(Math.max(after, 0), last);
+        boolean missed = position + 1 < oldest;
+        if (missed) {
+            position = oldest - 1;
+        }
+
+        List<ChangeEvent> events = new ArrayList<>(Math.min(limit, 100));
+        while (position < last && events.size() < limit) {
+            long seq = position + 1;
+            ChangeEvent event = ring.get(index(seq));
+            if (event == null || event.getSequence() < seq) {
+                break; // claimed, but not stored yet
+            }
+            if (event.getSequence() > seq) {
+                missed = true; // overwritten while we were reading
+            } else if (event.getTenant().equals(tenant)) {
+                events.add(event);
+            }
+            position = seq;
+        }
+        return new Changes(events, position, missed);
+    }
+
+    /**
+     * Like {@link #read(String, long, int)}, but if there is no event of the tenant yet, the stage
+     * completes when the next one is published or with no events once the timeout has passed.
+     */
+    public CompletionStage<Changes> await(final String tenant, long after, final int limit, long timeout,
+                                          TimeUnit unit) {
+
+        final CompletableFuture<Changes> result = new CompletableFuture<>();
+        poll(result, tenant, after, limit);
+        if (!result.isDone()) {
+            final long position = after;
+            waiting.put(result, position);
+            if (closed) {
+                release(result, position);
+                waiting.remove(result);
+                return result;
+            }
+            ScheduledFuture<?> expiry =
+                    timer.schedule(() -> result.complete(read(tenant, position, limit)), timeout, unit);
+            // a shared timer must not keep the expiry of a reader that is done already
+            result.whenComplete((changes, e) -> {
+                waiting.remove(result);
+                expiry.cancel(false);
+            });
+        }
+        return result;
+    }
+
+    private void poll(final CompletableFuture<Changes> result, final String tenant, long after, final int limit) {
+        while (!result.isDone()) {
+            // taken before reading, so an event published in between is not slept through
+            CompletableFuture<Void> next = published.get();
+            Changes changes = read(tenant, after, limit);
+            if (!changes.getEvents().isEmpty() || changes.isMissed()) {
+                result.complete(changes);
+                return;
+            }
+            after = changes.getSequence();
+            if (!next.isDone()) {
+                final long position = after;
+                // on the timer thread, so publishers don't have to do the reading for the waiters
+                next.thenRunAsync(() -> poll(result, tenant, position, limit), timer);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Completes the stages of the waiting readers with no events and stops the timer, if it is
+     * the feed's own.
+     */
+    public void close() {
+        closed = true;
+        for (Map.Entry<CompletableFuture<Changes>, Long> entry : waiting.entrySet()) {
+            release(entry.getKey(), entry.getValue());
+        }
+        if (ownTimer) {
+            timer.shutdownNow();
+        }
+    }
+
+    private void release(CompletableFuture<Changes> result, long after) {
+        result.complete(new Changes(Collections.<ChangeEvent>emptyList(), after, false));
+    }
+
+    private int index(long seq) {
+        return (int) (seq & mask);
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright 2015 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.inventory.impl.id;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Lock free generator of time ordered ids.
+ *
+ * An id is the 64 bit value (milli seconds since 2015 &lt;&lt; 16 | sequence) followed by a 16 bit
+ * node id, written as 20 fixed width hex digits. Ids created later therefore also sort later,
+ * which keeps inserts at the end of the primary key index.
+ *
+ * The value is taken from a single AtomicLong with compare-and-set: it is the current time,
+ * or the last value + 1 if that is larger. So ids are strictly increasing per node, even if more
+ * than 65536 are requested within one milli second (the value then runs ahead of the clock for a
+ * moment) or the clock is set back, in which case the generator stays on the last timestamp until
+ * the clock has caught up. The node id keeps ids of different nodes apart.
+ *
+ * The last value only lives in memory. To not issue ids of a former run again after a restart with
+ * the clock set back, {@link #seed(String)} the generator with the largest id stored so far.
+ *
+ * @author agent
+ */
+public class TimeOrderedIdGenerator implements IdGenerator {
+
+    /** Node id (0-65535) of this JVM, to be set differently on every node of a cluster */
+    public static final String NODE_ID_PROPERTY = "hawkular.inventory.node-id";
+
+    /** Range of the generated ids, all ids in between that are 20 hex digits could be generated ones */
+    public static final String MIN_ID = "00000000000000000000";
+    public static final String MAX_ID = "ffffffffffffffffffff";
+
+    /** 2015-01-01T00:00:00Z */
+    private static final long EPOCH = 1420070400000L;
+    private static final int SEQUENCE_BITS = 16;
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final AtomicLong last;
+    private final int node;
+    private final LongSupplier clock;
+
+    public TimeOrderedIdGenerator() {
+        this(defaultNodeId());
+    }
+
+    public TimeOrderedIdGenerator(int node) {
+        this(node, System::currentTimeMillis);
+    }
+
+    /**
+     * @param clock Milli seconds since 1970, e.g. of a clock under the control of a test
+     */
+    public TimeOrderedIdGenerator(int node, LongSupplier clock) {
+        if (node < 0 || node > 0xffff) {
+            throw new IllegalArgumentException("Node id must be between 0 and 65535, but was " + node);
+        }
+        this.node = node;
+        this.clock = clock;
+        this.last = new AtomicLong(now() - 1);
+    }
+
+    /**
+     * @return the next raw value, strictly larger than all values returned before
+     */
+    public long nextValue() {
+        while (true) {
+            long previous = last.get();
+            long now = now();
+            // a clock behind the last value, e.g. one that was set back, is not trusted
+            long next = now > previous ? now : previous + 1;
+            if (last.compareAndSet(previous, next)) {
+                return next;
+            }
+        }
+    }
+
+    /**
+     * Makes sure that all later ids are larger than the given one, which has been issued before,
+     * e.g. by an earlier run. Ids that are not of the generated format are ignored.
+     */
+    public void seed(String issued) {
+        if (issued == null || issued.length() != MIN_ID.length()) {
+            return;
+        }
+        long value = 0;
+        for (int i = 0; i < 16; i++) {
+            int digit = Character.digit(issued.charAt(i), 16);
+            if (digit < 0) {
+                return;
+            }
+            value = value << 4 | digit;
+        }
+        if (value < 0) {
+            return; // thousands of years ahead, not a generated one
+        }
+        while (true) {
+            long previous = last.get();
+            if (previous >= value || last.compareAndSet(previous, value)) {
+                return;
+            }
+        }
+    }
+
+    @Override
+    public String nextId() {
+        long value = nextValue();
+        char[] id = new char[20];
+        for (int i = 15; i >= 0; i--) {
+            id[i] = HEX[(int) (value & 0xf)];
+            value >>>= 4;
+        }
+        int n = node;
+        for (int i = 19; i >= 16; i--) {
+            id[i] = HEX[n & 0xf];
+            n >>>= 4;
+        }
+        return new String(id);
+    }
+
+    public int getNode() {
+        return node;
+    }
+
+    private long now() {
+        return (clock.getAsLong() - EPOCH) << SEQUENCE_BITS;
+    }
+
+    /**
+     * Node id from {@link #NODE_ID_PROPERTY} or, if not set, derived from the host name and process id.
+     * The derived one is unique with a high probability only, so clusters should set the property.
+     */
+    static int defaultNodeId() {
+        Integer configured = Integer.getInteger(NODE_ID_PROPERTY);
+        if (configured != null) {
+            return configured;
+        }
+        // "pid@hostname"
+        String name = ManagementFactory.getRuntimeMXBean().getName();
+        int h = name.hashCode();
+        return (h ^ (h >>> 16)) & 0xffff;
+    }
+}
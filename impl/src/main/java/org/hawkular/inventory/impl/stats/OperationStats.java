@@ -0,0 +1,106 @@
+/*
+ * Copyright 2015 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.inventory.impl.stats;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters and latencies of one operation, or of all operations of one tenant.
+ *
+ * The time of a call is split into the time spent on serialization and the rest, which for the
+ * inventory is mostly the time spent in the database.
+ *
+ * @author agent
+ */
+public class OperationStats {
+
+    private final String name;
+    private final AtomicLong calls = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    private final LatencyHistogram total = new LatencyHistogram();
+    private final LatencyHistogram db = new LatencyHistogram();
+    private final LatencyHistogram serialization = new LatencyHistogram();
+
+    public OperationStats(String name) {
+        this.name = name;
+    }
+
+    /**
+     * @param nanos Duration of the call
+     * @param serializationNanos Part of the duration spent on serialization
+     * @param failed Whether the call has failed
+     */
+    public void record(long nanos, long serializationNanos, boolean failed) {
+        calls.incrementAndGet();
+        if (failed) {
+            errors.incrementAndGet();
+        }
+        total.record(nanos);
+        db.record(nanos - serializationNanos);
+        serialization.record(serializationNanos);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getCalls() {
+        return calls.get();
+    }
+
+    public long getErrors() {
+        return errors.get();
+    }
+
+    public LatencyHistogram getTotal() {
+        return total;
+    }
+
+    public LatencyHistogram getDb() {
+        return db;
+    }
+
+    public LatencyHistogram getSerialization() {
+        return serialization;
+    }
+
+    /**
+     * @param uptimeNanos Time the stats have been collected for, to compute the throughput
+     */
+    public OperationSummary summarize(long uptimeNanos) {
+        OperationSummary summary = new OperationSummary();
+        summary.setName(name);
+        summary.setCalls(calls.get());
+        summary.setErrors(errors.get());
+        summary.setCallsPerSecond(uptimeNanos > 0 ? calls.get() * 1e9 / uptimeNanos : 0);
+        summary.setMeanMillis(millis(total.getMean()));
+        summary.setP50Millis(millis(total.getPercentile(50)));
+        summary.setP90Millis(millis(total.getPercentile(90)));
+        summary.setP99Millis(millis(total.getPercentile(99)));
+        summary.setMaxMillis(millis(total.getMax()));
+        summary.setDbMeanMillis(millis(db.getMean()));
+        summary.setDbP99Millis(millis(db.getPercentile(99)));
+        summary.setSerializationMeanMillis(millis(serialization.getMean()));
+        summary.setSerializationP99Millis(millis(serialization.getPercentile(99)));
+        return summary;
+    }
+
+    private static double millis(double nanos) {
+        return nanos / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright 2015 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.inventory.impl.stats;
+
+/**
+ * Snapshot of the {@link OperationStats} of an operation or tenant, for JMX and the REST api.
+ *
+ * @author agent
+ */
+public class OperationSummary {
+
+    private String name;
+    private long calls;
+    private long errors;
+    private double callsPerSecond;
+    private double meanMillis;
+    private double p50Millis;
+    private double p90Millis;
+    private double p99Millis;
+    private double maxMillis;
+    private double dbMeanMillis;
+    private double dbP99Millis;
+    private double serializationMeanMillis;
+    private double serializationP99Millis;
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public long getCalls() {
+        return calls;
+    }
+
+    public void setCalls(long calls) {
+        this.calls = calls;
+    }
+
+    /** Calls that ended with an exception, or with a server error for REST calls */
+    public long getErrors() {
+        return errors;
+    }
+
+    public void setErrors(long errors) {
+        this.errors = errors;
+    }
+
+    /** Average throughput since the stats were started or reset */
+    public double getCallsPerSecond() {
+        return callsPerSecond;
+    }
+
+    public void setCallsPerSecond(double callsPerSecond) {
+        this.callsPerSecond = callsPerSecond;
+    }
+
+    public double getMeanMillis() {
+        return meanMillis;
+    }
+
+    public void setMeanMillis(double meanMillis) {
+        this.meanMillis = meanMillis;
+    }
+
+    public double getP50Millis() {
+        return p50Millis;
+    }
+
+    public void setP50Millis(double p50Millis) {
+        this.p50Millis = p50Millis;
+    }
+
+    public double getP90Millis() {
+        return p90Millis;
+    }
+
+    public void setP90Millis(double p90Millis) {
+        this.p90Millis = p90Millis;
+    }
+
+    public double getP99Millis() {
+        return p99Millis;
+    }
+
+    public void setP99Millis(double p99Millis) {
+        this.p99Millis = p99Millis;
+    }
+
+    public double getMaxMillis() {
+        return maxMillis;
+    }
+
+    public void setMaxMillis(double maxMillis) {
+        this.maxMillis = maxMillis;
+    }
+
+    /** Mean time not spent on serialization, i.e. in the database or, for REST calls, in the inventory */
+    public double getDbMeanMillis() {
+        return dbMeanMillis;
+    }
+
+    public void setDbMeanMillis(double dbMeanMillis) {
+        this.dbMeanMillis = dbMeanMillis;
+    }
+
+    public double getDbP99Millis() {
+        return dbP99Millis;
+    }
+
+    public void setDbP99Millis(double dbP99Millis) {
+        this.dbP99Millis = dbP99Millis;
+    }
+
+    public double getSerializationMeanMillis() {
+        return serializationMeanMillis;
+    }
+
+    public void setSerializationMeanMillis(double serializationMeanMillis) {
+        this.serializationMeanMillis = serializationMeanMillis;
+    }
+
+    public double getSerializationP99Millis() {
+        return serializationP99Millis;
+    }
+
+    public void setSerializationP99Millis(double serializationP99Millis) {
+        this.serializationP99Millis = serializationP99Millis;
+    }
+}
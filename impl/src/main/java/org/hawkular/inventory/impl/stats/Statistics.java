@@ -0,0 +1,234 @@
+/*
+ * Copyright 2015 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.inventory.impl.stats;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.InstanceNotFoundException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Call counts, error counts and latencies per operation, per tenant and per operation of each tenant.
+ *
+ * A call is timed by {@link #start()} and {@link #stop(String, String, long)}; in between,
+ * {@link #serialized(long)} adds up the time spent on serialization. The state of the running
+ * call is kept per thread, so nothing is allocated per call. Calls made from within a timed
+ * call are counted as part of the outer one only.
+ *
+ * At most {@link #MAX_TENANTS} tenants are tracked one by one, the calls of any further
+ * tenants are counted together under {@link #OTHER_TENANTS}.
+ *
+ * @author agent
+ */
+public class Statistics implements StatisticsMXBean {
+
+    /** Calls of the {@link org.hawkular.inventory.api.Inventory} methods */
+    public static final Statistics INVENTORY = new Statistics("inventory");
+    /** Calls of the REST endpoints */
+    public static final Statistics REST = new Statistics("rest");
+
+    static final int MAX_TENANTS = 1000;
+    static final String OTHER_TENANTS = "*";
+
+    private static final Comparator<OperationSummary> BY_NAME = new Comparator<OperationSummary>() {
+        @Override
+        public int compare(OperationSummary a, OperationSummary b) {
+            return a.getName().compareTo(b.getName());
+        }
+    };
+
+    private final String name;
+    private final ThreadLocal<Call> calls = new ThreadLocal<Call>() {
+        @Override
+        protected Call initialValue() {
+            return new Call();
+        }
+    };
+    private volatile ConcurrentMap<String, OperationStats> operations = new ConcurrentHashMap<>();
+    private volatile ConcurrentMap<String, OperationStats> tenants = new ConcurrentHashMap<>();
+    private volatile ConcurrentMap<String, ConcurrentMap<String, OperationStats>> tenantOperations =
+            new ConcurrentHashMap<>();
+    private volatile long since = System.nanoTime();
+
+    public Statistics(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the start time to pass to {@link #stop(String, String, long)}
+     */
+    public long start() {
+        Call call = calls.get();
+        if (call.depth++ == 0) {
+            call.serialization = 0;
+            call.failed = false;
+        }
+        return System.nanoTime();
+    }
+
+    /** Marks the running call as failed */
+    public void failed() {
+        calls.get().failed = true;
+    }
+
+    /**
+     * Adds the time since start to the serialization time of the running call.
+     */
+    public void serialized(long start) {
+        long nanos = System.nanoTime() - start;
+        Call call = calls.get();
+        if (call.depth > 0) {
+            call.serialization += nanos;
+        }
+    }
+
+    /**
+     * Ends the running call and records it, unless it has been made from within another call.
+     */
+    public void stop(String operation, String tenant, long start) {
+        long nanos = System.nanoTime() - start;
+        Call call = calls.get();
+        if (--call.depth == 0) {
+            record(operation, tenant, nanos, Math.min(call.serialization, nanos), call.failed);
+        }
+    }
+
+    /**
+     * Records a call that has been timed by the caller.
+     */
+    public void record(String operation, String tenant, long nanos, long serializationNanos, boolean failed) {
+        stats(operations, operation).record(nanos, serializationNanos, failed);
+        if (tenant != null) {
+            ConcurrentMap<String, OperationStats> byTenant = tenants;
+            if (byTenant.size() >= MAX_TENANTS && !byTenant.containsKey(tenant)) {
+                tenant = OTHER_TENANTS;
+            }
+            stats(byTenant, tenant).record(nanos, serializationNanos, failed);
+            stats(operationsOf(tenantOperations, tenant), operation).record(nanos, serializationNanos, failed);
+        }
+    }
+
+    /**
+     * @return the stats of the operation, null if it has not been called yet
+     */
+    public OperationStats getOperation(String operation) {
+        return operations.get(operation);
+    }
+
+    @Override
+    public List<OperationSummary> getOperations() {
+        return summarize(operations);
+    }
+
+    @Override
+    public List<OperationSummary> getTenants() {
+        return summarize(tenants);
+    }
+
+    @Override
+    public List<OperationSummary> getTenantOperations(String tenant) {
+        ConcurrentMap<String, OperationStats> byOperation = tenantOperations.get(tenant);
+        return byOperation != null ? summarize(byOperation) : Collections.<OperationSummary>emptyList();
+    }
+
+    @Override
+    public void reset() {
+        operations = new ConcurrentHashMap<>();
+        tenants = new ConcurrentHashMap<>();
+        tenantOperations = new ConcurrentHashMap<>();
+        since = System.nanoTime();
+    }
+
+    /**
+     * Registers the stats with the platform MBean server as org.hawkular.inventory:type=Statistics,name=...
+     * unless they are already.
+     */
+    public void register() throws JMException {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            server.registerMBean(this, objectName());
+        } catch (InstanceAlreadyExistsException e) {
+            // registered by an earlier deployment of this class
+        }
+    }
+
+    public void unregister() throws JMException {
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName());
+        } catch (InstanceNotFoundException e) {
+            // not registered
+        }
+    }
+
+    private ObjectName objectName() throws JMException {
+        return new ObjectName("org.hawkular.inventory:type=Statistics,name=" + name);
+    }
+
+    private static OperationStats stats(ConcurrentMap<String, OperationStats> map, String key) {
+        OperationStats stats = map.get(key);
+        if (stats == null) {
+            OperationStats created = new OperationStats(key);
+            stats = map.putIfAbsent(key, created);
+            if (stats == null) {
+                stats = created;
+            }
+        }
+        return stats;
+    }
+
+    private static ConcurrentMap<String, OperationStats> operationsOf(
+            ConcurrentMap<String, ConcurrentMap<String, OperationStats>> map, String tenant) {
+        ConcurrentMap<String, OperationStats> byOperation = map.get(tenant);
+        if (byOperation == null) {
+            ConcurrentMap<String, OperationStats> created = new ConcurrentHashMap<>();
+            byOperation = map.putIfAbsent(tenant, created);
+            if (byOperation == null) {
+                byOperation = created;
+            }
+        }
+        return byOperation;
+    }
+
+    private List<OperationSummary> summarize(ConcurrentMap<String, OperationStats> map) {
+        long uptime = System.nanoTime() - since;
+        List<OperationSummary> result = new ArrayList<>(map.size());
+        for (OperationStats stats : map.values()) {
+            result.add(stats.summarize(uptime));
+        }
+        Collections.sort(result, BY_NAME);
+        return result;
+    }
+
+    /** State of the call the thread is in */
+    private static final class Call {
+        int depth;
+        long serialization;
+        boolean failed;
+    }
+}
@@ -0,0 +1,38 @@
+/*
+ * Copyright 2015 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.inventory.impl.stats;
+
+import java.util.List;
+
+/**
+ * JMX view of {@link Statistics}.
+ *
+ * @author agent
+ */
+public interface StatisticsMXBean {
+
+    List<OperationSummary> getOperations();
+
+    List<OperationSummary> getTenants();
+
+    /**
+     * @return the operations of the tenant, of all tenants beyond the tracked ones for "*"
+     */
+    List<OperationSummary> getTenantOperations(String tenant);
+
+    void reset();
+}
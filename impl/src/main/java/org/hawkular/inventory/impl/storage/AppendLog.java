@@ -0,0 +1,364 @@
+/*
+ * Copyright 2015 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.inventory.impl.storage;
+
+import org.hawkular.inventory.impl.Log;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only log of records in memory-mapped segment files, plus the snapshots that replace
+ * the segments before them.
+ *
+ * Every record is
+ * <pre>
+ *   length crc32 (type tenantLength tenant keyLength key payload)
+ * </pre>
+ * with the lengths as ints, the strings in UTF-8 and the checksum over the part in parentheses.
+ * A length of 0 ends the records of a file. The length is written last, so a record is
+ * complete once it is counted; one that is torn by a crash fails its checksum and ends the
+ * file on recovery. Appended records survive a crash of the process at once, as they are in
+ * the page cache, and a crash of the machine once the segment has been {@link #force() forced}.
+ *
+ * Segments (segment-N.log) have a fixed size and are numbered in the order they are written.
+ * A snapshot (snapshot-N.log) holds the state when it was taken and replaces all segments
+ * before segment N. It is written to a temporary file first and renamed when complete, so
+ * recovery either finds it complete or not at all.
+ *
+ * @author agent
+ */
+final class AppendLog implements Closeable {
+
+    static final byte RESOURCE = 1;
+    static final byte DELETE = 2;
+    static final byte METRIC = 3;
+    /** Removes all resources of the tenant, the key is empty */
+    static final byte PURGE = 4;
+
+    private static final int HEADER = 8;
+    private static final String SEGMENT = "segment-";
+    private static final String SNAPSHOT = "snapshot-";
+    private static final String SUFFIX = ".log";
+    private static final String TEMPORARY = ".tmp";
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final File dir;
+    private final int segmentSize;
+    private final CRC32 crc = new CRC32();
+    private MappedByteBuffer current;
+    private long currentNumber = -1;
+    private long snapshotNumber = -1;
+
+    /**
+     * @param dir Directory of the files, created if missing
+     * @param segmentSize Size of a segment file in bytes, which is also the limit of a record
+     */
+    AppendLog(File dir, int segmentSize) throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Cannot create " + dir);
+        }
+        this.dir = dir;
+        this.segmentSize = segmentSize;
+    }
+
+    /**
+     * Hands the records of the latest snapshot and of the segments after it to replay, in the
+     * order they were written, and starts a new segment to append to. Files that have been
+     * replaced by the snapshot are deleted.
+     *
+     * @return the number of replayed records
+     */
+    synchronized long recover(Replay replay) throws Exception {
+
+        long lastSegment = -1;
+        List<Long> segments = new ArrayList<>();
+        for (File file : files()) {
+            String name = file.getName();
+            if (name.endsWith(TEMPORARY)) {
+                delete(file); // a snapshot that was not completed
+            } else if (name.startsWith(SNAPSHOT)) {
+                snapshotNumber = Math.max(snapshotNumber, number(name, SNAPSHOT));
+            } else if (name.startsWith(SEGMENT)) {
+                segments.add(number(name, SEGMENT));
+                lastSegment = Math.max(lastSegment, number(name, SEGMENT));
+            }
+        }
+        Collections.sort(segments);
+
+        long records = 0;
+        if (snapshotNumber >= 0) {
+            deleteBefore(snapshotNumber);
+            records += replay(file(SNAPSHOT, snapshotNumber), replay);
+        }
+        for (long number : segments) {
+            if (number >= snapshotNumber) {
+                records += replay(file(SEGMENT, number), replay);
+            }
+        }
+
+        // appending to a new segment leaves torn records of the old ones alone
+        currentNumber = Math.max(lastSegment, snapshotNumber - 1);
+        roll();
+        return records;
+    }
+
+    /**
+     * Appends a record, starting a new segment if it does not fit into the current one.
+     */
+    synchronized void append(byte type, String tenant, String key, byte[] payload) throws IOException {
+
+        byte[] t = tenant.getBytes(UTF_8);
+        byte[] k = key.getBytes(UTF_8);
+        int length = 1 + 4 + t.length + 4 + k.length + payload.length;
+        if (current == null) {
+            throw new IOException("The log in " + dir + " is closed");
+        }
+        if (HEADER + length > segmentSize) {
+            throw new IllegalArgumentException("A record of " + length + " bytes does not fit into a segment");
+        }
+        if (current.remaining() < HEADER + length) {
+            roll();
+        }
+
+        int start = current.position();
+        current.position(start + HEADER);
+        current.put(type).putInt(t.length).put(t).putInt(k.length).put(k).put(payload);
+
+        ByteBuffer body = current.duplicate();
+        body.position(start + HEADER);
+        body.limit(start + HEADER + length);
+        crc.reset();
+        crc.update(body);
+        current.putInt(start + 4, (int) crc.getValue());
+        current.putInt(start, length);
+    }
+
+    /**
+     * Starts a new segment. The current one is forced first, so that only the latest segment
+     * can lose records when the machine crashes.
+     *
+     * @return the number of the new segment
+     */
+    synchronized long roll() throws IOException {
+
+        if (current != null) {
+            current.force();
+        }
+        currentNumber++;
+        try (FileChannel channel = FileChannel.open(file(SEGMENT, currentNumber).toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            current = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+        }
+        return currentNumber;
+    }
+
+    /**
+     * Writes the appended records of the current segment to the disk.
+     */
+    void force() {
+        MappedByteBuffer buffer;
+        synchronized (this) {
+            buffer = current;
+        }
+        if (buffer != null) {
+            buffer.force();
+        }
+    }
+
+    /**
+     * @return the number of segments that a snapshot would replace
+     */
+    synchronized long getSegmentsSinceSnapshot() {
+        return currentNumber - Math.max(snapshotNumber, 0);
+    }
+
+    /**
+     * Starts a snapshot that replaces the segments before number, see {@link #roll()}.
+     */
+    Snapshot snapshot(long number) throws IOException {
+        return new Snapshot(number);
+    }
+
+    @Override
+    public synchronized void close() {
+        force();
+        current = null;
+    }
+
+    private static long replay(File file, Replay replay) throws Exception {
+
+        long records = 0;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException(file + " is too large");
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            CRC32 crc = new CRC32();
+            while (buffer.remaining() >= HEADER) {
+                int start = buffer.position();
+                int length = buffer.getInt();
+                if (length == 0) {
+                    break;
+                }
+                int checksum = buffer.getInt();
+                if (length < 0 || length > buffer.remaining()) {
+                    Log.LOG.logRecordSkipped(file.getPath(), start);
+                    break;
+                }
+                byte[] body = new byte[length];
+                buffer.get(body);
+                crc.reset();
+                crc.update(body, 0, length);
+                if ((int) crc.getValue() != checksum) {
+                    Log.LOG.logRecordSkipped(file.getPath(), start);
+                    break;
+                }
+
+                ByteBuffer in = ByteBuffer.wrap(body);
+                byte type = in.get();
+                String tenant = readString(in);
+                String key = readString(in);
+                byte[] payload = new byte[in.remaining()];
+                in.get(payload);
+                replay.apply(type, tenant, key, payload);
+                records++;
+            }
+        }
+        return records;
+    }
+
+    private static String readString(ByteBuffer in) {
+        byte[] bytes = new byte[in.getInt()];
+        in.get(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    private void deleteBefore(long number) throws IOException {
+        for (File file : files()) {
+            String name = file.getName();
+            if ((name.startsWith(SEGMENT) && number(name, SEGMENT) < number)
+                    || (name.startsWith(SNAPSHOT) && number(name, SNAPSHOT) < number)) {
+                delete(file);
+            }
+        }
+    }
+
+    private File[] files() throws IOException {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            throw new IOException("Cannot list " + dir);
+        }
+        return files;
+    }
+
+    private File file(String prefix, long number) {
+        return new File(dir, String.format("%s%010d%s", prefix, number, SUFFIX));
+    }
+
+    private static long number(String name, String prefix) {
+        return Long.parseLong(name.substring(prefix.length(), name.indexOf('.')));
+    }
+
+    private static void delete(File file) throws IOException {
+        Files.deleteIfExists(file.toPath());
+    }
+
+    /** Receives the records on recovery */
+    interface Replay {
+        void apply(byte type, String tenant, String key, byte[] payload) throws Exception;
+    }
+
+    /**
+     * A snapshot that is being written. It replaces the older files on {@link #commit()}, and is
+     * dropped if it is closed before.
+     */
+    final class Snapshot implements Closeable {
+
+        private final long number;
+        private final File temporary;
+        private final FileOutputStream file;
+        private final DataOutputStream out;
+        private final CRC32 crc = new CRC32();
+        private long records;
+        private boolean committed;
+
+        private Snapshot(long number) throws IOException {
+            this.number = number;
+            this.temporary = new File(dir, SNAPSHOT + number + TEMPORARY);
+            this.file = new FileOutputStream(temporary);
+            this.out = new DataOutputStream(new BufferedOutputStream(file, 1 << 16));
+        }
+
+        void write(byte type, String tenant, String key, byte[] payload) throws IOException {
+
+            byte[] t = tenant.getBytes(UTF_8);
+            byte[] k = key.getBytes(UTF_8);
+            ByteBuffer body = ByteBuffer.allocate(1 + 4 + t.length + 4 + k.length + payload.length);
+            body.put(type).putInt(t.length).put(t).putInt(k.length).put(k).put(payload);
+            crc.reset();
+            crc.update(body.array(), 0, body.capacity());
+
+            out.writeInt(body.capacity());
+            out.writeInt((int) crc.getValue());
+            out.write(body.array());
+            records++;
+        }
+
+        long getRecords() {
+            return records;
+        }
+
+        /**
+         * Makes the snapshot durable, puts it in place and deletes the files it replaces.
+         */
+        void commit() throws IOException {
+            out.flush();
+            file.getFD().sync();
+            out.close();
+            Files.move(temporary.toPath(), file(SNAPSHOT, number).toPath(), StandardCopyOption.ATOMIC_MOVE);
+            committed = true;
+            synchronized (AppendLog.this) {
+                snapshotNumber = number;
+            }
+            deleteBefore(number);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!committed) {
+                out.close();
+                delete(temporary);
+            }
+        }
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright 2015 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.inventory.impl.storage;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Encodes the last key of a page into the opaque continuation token handed out to clients
+ * and back. The token is the hex encoded key, so it is url safe without further escaping.
+ *
+ * @author agent
+ */
+final class ContinuationToken {
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private ContinuationToken() {
+    }
+
+    static String encode(String key) {
+        byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
+        char[] token = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            token[2 * i] = HEX[(bytes[i] >> 4) & 0xf];
+            token[2 * i + 1] = HEX[bytes[i] & 0xf];
+        }
+        return new String(token);
+    }
+
+    /**
+     * @return the key to continue after, the empty string (sorting before every key) if token is null
+     * @throws IllegalArgumentException if the token was not created by {@link #encode(String)}
+     */
+    static String decode(String token) {
+        if (token == null || token.isEmpty()) {
+            return "";
+        }
+        if (token.length() % 2 != 0) {
+            throw new IllegalArgumentException("Invalid continuation token: " + token);
+        }
+        byte[] bytes = new byte[token.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            int high = Character.digit(token.charAt(2 * i), 16);
+            int low = Character.digit(token.charAt(2 * i + 1), 16);
+            if (high < 0 || low < 0) {
+                throw new IllegalArgumentException("Invalid continuation token: " + token);
+            }
+            bytes[i] = (byte) ((high << 4) | low);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
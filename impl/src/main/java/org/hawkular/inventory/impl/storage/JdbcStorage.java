@@ -0,0 +1,1188 @@
+/*
+ * Copyright 2015 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.inventory.impl.storage;
+
+import org.hawkular.inventory.api.ItemResult;
+import org.hawkular.inventory.api.MetricDefinition;
+import org.hawkular.inventory.api.Page;
+import org.hawkular.inventory.api.Resource;
+import org.hawkular.inventory.api.ResourceNotFoundException;
+import org.hawkular.inventory.api.ResourceType;
+import org.hawkular.inventory.impl.Log;
+import org.hawkular.inventory.impl.cache.CacheKey;
+import org.hawkular.inventory.impl.codec.BinaryPayloadCodec;
+import org.hawkular.inventory.impl.codec.JsonPayloadCodec;
+import org.hawkular.inventory.impl.codec.PayloadCodec;
+import org.hawkular.inventory.impl.db.DbManager;
+import org.hawkular.inventory.impl.db.DbSession;
+import org.hawkular.inventory.impl.db.SlowQueryLog;
+import org.hawkular.inventory.impl.stats.Statistics;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.io.Writer;
+import java.sql.BatchUpdateException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Storage in the tables of a relational database, currently the WildFly embedded H2.
+ *
+ * Every operation borrows its own connection from the pool and returns it when done,
+ * so the storage holds no JDBC state and can serve concurrent callers without locking.
+ * Bulk operations group their statements in a transaction on the borrowed connection
+ * (see {@link DbSession#beginTransaction()}).
+ *
+ * Payloads are written with the given codec: the JSON codec fills the text payload column, the
+ * binary codec the payload_bin column. Rows in either format are read regardless of the codec,
+ * so it can be switched at any time; {@link #convertPayloads()} rewrites the existing rows into
+ * the current format.
+ *
+ * With {@link #TENANT_SCHEMAS_PROPERTY} set, every tenant gets the tables in a schema of its own,
+ * created on its first use. The indexes then only hold the rows of one tenant, so a large tenant
+ * does not slow down the others, and {@link #dropTenant(String)} drops the tables instead of
+ * deleting rows. Resource ids only need to be unique per tenant then. The layout is chosen when
+ * the database is set up; switching it later does not move the data.
+ *
+ * @author agent
+ */
+public class JdbcStorage implements Storage {
+
+    /** Set to true to keep every tenant in a schema of its own */
+    public static final String TENANT_SCHEMAS_PROPERTY = "hawkular.inventory.db.tenant.schemas";
+
+    /** Rows the driver should fetch per round trip when results are streamed */
+    private static final int STREAMING_FETCH_SIZE = 100;
+    /** Rows sent to the database per executeBatch() of a bulk operation */
+    private static final int BATCH_CHUNK_SIZE = 500;
+    /** Rows a purge deletes per transaction, so that no transaction holds a whole tenant */
+    private static final int PURGE_CHUNK_SIZE = 10000;
+
+    /** Statements on the shared tables */
+    private static final Sql SHARED = new Sql(null);
+
+    private final DataSource db;
+    private final JsonPayloadCodec jsonCodec;
+    private final BinaryPayloadCodec binaryCodec;
+    /** Codec for the payloads that are written */
+    private final PayloadCodec codec;
+    private final Statistics stats = Statistics.INVENTORY;
+    private volatile SlowQueryLog slowQueryLog = SlowQueryLog.INSTANCE;
+    private final boolean tenantSchemas;
+    /** Tenants whose schema is up to date */
+    private final Set<String> tenants = ConcurrentHashMap.newKeySet();
+    /** Statements on the tables of each tenant, with a schema per tenant */
+    private final Map<String, Sql> tenantSql = new ConcurrentHashMap<>();
+
+    /**
+     * Creates a storage with the layout of {@link #TENANT_SCHEMAS_PROPERTY}.
+     */
+    public JdbcStorage(DataSource db, JsonPayloadCodec jsonCodec, BinaryPayloadCodec binaryCodec,
+                       PayloadCodec codec) {
+        this(db, jsonCodec, binaryCodec, codec, Boolean.getBoolean(TENANT_SCHEMAS_PROPERTY));
+    }
+
+    /**
+     * @param db Pool to borrow the connections from
+     * @param codec Codec for the payloads that are written, one of the other two
+     * @param tenantSchemas True to keep every tenant in a schema of its own
+     */
+    public JdbcStorage(DataSource db, JsonPayloadCodec jsonCodec, BinaryPayloadCodec binaryCodec,
+                       PayloadCodec codec, boolean tenantSchemas) {
+        this.db = db;
+        this.jsonCodec = jsonCodec;
+        this.binaryCodec = binaryCodec;
+        this.codec = codec;
+        this.tenantSchemas = tenantSchemas;
+    }
+
+    /**
+     * Migrates the schema.
+     *
+     * @throws IllegalStateException if the migration fails, so the service does not run on a half-migrated schema
+     */
+    @Override
+    public void start() {
+        int version;
+        try (Connection connection = db.getConnection()) {
+            version = DbManager.setupDB(connection);
+            if (tenantSchemas) {
+                for (String tenant : DbManager.getTenants(connection)) {
+                    DbManager.setupTenant(connection, tenant);
+                    tenants.add(tenant);
+                }
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException("Could not set up the database: " + e.getMessage(), e);
+        }
+
+        if (version > 0 && version < DbManager.RESOURCE_PARAMS_VERSION) {
+            try {
+                indexParameters();
+            } catch (SQLException e) {
+                Log.LOG.warn(e.getMessage());
+            }
+        }
+    }
+
+    @Override
+    public void stop() {
+        // Connections are borrowed per operation, there is nothing to release
+    }
+
+    /**
+     * Fills HWK_RESOURCE_PARAMS from the payloads of the resources that were stored before it existed.
+     */
+    private void indexParameters() throws SQLException {
+
+        String after = "";
+        int count;
+        do {
+            count = 0;
+            try (DbSession session = session()) {
+                session.beginTransaction();
+                PreparedStatement s = session.prepare(SHARED.resourcesAfter);
+                s.setString(1, after);
+                s.setInt(2, BATCH_CHUNK_SIZE);
+                PreparedStatement mergeParameterStatement = session.prepare(SHARED.mergeParameter);
+                try (ResultSet resultSet = s.executeQuery()) {
+                    while (resultSet.next()) {
+                        after = resultSet.getString(1);
+                        addParameters(mergeParameterStatement, resultSet.getString(2),
+                                getPayload(resultSet, 3, Resource.class));
+                        count++;
+                    }
+                }
+                mergeParameterStatement.executeBatch();
+                session.commit();
+            }
+        } while (count == BATCH_CHUNK_SIZE);
+    }
+
+    private DbSession session() throws SQLException {
+        return new DbSession(db, slowQueryLog);
+    }
+
+    /**
+     * @return a session on the tables of the tenant, whose schema is set up first if needed
+     */
+    private DbSession session(String tenant) throws SQLException {
+        if (!tenantSchemas) {
+            return session();
+        }
+        if (!tenants.contains(tenant)) {
+            synchronized (tenants) {
+                if (!tenants.contains(tenant)) {
+                    try (Connection connection = db.getConnection()) {
+                        DbManager.setupTenant(connection, tenant);
+                    }
+                    tenants.add(tenant);
+                }
+            }
+        }
+        return new DbSession(db, slowQueryLog);
+    }
+
+    /**
+     * @return the statements on the tables of the tenant
+     */
+    private Sql sql(String tenant) {
+        if (!tenantSchemas) {
+            return SHARED;
+        }
+        return tenantSql.computeIfAbsent(tenant, t -> new Sql(DbManager.schemaOf(t)));
+    }
+
+    /**
+     * Drops the schema of the tenant with all its resources and metrics.
+     *
+     * @throws IllegalStateException if the tenants share the tables
+     */
+    public void dropTenant(String tenant) throws SQLException {
+        if (!tenantSchemas) {
+            throw new IllegalStateException("Tenants have no schema of their own");
+        }
+        synchronized (tenants) {
+            try (Connection connection = db.getConnection()) {
+                DbManager.dropTenant(connection, tenant);
+            }
+            tenants.remove(tenant);
+            tenantSql.remove(tenant);
+        }
+    }
+
+    @Override
+    public void insertResource(String tenant, Resource resource) throws Exception {
+
+        try (DbSession session = session(tenant)) {
+            session.beginTransaction();
+            PreparedStatement insertResourceStatement = session.prepare(sql(tenant).insertResource);
+            insertResourceStatement.setString(1, resource.getId());
+            insertResourceStatement.setString(2, tenant);
+            insertResourceStatement.setString(3, resource.getType().name());
+            setPayload(insertResourceStatement, 4, resource);
+            insertResourceStatement.execute();
+
+            PreparedStatement insertParameterStatement = session.prepare(sql(tenant).insertParameter);
+            if (addParameters(insertParameterStatement, tenant, resource) > 0) {
+                insertParameterStatement.executeBatch();
+            }
+            session.commit();
+        }
+    }
+
+    @Override
+    public List<ItemResult> insertResources(String tenant, List<Resource> resources) throws Exception {
+
+        List<ItemResult> results = new ArrayList<>(resources.size());
+        // index into results of each row in the current chunk
+        List<Integer> chunk = new ArrayList<>(BATCH_CHUNK_SIZE);
+
+        try (DbSession session = session(tenant)) {
+            session.beginTransaction();
+            PreparedStatement insertResourceStatement = session.prepare(sql(tenant).insertResource);
+
+            for (Resource resource : resources) {
+                insertResourceStatement.setString(1, resource.getId());
+                insertResourceStatement.setString(2, tenant);
+                insertResourceStatement.setString(3, resource.getType().name());
+                setPayload(insertResourceStatement, 4, resource);
+                insertResourceStatement.addBatch();
+
+                chunk.add(results.size());
+                results.add(ItemResult.created(resource.getId()));
+
+                if (chunk.size() == BATCH_CHUNK_SIZE) {
+                    executeChunk(insertResourceStatement, chunk, results);
+                }
+            }
+            executeChunk(insertResourceStatement, chunk, results);
+
+            // parameters only of the resources that made it, results are in the order of resources
+            PreparedStatement insertParameterStatement = session.prepare(sql(tenant).insertParameter);
+            int rows = 0;
+            int i = 0;
+            for (Resource resource : resources) {
+                if (results.get(i++).getStatus() == ItemResult.Status.CREATED) {
+                    rows += addParameters(insertParameterStatement, tenant, resource);
+                }
+                if (rows >= BATCH_CHUNK_SIZE) {
+                    insertParameterStatement.executeBatch();
+                    rows = 0;
+                }
+            }
+            if (rows > 0) {
+                insertParameterStatement.executeBatch();
+            }
+
+            session.commit();
+        }
+
+        return results;
+    }
+
+    /**
+     * Adds a row per parameter of the resource to the batch of the insert or merge statement.
+     *
+     * @return the number of rows added
+     */
+    private int addParameters(PreparedStatement s, String tenant, Resource resource) throws SQLException {
+
+        if (resource.getParameters() == null) {
+            return 0;
+        }
+        for (Map.Entry<String, String> parameter : resource.getParameters().entrySet()) {
+            s.setString(1, tenant);
+            s.setString(2, resource.getId());
+            s.setString(3, parameter.getKey());
+            s.setString(4, parameter.getValue());
+            s.addBatch();
+        }
+        return resource.getParameters().size();
+    }
+
+    /**
+     * Executes the batched rows of the chunk and marks the rows the database rejected as failed.
+     * The other rows of the chunk stay in the transaction.
+     */
+    private void executeChunk(PreparedStatement statement, List<Integer> chunk, List<ItemResult> results)
+            throws SQLException {
+
+        if (chunk.isEmpty()) {
+            return;
+        }
+        try {
+            statement.executeBatch();
+        } catch (BatchUpdateException e) {
+            int[] counts = e.getUpdateCounts();
+            SQLException cause = e.getNextException();
+            for (int i = 0; i < chunk.size(); i++) {
+                ItemResult result = results.get(chunk.get(i));
+                if (i >= counts.length) {
+                    // the driver stopped at the first failure, the rest was not executed
+                    result.setStatus(ItemResult.Status.FAILED);
+                    result.setError("Not executed: " + e.getMessage());
+                } else if (counts[i] == Statement.EXECUTE_FAILED) {
+                    result.setStatus(ItemResult.Status.FAILED);
+                    result.setError(cause != null ? cause.getMessage() : e.getMessage());
+                    if (cause != null) {
+                        cause = cause.getNextException();
+                    }
+                }
+            }
+        }
+        chunk.clear();
+    }
+
+    @Override
+    public Resource getResource(String tenant, String id) throws Exception {
+
+        Resource result = null;
+
+        try (DbSession session = session(tenant)) {
+            PreparedStatement findResourceByIdStatement = session.prepare(sql(tenant).findResourceById);
+            findResourceByIdStatement.setString(1, id);
+            findResourceByIdStatement.setString(2, tenant);
+
+            try (ResultSet resultSet = findResourceByIdStatement.executeQuery()) {
+                while (resultSet.next()) {
+                    result = getPayload(resultSet, 1, Resource.class);
+                }
+            }
+        }
+
+        return result;
+    }
+
+    @Override
+    public boolean resourceExists(String tenant, String id) throws Exception {
+
+        try (DbSession session = session(tenant)) {
+            PreparedStatement s = session.prepare(sql(tenant).resourceExists);
+            s.setString(1, tenant);
+            s.setString(2, id);
+            try (ResultSet resultSet = s.executeQuery()) {
+                return resultSet.next();
+            }
+        }
+    }
+
+    @Override
+    public List<Resource> getResourcesForType(String tenant, ResourceType type) throws Exception {
+
+        List<Resource> result = new ArrayList<>();
+
+        try (DbSession session = session(tenant)) {
+            PreparedStatement findResourceByTypeStatement = session.prepare(sql(tenant).findResourcesByType);
+            findResourceByTypeStatement.setString(1, type.name());
+            findResourceByTypeStatement.setString(2, tenant);
+            try (ResultSet resultSet = findResourceByTypeStatement.executeQuery()) {
+                while (resultSet.next()) {
+                    Resource resource = getPayload(resultSet, 1, Resource.class);
+                    result.add(resource);
+                }
+            }
+        }
+
+        return result;
+    }
+
+    @Override
+    public Page<Resource> getResourcesForType(String tenant, ResourceType type, int limit, String after)
+            throws Exception {
+
+        try (DbSession session = session(tenant)) {
+            PreparedStatement s = session.prepare(sql(tenant).findResourcesByTypePaged);
+            s.setString(1, tenant);
+            s.setString(2, type.name());
+            Page<Resource> page = readPage(s, 3, 4, limit, after, Resource.class);
+            return page != null ? page : new Page<>(new ArrayList<Resource>(), null);
+        }
+    }
+
+    @Override
+    public void writeResourcesForType(String tenant, ResourceType type, Writer out) throws Exception {
+
+        try (DbSession session = session(tenant)) {
+            PreparedStatement s = session.prepare(sql(tenant).findResourcesByType);
+            s.setString(1, type.name());
+            s.setString(2, tenant);
+            if (!writeJsonArray(s, out, Resource.class)) {
+                out.write("[]");
+            }
+        }
+    }
+
+    @Override
+    public void writeResourcesWithMetrics(String tenant, ResourceType type, Writer out) throws Exception {
+
+        try (DbSession session = session(tenant)) {
+            Sql sql = sql(tenant);
+            PreparedStatement s = session.prepare(
+                    type != null ? sql.resourcesOfTypeWithMetrics : sql.resourcesWithMetrics);
+            s.setString(1, tenant);
+            if (type != null) {
+                s.setString(2, type.name());
+            }
+
+            out.write('[');
+            writeWithMetrics(s, out, ",");
+            out.write(']');
+        }
+    }
+
+    @Override
+    public void exportTenant(String tenant, Writer out) throws Exception {
+
+        try (DbSession session = session(tenant)) {
+            PreparedStatement s = session.prepare(sql(tenant).resourcesWithMetrics);
+            s.setString(1, tenant);
+            if (writeWithMetrics(s, out, "\n")) {
+                out.write('\n');
+            }
+        }
+    }
+
+    /**
+     * Streams the rows of the query for resources with metrics (id, payload, payload_bin, metric
+     * payload, payload_bin) as one object <code>{"resource":..,"metrics":[..]}</code> per resource,
+     * with the separator between two objects.
+     *
+     * @return true if there was at least one resource
+     */
+    private boolean writeWithMetrics(PreparedStatement s, Writer out, String separator)
+            throws SQLException, IOException {
+
+        s.setFetchSize(STREAMING_FETCH_SIZE);
+        try (ResultSet resultSet = s.executeQuery()) {
+            String currentId = null;
+            boolean firstMetric = true;
+            while (resultSet.next()) {
+                String id = resultSet.getString(1);
+                if (!id.equals(currentId)) {
+                    if (currentId != null) {
+                        out.write("]}");
+                        out.write(separator);
+                    }
+                    out.write("{\"resource\":");
+                    out.write(getPayloadJson(resultSet, 2, Resource.class));
+                    out.write(",\"metrics\":[");
+                    currentId = id;
+                    firstMetric = true;
+                }
+                String metric = getPayloadJson(resultSet, 4, MetricDefinition.class);
+                if (metric != null) { // null if the resource has no metrics
+                    if (!firstMetric) {
+                        out.write(',');
+                    }
+                    out.write(metric);
+                    firstMetric = false;
+                }
+            }
+            if (currentId != null) {
+                out.write("]}");
+            }
+            return currentId != null;
+        }
+    }
+
+    @Override
+    public List<Resource> findResourcesByParameter(String tenant, String name, String value) throws Exception {
+
+        List<Resource> result = new ArrayList<>();
+
+        try (DbSession session = session(tenant)) {
+            PreparedStatement s = session.prepare(sql(tenant).findResourcesByParameter);
+            s.setString(1, tenant);
+            s.setString(2, name);
+            s.setString(3, value);
+            try (ResultSet resultSet = s.executeQuery()) {
+                while (resultSet.next()) {
+                    result.add(getPayload(resultSet, 1, Resource.class));
+                }
+            }
+        }
+
+        return result;
+    }
+
+    @Override
+    public List<String> deleteResources(String tenant, Collection<String> ids) throws Exception {
+
+        List<String> deleted = new ArrayList<>();
+        try (DbSession session = session(tenant)) {
+            session.beginTransaction();
+            PreparedStatement deleteResourceByIdStatement = session.prepare(sql(tenant).deleteResourceById);
+
+            List<String> chunk = new ArrayList<>(BATCH_CHUNK_SIZE);
+            for (String id : ids) {
+                deleteResourceByIdStatement.setString(1, id);
+                deleteResourceByIdStatement.setString(2, tenant);
+                deleteResourceByIdStatement.addBatch();
+                chunk.add(id);
+                if (chunk.size() == BATCH_CHUNK_SIZE) {
+                    collectUpdated(deleteResourceByIdStatement.executeBatch(), chunk, deleted);
+                }
+            }
+            if (!chunk.isEmpty()) {
+                collectUpdated(deleteResourceByIdStatement.executeBatch(), chunk, deleted);
+            }
+
+            session.commit();
+        }
+
+        return deleted;
+    }
+
+    /**
+     * In the shared tables the rows are deleted in chunks, each committing on its own. With a schema
+     * per tenant the schema is dropped, a tenant without one has nothing to purge.
+     */
+    @Override
+    public int purgeTenant(String tenant) throws Exception {
+
+        if (tenantSchemas) {
+            try (Connection connection = db.getConnection()) {
+                if (!DbManager.hasTenant(connection, tenant)) {
+                    return 0;
+                }
+            }
+            int count;
+            try (DbSession session = session(tenant)) {
+                PreparedStatement s = session.prepare(sql(tenant).countResources);
+                s.setString(1, tenant);
+                try (ResultSet resultSet = s.executeQuery()) {
+                    resultSet.next();
+                    count = resultSet.getInt(1);
+                }
+            }
+            dropTenant(tenant);
+            return count;
+        }
+
+        try (DbSession session = session()) {
+            deleteInChunks(session, SHARED.purgeMetrics, tenant);
+            deleteInChunks(session, SHARED.purgeParameters, tenant);
+            return deleteInChunks(session, SHARED.purgeResources, tenant);
+        }
+    }
+
+    @Override
+    public String getLastResourceId(String from, String to) throws Exception {
+        String last = null;
+        // null for the shared tables
+        for (String tenant : tenantSchemas ? new ArrayList<>(tenants) : Collections.<String>singletonList(null)) {
+            try (DbSession session = tenant != null ? session(tenant) : session()) {
+                PreparedStatement s = session.prepare((tenant != null ? sql(tenant) : SHARED).lastResourceId);
+                s.setString(1, from);
+                s.setString(2, to);
+                try (ResultSet resultSet = s.executeQuery()) {
+                    String id = resultSet.next() ? resultSet.getString(1) : null;
+                    if (id != null && (last == null || id.compareTo(last) > 0)) {
+                        last = id;
+                    }
+                }
+            }
+        }
+        return last;
+    }
+
+    /**
+     * Runs the delete statement for the tenant until it deletes less than a chunk.
+     *
+     * @return the number of deleted rows
+     */
+    private static int deleteInChunks(DbSession session, String sql, String tenant) throws SQLException {
+
+        PreparedStatement s = session.prepare(sql);
+        int total = 0;
+        int deleted;
+        do {
+            s.setString(1, tenant);
+            s.setInt(2, PURGE_CHUNK_SIZE);
+            deleted = s.executeUpdate();
+            total += deleted;
+        } while (deleted == PURGE_CHUNK_SIZE);
+        return total;
+    }
+
+    /**
+     * Adds the items of the chunk whose row of the batch has changed anything to updated and clears the chunk.
+     */
+    private static <T> void collectUpdated(int[] counts, List<T> chunk, List<T> updated) {
+        for (int i = 0; i < counts.length && i < chunk.size(); i++) {
+            if (counts[i] > 0) {
+                updated.add(chunk.get(i));
+            }
+        }
+        chunk.clear();
+    }
+
+    @Override
+    public List<ItemResult> upsertMetrics(String tenant, String resourceId, List<MetricDefinition> definitions)
+            throws Exception {
+
+        List<ItemResult> results = new ArrayList<>(definitions.size());
+
+        try (DbSession session = session(tenant)) {
+            session.beginTransaction();
+
+            // one read of the stored payloads tells what is new, what has changed and whether the resource exists
+            Map<String, String> stored = new HashMap<>();
+            boolean found = false;
+            PreparedStatement s = session.prepare(sql(tenant).metricPayloadsOfResource);
+            s.setString(1, tenant);
+            s.setString(2, resourceId);
+            try (ResultSet resultSet = s.executeQuery()) {
+                while (resultSet.next()) {
+                    found = true;
+                    String name = resultSet.getString(1);
+                    if (name != null) { // the resource has no metrics at all
+                        stored.put(name, getPayloadJson(resultSet, 2, MetricDefinition.class));
+                    }
+                }
+            }
+            if (!found) {
+                throw new ResourceNotFoundException(tenant, resourceId);
+            }
+
+            PreparedStatement mergeMetricStatement = session.prepare(sql(tenant).mergeMetric);
+            int rows = 0;
+            for (MetricDefinition definition : definitions) {
+                String name = definition.getName();
+                String current = stored.get(name);
+                if (current == null) {
+                    results.add(ItemResult.created(name));
+                } else if (current.equals(jsonCodec.encodeText(definition))) {
+                    results.add(ItemResult.unchanged(name));
+                    continue;
+                } else {
+                    results.add(ItemResult.updated(name));
+                }
+
+                mergeMetricStatement.setString(1, name);
+                setPayload(mergeMetricStatement, 2, definition);
+                mergeMetricStatement.setString(4, tenant);
+                mergeMetricStatement.setString(5, resourceId);
+                mergeMetricStatement.addBatch();
+                rows++;
+            }
+            if (rows > 0) {
+                mergeMetricStatement.executeBatch();
+            }
+
+            session.commit();
+        }
+
+        return results;
+    }
+
+    @Override
+    public List<CacheKey> mergeMetrics(Map<CacheKey, MetricDefinition> definitions) throws Exception {
+
+        List<CacheKey> written = new ArrayList<>(definitions.size());
+        if (!tenantSchemas) {
+            try (DbSession session = session()) {
+                mergeMetrics(session, SHARED, definitions, written);
+            }
+            return written;
+        }
+
+        Map<String, Map<CacheKey, MetricDefinition>> byTenant = new HashMap<>();
+        for (Map.Entry<CacheKey, MetricDefinition> entry : definitions.entrySet()) {
+            byTenant.computeIfAbsent(entry.getKey().getTenant(), t -> new HashMap<>())
+                    .put(entry.getKey(), entry.getValue());
+        }
+        for (Map.Entry<String, Map<CacheKey, MetricDefinition>> tenant : byTenant.entrySet()) {
+            try (DbSession session = session(tenant.getKey())) {
+                mergeMetrics(session, sql(tenant.getKey()), tenant.getValue(), written);
+            }
+        }
+        return written;
+    }
+
+    /**
+     * Merges the definitions in one transaction of the session on the tables of sql and adds the keys of
+     * those written.
+     */
+    private void mergeMetrics(DbSession session, Sql sql, Map<CacheKey, MetricDefinition> definitions,
+                              List<CacheKey> written) throws SQLException {
+
+        session.beginTransaction();
+        PreparedStatement s = session.prepare(sql.mergeMetric);
+
+        List<CacheKey> chunk = new ArrayList<>(BATCH_CHUNK_SIZE);
+        for (Map.Entry<CacheKey, MetricDefinition> entry : definitions.entrySet()) {
+            CacheKey key = entry.getKey();
+            s.setString(1, key.getMetricName());
+            setPayload(s, 2, entry.getValue());
+            s.setString(4, key.getTenant());
+            s.setString(5, key.getResourceId());
+            s.addBatch();
+            chunk.add(key);
+            if (chunk.size() == BATCH_CHUNK_SIZE) {
+                collectUpdated(s.executeBatch(), chunk, written);
+            }
+        }
+        if (!chunk.isEmpty()) {
+            collectUpdated(s.executeBatch(), chunk, written);
+        }
+
+        session.commit();
+    }
+
+    @Override
+    public List<MetricDefinition> listMetricsForResource(String tenant, String resourceId) throws Exception {
+
+        List<MetricDefinition> result = new ArrayList<>();
+
+        boolean found = false;
+        try (DbSession session = session(tenant)) {
+            PreparedStatement listMetricsOfResourceStatement = session.prepare(sql(tenant).listMetricsOfResource);
+            listMetricsOfResourceStatement.setString(1, tenant);
+            listMetricsOfResourceStatement.setString(2, resourceId);
+
+            try (ResultSet resultSet = listMetricsOfResourceStatement.executeQuery()) {
+                while (resultSet.next()) {
+                    found = true;
+                    MetricDefinition metric = getPayload(resultSet, 1, MetricDefinition.class);
+                    if (metric != null) { // the resource has no metrics at all
+                        result.add(metric);
+                    }
+                }
+            }
+        }
+
+        if (!found) {
+            throw new ResourceNotFoundException(tenant, resourceId);
+        }
+        return result;
+    }
+
+    @Override
+    public Page<MetricDefinition> listMetricsForResource(String tenant, String resourceId, int limit, String after)
+            throws Exception {
+
+        try (DbSession session = session(tenant)) {
+            PreparedStatement s = session.prepare(sql(tenant).listMetricsOfResourcePaged);
+            s.setString(2, tenant);
+            s.setString(3, resourceId);
+            Page<MetricDefinition> page = readPage(s, 1, 4, limit, after, MetricDefinition.class);
+            if (page == null) {
+                throw new ResourceNotFoundException(tenant, resourceId);
+            }
+            return page;
+        }
+    }
+
+    @Override
+    public void writeMetricsForResource(String tenant, String resourceId, Writer out) throws Exception {
+
+        try (DbSession session = session(tenant)) {
+            PreparedStatement s = session.prepare(sql(tenant).listMetricsOfResource);
+            s.setString(1, tenant);
+            s.setString(2, resourceId);
+            if (!writeJsonArray(s, out, MetricDefinition.class)) {
+                out.write("[]");
+            }
+        }
+    }
+
+    @Override
+    public MetricDefinition getMetric(String tenant, String resourceId, String name) throws Exception {
+
+        MetricDefinition result = null;
+        boolean found = false;
+
+        try (DbSession session = session(tenant)) {
+            PreparedStatement s = session.prepare(sql(tenant).findMetric);
+
+            s.setString(1, name);
+            s.setString(2, tenant);
+            s.setString(3, resourceId);
+
+            try (ResultSet resultSet = s.executeQuery()) {
+                while (resultSet.next()) {
+                    found = true;
+                    result = getPayload(resultSet, 1, MetricDefinition.class);
+                }
+            }
+        }
+
+        if (!found) {
+            throw new ResourceNotFoundException(tenant, resourceId);
+        }
+        return result;
+    }
+
+    /**
+     * Rewrites the payloads of all rows that are not in the format of the current codec, e.g. after
+     * switching to the binary codec. The rows are converted in chunks, each in its own transaction,
+     * so the inventory stays usable meanwhile. Cached objects stay valid, only the format changes.
+     *
+     * @return the number of converted rows
+     */
+    public int convertPayloads() throws SQLException {
+
+        int converted = 0;
+        // null for the shared tables
+        for (String tenant : tenantSchemas ? new ArrayList<>(tenants) : Collections.<String>singletonList(null)) {
+            Sql sql = tenant != null ? sql(tenant) : SHARED;
+            String resources = codec.isText() ? sql.resourcesWithBinaryPayload : sql.resourcesWithTextPayload;
+            String metrics = codec.isText() ? sql.metricsWithBinaryPayload : sql.metricsWithTextPayload;
+            converted += convertPayloads(tenant, resources, sql.updateResourcePayload, 2, Resource.class)
+                    + convertPayloads(tenant, metrics, sql.updateMetricPayload, 3, MetricDefinition.class);
+        }
+        return converted;
+    }
+
+    /**
+     * Converts chunks of the rows the select finds (key columns, payload, payload_bin) with the
+     * update (payload, payload_bin, key columns) until a chunk is not full. The tables are those
+     * of the tenant, or the shared ones for null.
+     */
+    private int convertPayloads(String tenant, String select, String update, int keys, Class<?> clazz)
+            throws SQLException {
+
+        int converted = 0;
+        int count;
+        do {
+            count = 0;
+            try (DbSession session = tenant != null ? session(tenant) : session()) {
+                session.beginTransaction();
+                PreparedStatement selectStatement = session.prepare(select);
+                selectStatement.setInt(1, BATCH_CHUNK_SIZE);
+                PreparedStatement updateStatement = session.prepare(update);
+                try (ResultSet resultSet = selectStatement.executeQuery()) {
+                    while (resultSet.next()) {
+                        setPayload(updateStatement, 1, getPayload(resultSet, keys + 1, clazz));
+                        for (int key = 1; key <= keys; key++) {
+                            updateStatement.setString(2 + key, resultSet.getString(key));
+                        }
+                        updateStatement.addBatch();
+                        count++;
+                    }
+                }
+                if (count > 0) {
+                    updateStatement.executeBatch();
+                }
+                session.commit();
+            }
+            converted += count;
+        } while (count == BATCH_CHUNK_SIZE);
+
+        return converted;
+    }
+
+    /**
+     * Replaces the log the slow statements are reported to, {@link SlowQueryLog#INSTANCE} by default.
+     */
+    public void setSlowQueryLog(SlowQueryLog slowQueryLog) {
+        this.slowQueryLog = slowQueryLog;
+    }
+
+    /**
+     * Runs a keyset query that selects (key, payload, payload_bin) ordered by key. The key to start after and
+     * the limit are bound to the parameters at keyIndex and limitIndex. One row more than the
+     * limit is fetched to find out if there is a next page. Rows with a null key (the empty side
+     * of an outer join) are skipped.
+     *
+     * @return the page or null if the query returned no row at all
+     */
+    private <T> Page<T> readPage(PreparedStatement s, int keyIndex, int limitIndex, int limit, String after,
+                                 Class<T> clazz) throws SQLException {
+
+        if (limit < 1) {
+            throw new IllegalArgumentException("Limit must be positive, but was " + limit);
+        }
+
+        s.setString(keyIndex, ContinuationToken.decode(after));
+        s.setInt(limitIndex, limit + 1);
+
+        List<T> items = new ArrayList<>(Math.min(limit, 1000));
+        String lastKey = null;
+        boolean more = false;
+        boolean found = false;
+        try (ResultSet resultSet = s.executeQuery()) {
+            while (resultSet.next()) {
+                found = true;
+                String key = resultSet.getString(1);
+                if (key == null) {
+                    continue;
+                }
+                if (items.size() == limit) {
+                    more = true;
+                    break;
+                }
+                lastKey = key;
+                items.add(getPayload(resultSet, 2, clazz));
+            }
+        }
+
+        if (!found) {
+            return null;
+        }
+        return new Page<>(items, more ? ContinuationToken.encode(lastKey) : null);
+    }
+
+    /**
+     * Runs a query that selects (payload, payload_bin) and copies the payloads into a JSON array
+     * on out as the rows come in. JSON payloads are passed through as-is without decoding them,
+     * binary ones are decoded and written as JSON. Null payloads (the empty side of an outer join)
+     * are skipped.
+     *
+     * @return false if the query returned no row, in which case nothing has been written
+     */
+    private boolean writeJsonArray(PreparedStatement s, Writer out, Class<?> clazz)
+            throws SQLException, IOException {
+
+        s.setFetchSize(STREAMING_FETCH_SIZE);
+
+        try (ResultSet resultSet = s.executeQuery()) {
+            if (!resultSet.next()) {
+                return false;
+            }
+            out.write('[');
+            boolean first = true;
+            do {
+                String payload = getPayloadJson(resultSet, 1, clazz);
+                if (payload == null) {
+                    continue;
+                }
+                if (!first) {
+                    out.write(',');
+                }
+                out.write(payload);
+                first = false;
+            } while (resultSet.next());
+            out.write(']');
+        }
+        return true;
+    }
+
+    /**
+     * Binds the payload of value with the current codec to the parameters index (payload)
+     * and index + 1 (payload_bin); the parameter of the other format is set to null.
+     */
+    private void setPayload(PreparedStatement s, int index, Object value) throws SQLException {
+
+        long start = System.nanoTime();
+        if (codec.isText()) {
+            String text = jsonCodec.encodeText(value);
+            stats.serialized(start);
+            s.setString(index, text);
+            s.setNull(index + 1, Types.VARBINARY);
+        } else {
+            byte[] binary = codec.encode(value);
+            stats.serialized(start);
+            s.setNull(index, Types.VARCHAR);
+            s.setBytes(index + 1, binary);
+        }
+    }
+
+    /**
+     * Reads the payload from the columns index (payload) and index + 1 (payload_bin), whichever is set.
+     *
+     * @return the decoded payload or null if both columns are null
+     */
+    private <T> T getPayload(ResultSet resultSet, int index, Class<T> clazz) throws SQLException {
+
+        String text = resultSet.getString(index);
+        byte[] binary = text == null ? resultSet.getBytes(index + 1) : null;
+        long start = System.nanoTime();
+        try {
+            if (text != null) {
+                return jsonCodec.decodeText(text, clazz);
+            }
+            return binary != null ? binaryCodec.decode(binary, clazz) : null;
+        } finally {
+            stats.serialized(start);
+        }
+    }
+
+    /**
+     * Like {@link #getPayload(ResultSet, int, Class)}, but returns the payload as JSON. JSON payloads
+     * are passed through as they are stored, binary ones are decoded and written as JSON.
+     */
+    private String getPayloadJson(ResultSet resultSet, int index, Class<?> clazz) throws SQLException {
+
+        String text = resultSet.getString(index);
+        if (text != null) {
+            return text;
+        }
+        byte[] binary = resultSet.getBytes(index + 1);
+        if (binary == null) {
+            return null;
+        }
+        long start = System.nanoTime();
+        try {
+            return jsonCodec.encodeText(binaryCodec.decode(binary, clazz));
+        } finally {
+            stats.serialized(start);
+        }
+    }
+
+    /**
+     * The statements on one set of tables, the shared ones or those in the schema of a tenant.
+     * Their table names carry the schema, so the statements of two tenants never share their SQL text.
+     */
+    private static final class Sql {
+
+        final String insertResource;
+        final String findResourceById;
+        final String findResourcesByType;
+        final String findResourcesByTypePaged;
+        final String resourceExists;
+        final String deleteResourceById;
+        final String countResources;
+        final String purgeMetrics;
+        final String purgeParameters;
+        final String purgeResources;
+        final String insertParameter;
+        final String mergeParameter;
+        final String findResourcesByParameter;
+        final String resourcesAfter;
+        final String lastResourceId;
+        final String mergeMetric;
+        final String metricPayloadsOfResource;
+        final String listMetricsOfResource;
+        final String listMetricsOfResourcePaged;
+        final String findMetric;
+        final String resourcesWithMetrics;
+        final String resourcesOfTypeWithMetrics;
+        final String resourcesWithTextPayload;
+        final String resourcesWithBinaryPayload;
+        final String updateResourcePayload;
+        final String metricsWithTextPayload;
+        final String metricsWithBinaryPayload;
+        final String updateMetricPayload;
+
+        /**
+         * @param schema Quoted schema of the tables, see {@link DbManager#schemaOf(String)}, null for the shared tables
+         */
+        Sql(String schema) {
+            String prefix = schema != null ? schema + "." : "";
+            String resources = prefix + "HWK_RESOURCES";
+            String metrics = prefix + "HWK_METRICS";
+            String params = prefix + "HWK_RESOURCE_PARAMS";
+
+            insertResource =
+                    "INSERT INTO " + resources + " (id, tenant, type, payload, payload_bin) VALUES ( ?, ?, ?, ?, ? )";
+            findResourceById =
+                    "SELECT r.payload, r.payload_bin FROM " + resources + " r WHERE r.id = ? AND r.tenant = ?";
+            findResourcesByType =
+                    "SELECT r.payload, r.payload_bin FROM " + resources + " r WHERE r.type = ? AND r.tenant = ?";
+            findResourcesByTypePaged =
+                    "SELECT r.id, r.payload, r.payload_bin FROM " + resources + " r " +
+                            "WHERE r.tenant = ? AND r.type = ? AND r.id > ? " +
+                            "ORDER BY r.id LIMIT ?";
+            resourceExists =
+                    "SELECT 1 FROM " + resources + " r WHERE r.tenant = ? AND r.id = ?";
+            // metrics and parameters of the resource are removed by the cascading foreign keys
+            deleteResourceById =
+                    "DELETE FROM " + resources + " WHERE id = ? AND tenant = ?";
+            countResources =
+                    "SELECT COUNT(*) FROM " + resources + " WHERE tenant = ?";
+
+            // A purge deletes the rows of the tenant chunk by chunk, those that reference the resources first
+            purgeMetrics = "DELETE FROM " + metrics + " WHERE tenant = ? LIMIT ?";
+            purgeParameters = "DELETE FROM " + params + " WHERE tenant = ? LIMIT ?";
+            purgeResources = "DELETE FROM " + resources + " WHERE tenant = ? LIMIT ?";
+
+            // Parameters are stored in the payload and as rows of HWK_RESOURCE_PARAMS for the lookups by value
+            insertParameter =
+                    "INSERT INTO " + params + " (tenant, resource_id, name, value) VALUES ( ?, ?, ?, ? )";
+            mergeParameter =
+                    "MERGE INTO " + params + " (tenant, resource_id, name, value) KEY (tenant, resource_id, name) " +
+                            "VALUES ( ?, ?, ?, ? )";
+            findResourcesByParameter =
+                    "SELECT r.payload, r.payload_bin FROM " + params + " p " +
+                            "JOIN " + resources + " r ON r.tenant = p.tenant AND r.id = p.resource_id " +
+                            "WHERE p.tenant = ? AND p.name = ? AND p.value = ?";
+            resourcesAfter =
+                    "SELECT id, tenant, payload, payload_bin FROM " + resources + " WHERE id > ? ORDER BY id LIMIT ?";
+            lastResourceId =
+                    "SELECT MAX(id) FROM " + resources + " WHERE id >= ? AND id <= ?";
+
+            // The metric statements select from or join with the owning resource, so a missing resource
+            // shows up as no row / no update in the same round trip that reads or writes the metrics
+            mergeMetric =
+                    "MERGE INTO " + metrics + " (resource_id, tenant, metric_name, payload, payload_bin) " +
+                            "KEY (tenant, resource_id, metric_name) " +
+                            "SELECT r.id, r.tenant, ?, ?, ? FROM " + resources + " r WHERE r.tenant = ? AND r.id = ?";
+            metricPayloadsOfResource =
+                    "SELECT m.metric_name, m.payload, m.payload_bin FROM " + resources + " r " +
+                            "LEFT JOIN " + metrics + " m ON m.tenant = r.tenant AND m.resource_id = r.id " +
+                            "WHERE r.tenant = ? AND r.id = ?";
+            listMetricsOfResource =
+                    "SELECT m.payload, m.payload_bin FROM " + resources + " r " +
+                            "LEFT JOIN " + metrics + " m ON m.tenant = r.tenant AND m.resource_id = r.id " +
+                            "WHERE r.tenant = ? AND r.id = ?";
+            listMetricsOfResourcePaged =
+                    "SELECT m.metric_name, m.payload, m.payload_bin FROM " + resources + " r " +
+                            "LEFT JOIN " + metrics + " m " +
+                            "ON m.tenant = r.tenant AND m.resource_id = r.id AND m.metric_name > ? " +
+                            "WHERE r.tenant = ? AND r.id = ? ORDER BY m.metric_name LIMIT ?";
+            findMetric =
+                    "SELECT m.payload, m.payload_bin FROM " + resources + " r " +
+                            "LEFT JOIN " + metrics + " m " +
+                            "ON m.tenant = r.tenant AND m.resource_id = r.id AND m.metric_name = ? " +
+                            "WHERE r.tenant = ? AND r.id = ?";
+
+            // Resources with their metrics, one row per metric (or one with null metric columns), grouped by resource
+            resourcesWithMetrics =
+                    "SELECT r.id, r.payload, r.payload_bin, m.payload, m.payload_bin FROM " + resources + " r " +
+                            "LEFT JOIN " + metrics + " m ON m.tenant = r.tenant AND m.resource_id = r.id " +
+                            "WHERE r.tenant = ? ORDER BY r.id, m.metric_name";
+            resourcesOfTypeWithMetrics =
+                    "SELECT r.id, r.payload, r.payload_bin, m.payload, m.payload_bin FROM " + resources + " r " +
+                            "LEFT JOIN " + metrics + " m ON m.tenant = r.tenant AND m.resource_id = r.id " +
+                            "WHERE r.tenant = ? AND r.type = ? ORDER BY r.id, m.metric_name";
+
+            // Payload conversion: a chunk of the rows still in the other format, locked until they are rewritten
+            resourcesWithTextPayload =
+                    "SELECT tenant, id, payload, payload_bin FROM " + resources + " " +
+                            "WHERE payload IS NOT NULL LIMIT ? FOR UPDATE";
+            resourcesWithBinaryPayload =
+                    "SELECT tenant, id, payload, payload_bin FROM " + resources + " " +
+                            "WHERE payload_bin IS NOT NULL LIMIT ? FOR UPDATE";
+            updateResourcePayload =
+                    "UPDATE " + resources + " SET payload = ?, payload_bin = ? WHERE tenant = ? AND id = ?";
+            metricsWithTextPayload =
+                    "SELECT tenant, resource_id, metric_name, payload, payload_bin FROM " + metrics + " " +
+                            "WHERE payload IS NOT NULL LIMIT ? FOR UPDATE";
+            metricsWithBinaryPayload =
+                    "SELECT tenant, resource_id, metric_name, payload, payload_bin FROM " + metrics + " " +
+                            "WHERE payload_bin IS NOT NULL LIMIT ? FOR UPDATE";
+            updateMetricPayload =
+                    "UPDATE " + metrics + " SET payload = ?, payload_bin = ? " +
+                            "WHERE tenant = ? AND resource_id = ? AND metric_name = ?";
+        }
+    }
+}
@@ -0,0 +1,359 @@
+/*
+ * Copyright 2015 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.inventory.impl.storage;
+
+import org.hawkular.inventory.api.ItemResult;
+import org.hawkular.inventory.api.MetricDefinition;
+import org.hawkular.inventory.api.Page;
+import org.hawkular.inventory.api.Resource;
+import org.hawkular.inventory.api.ResourceNotFoundException;
+import org.hawkular.inventory.api.ResourceType;
+import org.hawkular.inventory.impl.Log;
+import org.hawkular.inventory.impl.cache.CacheKey;
+import org.hawkular.inventory.impl.codec.BinaryPayloadCodec;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Storage for single nodes without a database: a {@link MemoryStorage} that every change is
+ * appended to an {@link AppendLog} of memory-mapped files for, and that is rebuilt from the log
+ * on startup. Reads are served from the heap and appending a change costs a copy into the
+ * mapped file, so neither waits for the disk.
+ *
+ * The log is forced to the disk every {@link #SYNC_INTERVAL_PROPERTY} milliseconds; a crash of the
+ * machine can lose the changes since then, a crash of the process none. Every
+ * {@link #COMPACT_INTERVAL_PROPERTY} minutes, once at least one segment is full, the log is
+ * compacted: the current state is written to a snapshot, which replaces the segments before.
+ * The snapshot is taken while writes go on; it starts with a new segment, and replaying that
+ * segment after the snapshot gives the changes that the snapshot has missed.
+ *
+ * Changes are checked, appended and applied under one lock, so the log has them in the order
+ * they were applied. Encoding the payloads is done before.
+ *
+ * @author agent
+ */
+public class LogStorage implements Storage {
+
+    /** Directory of the log files */
+    public static final String DIR_PROPERTY = "hawkular.inventory.log.dir";
+    /** Megabytes of a segment file */
+    public static final String SEGMENT_SIZE_PROPERTY = "hawkular.inventory.log.segment.size";
+    /** Milliseconds between two writes of the log to the disk */
+    public static final String SYNC_INTERVAL_PROPERTY = "hawkular.inventory.log.sync.interval";
+    /** Minutes between two checks whether the log should be compacted */
+    public static final String COMPACT_INTERVAL_PROPERTY = "hawkular.inventory.log.compact.interval";
+
+    private final MemoryStorage memory = new MemoryStorage();
+    private final BinaryPayloadCodec codec = new BinaryPayloadCodec();
+    private final Object writes = new Object();
+    private final Object compaction = new Object();
+    private final File dir;
+    private final int segmentSize;
+    private final long syncMillis;
+    private final long compactMillis;
+    private AppendLog log;
+    private ScheduledExecutorService timer;
+
+    /**
+     * Creates a storage with the segment size and intervals of the system properties.
+     */
+    public LogStorage(File dir) {
+        this(dir, Integer.getInteger(SEGMENT_SIZE_PROPERTY, 64) << 20, Long.getLong(SYNC_INTERVAL_PROPERTY, 1000),
+                TimeUnit.MINUTES.toMillis(Long.getLong(COMPACT_INTERVAL_PROPERTY, 10)));
+    }
+
+    /**
+     * @param dir Directory of the log files
+     * @param segmentSize Bytes of a segment file, the limit of a single resource or metric as well
+     * @param syncMillis Milliseconds between two writes of the log to the disk
+     * @param compactMillis Milliseconds between two checks whether the log should be compacted
+     */
+    public LogStorage(File dir, int segmentSize, long syncMillis, long compactMillis) {
+        this.dir = dir;
+        this.segmentSize = segmentSize;
+        this.syncMillis = syncMillis;
+        this.compactMillis = compactMillis;
+    }
+
+    @Override
+    public void start() {
+
+        try {
+            log = new AppendLog(dir, segmentSize);
+            Log.LOG.logRecovered(log.recover(this::replay), dir.getPath());
+        } catch (Exception e) {
+            throw new IllegalStateException("Cannot recover the log in " + dir, e);
+        }
+
+        timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "inventory-log");
+            thread.setDaemon(true);
+            return thread;
+        });
+        timer.scheduleWithFixedDelay(log::force, syncMillis, syncMillis, TimeUnit.MILLISECONDS);
+        timer.scheduleWithFixedDelay(() -> {
+            try {
+                if (log.getSegmentsSinceSnapshot() > 0) {
+                    compact();
+                }
+            } catch (IOException | RuntimeException e) {
+                Log.LOG.warn(e.getMessage());
+            }
+        }, compactMillis, compactMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void stop() {
+        if (timer != null) {
+            timer.shutdownNow();
+        }
+        synchronized (writes) {
+            if (log != null) {
+                log.close();
+            }
+        }
+    }
+
+    private void replay(byte type, String tenant, String key, byte[] payload) throws Exception {
+        switch (type) {
+            case AppendLog.RESOURCE:
+                memory.restore(tenant, codec.decode(payload, Resource.class));
+                break;
+            case AppendLog.DELETE:
+                memory.deleteResources(tenant, Collections.singletonList(key));
+                break;
+            case AppendLog.METRIC:
+                memory.putMetric(tenant, key, codec.decode(payload, MetricDefinition.class));
+                break;
+            case AppendLog.PURGE:
+                memory.purgeTenant(tenant);
+                break;
+            default:
+                throw new IOException("Unknown record type " + type);
+        }
+    }
+
+    /**
+     * Writes the current state to a snapshot and deletes the segments it replaces.
+     *
+     * @return the number of records in the snapshot
+     */
+    public long compact() throws IOException {
+
+        synchronized (compaction) {
+            // changes from here on go to the new segment, which is replayed after the snapshot
+            long number = log.roll();
+            try (AppendLog.Snapshot snapshot = log.snapshot(number)) {
+                memory.forEach((tenant, resource, metrics) -> {
+                    snapshot.write(AppendLog.RESOURCE, tenant, resource.getId(), codec.encode(resource));
+                    for (MetricDefinition metric : metrics) {
+                        snapshot.write(AppendLog.METRIC, tenant, resource.getId(), codec.encode(metric));
+                    }
+                });
+                snapshot.commit();
+                Log.LOG.logCompacted(dir.getPath(), snapshot.getRecords());
+                return snapshot.getRecords();
+            }
+        }
+    }
+
+    @Override
+    public void insertResource(String tenant, Resource resource) throws Exception {
+
+        byte[] payload = codec.encode(resource);
+        synchronized (writes) {
+            if (memory.isTaken(resource.getId())) {
+                throw new IllegalArgumentException("Resource " + resource.getId() + " exists already");
+            }
+            log.append(AppendLog.RESOURCE, tenant, resource.getId(), payload);
+            memory.restore(tenant, resource);
+        }
+    }
+
+    @Override
+    public List<ItemResult> insertResources(String tenant, List<Resource> resources) throws Exception {
+
+        List<byte[]> payloads = new ArrayList<>(resources.size());
+        for (Resource resource : resources) {
+            payloads.add(codec.encode(resource));
+        }
+
+        List<ItemResult> results = new ArrayList<>(resources.size());
+        synchronized (writes) {
+            for (int i = 0; i < resources.size(); i++) {
+                Resource resource = resources.get(i);
+                if (memory.isTaken(resource.getId())) {
+                    results.add(ItemResult.failed(resource.getId(), "Resource exists already"));
+                    continue;
+                }
+                log.append(AppendLog.RESOURCE, tenant, resource.getId(), payloads.get(i));
+                memory.restore(tenant, resource);
+                results.add(ItemResult.created(resource.getId()));
+            }
+        }
+        return results;
+    }
+
+    @Override
+    public List<String> deleteResources(String tenant, Collection<String> ids) throws Exception {
+
+        List<String> deleted = new ArrayList<>();
+        synchronized (writes) {
+            for (String id : ids) {
+                if (memory.resourceExists(tenant, id)) {
+                    log.append(AppendLog.DELETE, tenant, id, new byte[0]);
+                    deleted.addAll(memory.deleteResources(tenant, Collections.singletonList(id)));
+                }
+            }
+        }
+        return deleted;
+    }
+
+    @Override
+    public String getLastResourceId(String from, String to) {
+        return memory.getLastResourceId(from, to);
+    }
+
+    @Override
+    public int purgeTenant(String tenant) throws Exception {
+
+        synchronized (writes) {
+            log.append(AppendLog.PURGE, tenant, "", new byte[0]);
+            return memory.purgeTenant(tenant);
+        }
+    }
+
+    @Override
+    public List<ItemResult> upsertMetrics(String tenant, String resourceId, List<MetricDefinition> definitions)
+            throws Exception {
+
+        List<byte[]> payloads = new ArrayList<>(definitions.size());
+        for (MetricDefinition definition : definitions) {
+            payloads.add(codec.encode(definition));
+        }
+
+        List<ItemResult> results = new ArrayList<>(definitions.size());
+        synchronized (writes) {
+            if (!memory.resourceExists(tenant, resourceId)) {
+                throw new ResourceNotFoundException(tenant, resourceId);
+            }
+            for (int i = 0; i < definitions.size(); i++) {
+                MetricDefinition definition = definitions.get(i);
+                MetricDefinition stored = memory.getMetric(tenant, resourceId, definition.getName());
+                if (MemoryStorage.same(stored, definition)) {
+                    results.add(ItemResult.unchanged(definition.getName()));
+                    continue;
+                }
+                log.append(AppendLog.METRIC, tenant, resourceId, payloads.get(i));
+                memory.putMetric(tenant, resourceId, definition);
+                results.add(stored == null ? ItemResult.created(definition.getName())
+                        : ItemResult.updated(definition.getName()));
+            }
+        }
+        return results;
+    }
+
+    @Override
+    public List<CacheKey> mergeMetrics(Map<CacheKey, MetricDefinition> definitions) throws Exception {
+
+        List<CacheKey> written = new ArrayList<>(definitions.size());
+        for (Map.Entry<CacheKey, MetricDefinition> definition : definitions.entrySet()) {
+            CacheKey key = definition.getKey();
+            byte[] payload = codec.encode(definition.getValue());
+            synchronized (writes) {
+                if (memory.resourceExists(key.getTenant(), key.getResourceId())) {
+                    log.append(AppendLog.METRIC, key.getTenant(), key.getResourceId(), payload);
+                    memory.putMetric(key.getTenant(), key.getResourceId(), definition.getValue());
+                    written.add(key);
+                }
+            }
+        }
+        return written;
+    }
+
+    @Override
+    public Resource getResource(String tenant, String id) throws Exception {
+        return memory.getResource(tenant, id);
+    }
+
+    @Override
+    public boolean resourceExists(String tenant, String id) throws Exception {
+        return memory.resourceExists(tenant, id);
+    }
+
+    @Override
+    public List<Resource> getResourcesForType(String tenant, ResourceType type) throws Exception {
+        return memory.getResourcesForType(tenant, type);
+    }
+
+    @Override
+    public Page<Resource> getResourcesForType(String tenant, ResourceType type, int limit, String after)
+            throws Exception {
+        return memory.getResourcesForType(tenant, type, limit, after);
+    }
+
+    @Override
+    public void writeResourcesForType(String tenant, ResourceType type, Writer out) throws Exception {
+        memory.writeResourcesForType(tenant, type, out);
+    }
+
+    @Override
+    public void writeResourcesWithMetrics(String tenant, ResourceType type, Writer out) throws Exception {
+        memory.writeResourcesWithMetrics(tenant, type, out);
+    }
+
+    @Override
+    public void exportTenant(String tenant, Writer out) throws Exception {
+        memory.exportTenant(tenant, out);
+    }
+
+    @Override
+    public List<Resource> findResourcesByParameter(String tenant, String name, String value) throws Exception {
+        return memory.findResourcesByParameter(tenant, name, value);
+    }
+
+    @Override
+    public List<MetricDefinition> listMetricsForResource(String tenant, String resourceId) throws Exception {
+        return memory.listMetricsForResource(tenant, resourceId);
+    }
+
+    @Override
+    public Page<MetricDefinition> listMetricsForResource(String tenant, String resourceId, int limit, String after)
+            throws Exception {
+        return memory.listMetricsForResource(tenant, resourceId, limit, after);
+    }
+
+    @Override
+    public void writeMetricsForResource(String tenant, String resourceId, Writer out) throws Exception {
+        memory.writeMetricsForResource(tenant, resourceId, out);
+    }
+
+    @Override
+    public MetricDefinition getMetric(String tenant, String resourceId, String name) throws Exception {
+        return memory.getMetric(tenant, resourceId, name);
+    }
+}
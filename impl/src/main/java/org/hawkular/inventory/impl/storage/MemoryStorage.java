@@ -0,0 +1,521 @@
+/*
+ * Copyright 2015 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.inventory.impl.storage;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import org.hawkular.inventory.api.ItemResult;
+import org.hawkular.inventory.api.MetricDefinition;
+import org.hawkular.inventory.api.Page;
+import org.hawkular.inventory.api.Resource;
+import org.hawkular.inventory.api.ResourceNotFoundException;
+import org.hawkular.inventory.api.ResourceType;
+import org.hawkular.inventory.impl.cache.CacheKey;
+import org.hawkular.inventory.impl.stats.Statistics;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.Function;
+
+/**
+ * Storage on the heap, e.g. for edge collectors and tests. Nothing is persisted, the inventory
+ * is empty again after a restart.
+ *
+ * Every tenant has a partition of its own: the resources by id plus secondary indexes by type
+ * (sorted by id, so pages are found by seeking to the last id) and by parameter value. Every
+ * resource holds its metrics sorted by name. All maps are concurrent, so readers never block and
+ * writers only contend on the same keys. There are no transactions though: a resource shows up in
+ * the indexes one after the other and a bulk operation can be seen half done. As in the database,
+ * the id of a resource is unique across all tenants.
+ *
+ * Objects are copied on the way in, so callers can go on using theirs. The stored ones are
+ * handed out as they are and must not be modified.
+ *
+ * @author agent
+ */
+public class MemoryStorage implements Storage {
+
+    private final ConcurrentMap<String, Partition> partitions = new ConcurrentHashMap<>();
+    /** Tenant of every resource id */
+    private final ConcurrentMap<String, String> owners = new ConcurrentHashMap<>();
+    private final Gson gson = new GsonBuilder().create();
+    private final Statistics stats = Statistics.INVENTORY;
+
+    @Override
+    public void start() {
+        // nothing to prepare
+    }
+
+    @Override
+    public void stop() {
+        // the data goes with this object
+    }
+
+    @Override
+    public void insertResource(String tenant, Resource resource) throws Exception {
+        if (!insert(tenant, resource)) {
+            throw new IllegalArgumentException("Resource " + resource.getId() + " exists already");
+        }
+    }
+
+    @Override
+    public List<ItemResult> insertResources(String tenant, List<Resource> resources) throws Exception {
+
+        List<ItemResult> results = new ArrayList<>(resources.size());
+        for (Resource resource : resources) {
+            if (insert(tenant, resource)) {
+                results.add(ItemResult.created(resource.getId()));
+            } else {
+                results.add(ItemResult.failed(resource.getId(), "Resource exists already"));
+            }
+        }
+        return results;
+    }
+
+    /**
+     * @return false if there is a resource with the same id already
+     */
+    private boolean insert(String tenant, Resource resource) {
+
+        if (owners.putIfAbsent(resource.getId(), tenant) != null) {
+            return false;
+        }
+        Partition partition = partitions.computeIfAbsent(tenant, t -> new Partition());
+        Entry entry = new Entry(copy(resource));
+        partition.resources.put(resource.getId(), entry);
+        partition.index(entry);
+        return true;
+    }
+
+    @Override
+    public Resource getResource(String tenant, String id) throws Exception {
+        Entry entry = entry(tenant, id);
+        return entry != null ? entry.resource : null;
+    }
+
+    @Override
+    public boolean resourceExists(String tenant, String id) throws Exception {
+        return entry(tenant, id) != null;
+    }
+
+    @Override
+    public List<Resource> getResourcesForType(String tenant, ResourceType type) throws Exception {
+
+        List<Resource> result = new ArrayList<>();
+        for (Entry entry : ofType(tenant, type).values()) {
+            result.add(entry.resource);
+        }
+        return result;
+    }
+
+    @Override
+    public Page<Resource> getResourcesForType(String tenant, ResourceType type, int limit, String after)
+            throws Exception {
+        return page(ofType(tenant, type), limit, after, entry -> entry.resource);
+    }
+
+    @Override
+    public void writeResourcesForType(String tenant, ResourceType type, Writer out) throws Exception {
+
+        out.write('[');
+        boolean first = true;
+        for (Entry entry : ofType(tenant, type).values()) {
+            if (!first) {
+                out.write(',');
+            }
+            write(entry.resource, out);
+            first = false;
+        }
+        out.write(']');
+    }
+
+    @Override
+    public void writeResourcesWithMetrics(String tenant, ResourceType type, Writer out) throws Exception {
+
+        Collection<Entry> entries;
+        if (type != null) {
+            entries = ofType(tenant, type).values();
+        } else {
+            Partition partition = partitions.get(tenant);
+            entries = partition != null ? partition.resources.values() : Collections.<Entry>emptyList();
+        }
+
+        out.write('[');
+        boolean first = true;
+        for (Entry entry : entries) {
+            if (!first) {
+                out.write(',');
+            }
+            out.write("{\"resource\":");
+            write(entry.resource, out);
+            out.write(",\"metrics\":");
+            writeMetrics(entry, out);
+            out.write('}');
+            first = false;
+        }
+        out.write(']');
+    }
+
+    @Override
+    public void exportTenant(String tenant, Writer out) throws Exception {
+
+        Partition partition = partitions.get(tenant);
+        if (partition == null) {
+            return;
+        }
+        for (Entry entry : partition.resources.values()) {
+            out.write("{\"resource\":");
+            write(entry.resource, out);
+            out.write(",\"metrics\":");
+            writeMetrics(entry, out);
+            out.write("}\n");
+        }
+    }
+
+    @Override
+    public List<Resource> findResourcesByParameter(String tenant, String name, String value) throws Exception {
+
+        List<Resource> result = new ArrayList<>();
+        Partition partition = partitions.get(tenant);
+        if (partition == null || value == null) {
+            return result;
+        }
+        Map<String, Map<String, Entry>> values = partition.byParameter.get(name);
+        Map<String, Entry> entries = values != null ? values.get(value) : null;
+        if (entries != null) {
+            for (Entry entry : entries.values()) {
+                result.add(entry.resource);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public List<String> deleteResources(String tenant, Collection<String> ids) throws Exception {
+
+        List<String> deleted = new ArrayList<>();
+        Partition partition = partitions.get(tenant);
+        if (partition == null) {
+            return deleted;
+        }
+        for (String id : ids) {
+            // the metrics go with the entry
+            Entry entry = partition.resources.remove(id);
+            if (entry != null) {
+                partition.unindex(entry);
+                owners.remove(id, tenant);
+                deleted.add(id);
+            }
+        }
+        return deleted;
+    }
+
+    /**
+     * Drops the partition of the tenant. Resources added to the tenant meanwhile may go with it.
+     */
+    @Override
+    public String getLastResourceId(String from, String to) {
+        String last = null;
+        for (String id : owners.keySet()) {
+            if (id.compareTo(from) >= 0 && id.compareTo(to) <= 0 && (last == null || id.compareTo(last) > 0)) {
+                last = id;
+            }
+        }
+        return last;
+    }
+
+    @Override
+    public int purgeTenant(String tenant) throws Exception {
+
+        Partition partition = partitions.remove(tenant);
+        if (partition == null) {
+            return 0;
+        }
+        for (String id : partition.resources.keySet()) {
+            owners.remove(id, tenant);
+        }
+        return partition.resources.size();
+    }
+
+    @Override
+    public List<ItemResult> upsertMetrics(String tenant, String resourceId, List<MetricDefinition> definitions)
+            throws Exception {
+
+        Entry entry = existingEntry(tenant, resourceId);
+        List<ItemResult> results = new ArrayList<>(definitions.size());
+        for (MetricDefinition definition : definitions) {
+            String name = definition.getName();
+            if (same(entry.metrics.get(name), definition)) {
+                results.add(ItemResult.unchanged(name));
+            } else if (entry.metrics.put(name, copy(definition)) == null) {
+                results.add(ItemResult.created(name));
+            } else {
+                results.add(ItemResult.updated(name));
+            }
+        }
+        return results;
+    }
+
+    @Override
+    public List<CacheKey> mergeMetrics(Map<CacheKey, MetricDefinition> definitions) throws Exception {
+
+        List<CacheKey> written = new ArrayList<>(definitions.size());
+        for (Map.Entry<CacheKey, MetricDefinition> definition : definitions.entrySet()) {
+            CacheKey key = definition.getKey();
+            if (putMetric(key.getTenant(), key.getResourceId(), definition.getValue())) {
+                written.add(key);
+            }
+        }
+        return written;
+    }
+
+    /**
+     * @return false if the resource does not exist
+     */
+    boolean putMetric(String tenant, String resourceId, MetricDefinition definition) {
+        Entry entry = entry(tenant, resourceId);
+        if (entry == null) {
+            return false;
+        }
+        entry.metrics.put(definition.getName(), copy(definition));
+        return true;
+    }
+
+    @Override
+    public List<MetricDefinition> listMetricsForResource(String tenant, String resourceId) throws Exception {
+        return new ArrayList<>(existingEntry(tenant, resourceId).metrics.values());
+    }
+
+    @Override
+    public Page<MetricDefinition> listMetricsForResource(String tenant, String resourceId, int limit, String after)
+            throws Exception {
+        return page(existingEntry(tenant, resourceId).metrics, limit, after, Function.identity());
+    }
+
+    @Override
+    public void writeMetricsForResource(String tenant, String resourceId, Writer out) throws Exception {
+
+        Entry entry = entry(tenant, resourceId);
+        if (entry == null) {
+            out.write("[]");
+            return;
+        }
+        writeMetrics(entry, out);
+    }
+
+    @Override
+    public MetricDefinition getMetric(String tenant, String resourceId, String name) throws Exception {
+        return existingEntry(tenant, resourceId).metrics.get(name);
+    }
+
+    /**
+     * @return true if a resource of any tenant has the id
+     */
+    boolean isTaken(String id) {
+        return owners.containsKey(id);
+    }
+
+    /**
+     * Stores the resource without its metrics, replacing one with the same id. Unlike
+     * {@link #insertResource(String, Resource)} this accepts an id that another tenant has, as a
+     * snapshot can hold both a deleted resource and the one that took its id later on.
+     */
+    void restore(String tenant, Resource resource) {
+        Partition partition = partitions.computeIfAbsent(tenant, t -> new Partition());
+        Entry entry = new Entry(copy(resource));
+        Entry replaced = partition.resources.put(resource.getId(), entry);
+        if (replaced != null) {
+            partition.unindex(replaced);
+        }
+        owners.put(resource.getId(), tenant);
+        partition.index(entry);
+    }
+
+    /**
+     * Hands every resource with its metrics to the visitor. Changes made meanwhile may or may not be seen.
+     */
+    void forEach(Visitor visitor) throws IOException {
+        for (Map.Entry<String, Partition> partition : partitions.entrySet()) {
+            for (Entry entry : partition.getValue().resources.values()) {
+                visitor.visit(partition.getKey(), entry.resource, entry.metrics.values());
+            }
+        }
+    }
+
+    /** Receives the resources in {@link #forEach(Visitor)} */
+    interface Visitor {
+        void visit(String tenant, Resource resource, Collection<MetricDefinition> metrics) throws IOException;
+    }
+
+    private Entry entry(String tenant, String id) {
+        Partition partition = partitions.get(tenant);
+        return partition != null ? partition.resources.get(id) : null;
+    }
+
+    private Entry existingEntry(String tenant, String id) throws ResourceNotFoundException {
+        Entry entry = entry(tenant, id);
+        if (entry == null) {
+            throw new ResourceNotFoundException(tenant, id);
+        }
+        return entry;
+    }
+
+    private ConcurrentNavigableMap<String, Entry> ofType(String tenant, ResourceType type) {
+        Partition partition = partitions.get(tenant);
+        ConcurrentNavigableMap<String, Entry> entries = partition != null ? partition.byType.get(type) : null;
+        return entries != null ? entries : new ConcurrentSkipListMap<String, Entry>();
+    }
+
+    /**
+     * Reads up to limit values with a key after the one in the continuation token and maps them to
+     * the items of the page.
+     */
+    private static <V, T> Page<T> page(ConcurrentNavigableMap<String, V> map, int limit, String after,
+                                       Function<V, T> item) {
+
+        if (limit < 1) {
+            throw new IllegalArgumentException("Limit must be positive, but was " + limit);
+        }
+
+        List<T> items = new ArrayList<>(Math.min(limit, 1000));
+        String lastKey = null;
+        boolean more = false;
+        for (Map.Entry<String, V> entry : map.tailMap(ContinuationToken.decode(after), false).entrySet()) {
+            if (items.size() == limit) {
+                more = true;
+                break;
+            }
+            lastKey = entry.getKey();
+            items.add(item.apply(entry.getValue()));
+        }
+        return new Page<>(items, more ? ContinuationToken.encode(lastKey) : null);
+    }
+
+    private void writeMetrics(Entry entry, Writer out) throws IOException {
+
+        out.write('[');
+        boolean first = true;
+        for (MetricDefinition metric : entry.metrics.values()) {
+            if (!first) {
+                out.write(',');
+            }
+            write(metric, out);
+            first = false;
+        }
+        out.write(']');
+    }
+
+    private void write(Object value, Writer out) throws IOException {
+        long start = System.nanoTime();
+        String json = gson.toJson(value);
+        stats.serialized(start);
+        out.write(json);
+    }
+
+    private static Resource copy(Resource resource) {
+        Resource copy = new Resource();
+        copy.setId(resource.getId());
+        copy.setType(resource.getType());
+        if (resource.getParameters() != null) {
+            copy.getParameters().putAll(resource.getParameters());
+        }
+        return copy;
+    }
+
+    private static MetricDefinition copy(MetricDefinition definition) {
+        MetricDefinition copy = new MetricDefinition(definition.getName(), definition.getUnit());
+        copy.setDescription(definition.getDescription());
+        return copy;
+    }
+
+    /**
+     * equals() only looks at name and unit, this compares everything that is stored.
+     */
+    static boolean same(MetricDefinition stored, MetricDefinition definition) {
+        return stored != null
+                && Objects.equals(stored.getName(), definition.getName())
+                && stored.getUnit() == definition.getUnit()
+                && Objects.equals(stored.getDescription(), definition.getDescription());
+    }
+
+    /** A stored resource with its metrics */
+    private static final class Entry {
+        final Resource resource;
+        final ConcurrentNavigableMap<String, MetricDefinition> metrics = new ConcurrentSkipListMap<>();
+
+        Entry(Resource resource) {
+            this.resource = resource;
+        }
+    }
+
+    /** The resources of one tenant */
+    private static final class Partition {
+        final ConcurrentMap<String, Entry> resources = new ConcurrentHashMap<>();
+        final ConcurrentMap<ResourceType, ConcurrentNavigableMap<String, Entry>> byType =
+                new ConcurrentHashMap<>();
+        /** Parameter name to value to the resources by id */
+        final ConcurrentMap<String, ConcurrentMap<String, Map<String, Entry>>> byParameter =
+                new ConcurrentHashMap<>();
+
+        void index(Entry entry) {
+            Resource resource = entry.resource;
+            byType.computeIfAbsent(resource.getType(), t -> new ConcurrentSkipListMap<>())
+                    .put(resource.getId(), entry);
+            for (Map.Entry<String, String> parameter : resource.getParameters().entrySet()) {
+                if (parameter.getKey() == null || parameter.getValue() == null) {
+                    continue; // never found by value
+                }
+                // compute() is atomic per value, so this cannot race with the removal of an emptied map
+                byParameter.computeIfAbsent(parameter.getKey(), n -> new ConcurrentHashMap<>())
+                        .compute(parameter.getValue(), (value, entries) -> {
+                            Map<String, Entry> result = entries != null ? entries : new ConcurrentHashMap<>();
+                            result.put(resource.getId(), entry);
+                            return result;
+                        });
+            }
+        }
+
+        void unindex(Entry entry) {
+            Resource resource = entry.resource;
+            ConcurrentNavigableMap<String, Entry> ofType = byType.get(resource.getType());
+            if (ofType != null) {
+                ofType.remove(resource.getId(), entry);
+            }
+            for (Map.Entry<String, String> parameter : resource.getParameters().entrySet()) {
+                ConcurrentMap<String, Map<String, Entry>> values =
+                        parameter.getKey() != null ? byParameter.get(parameter.getKey()) : null;
+                if (values == null || parameter.getValue() == null) {
+                    continue;
+                }
+                values.computeIfPresent(parameter.getValue(), (value, entries) -> {
+                    entries.remove(resource.getId(), entry);
+                    return entries.isEmpty() ? null : entries;
+                });
+            }
+        }
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright 2015 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.inventory.impl.storage;
+
+import org.hawkular.inventory.api.Inventory;
+import org.hawkular.inventory.api.ItemResult;
+import org.hawkular.inventory.api.MetricDefinition;
+import org.hawkular.inventory.api.Page;
+import org.hawkular.inventory.api.Resource;
+import org.hawkular.inventory.api.ResourceNotFoundException;
+import org.hawkular.inventory.api.ResourceType;
+import org.hawkular.inventory.impl.cache.CacheKey;
+
+import java.io.Writer;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Where the inventory keeps its resources and metrics.
+ *
+ * A storage only stores and finds: ids are generated, requests validated, objects cached and
+ * changes published by the service on top of it. Every method may be called concurrently.
+ * Metrics belong to their resource; they can only be written while it exists and are removed with it.
+ * Lists are in no particular order, pages are ordered by id or name.
+ *
+ * @author agent
+ */
+public interface Storage {
+
+    /** Names to select a storage by */
+    String JDBC = "jdbc";
+    String MEMORY = "memory";
+    String LOG = "log";
+
+    /**
+     * Prepares the storage for use, e.g. brings the schema up to date.
+     *
+     * @throws IllegalStateException if the storage cannot be used
+     */
+    void start();
+
+    /**
+     * Releases what the storage holds; stored data stays where the storage keeps it.
+     */
+    void stop();
+
+    /**
+     * @throws IllegalArgumentException if a resource with the same id exists already
+     */
+    void insertResource(String tenant, Resource resource) throws Exception;
+
+    /**
+     * Inserts resources that all have an id and a type, with distinct ids.
+     *
+     * @return a result per resource in the same order, CREATED or FAILED
+     */
+    List<ItemResult> insertResources(String tenant, List<Resource> resources) throws Exception;
+
+    /**
+     * @return the resource or null if there is none with this id
+     */
+    Resource getResource(String tenant, String id) throws Exception;
+
+    boolean resourceExists(String tenant, String id) throws Exception;
+
+    List<Resource> getResourcesForType(String tenant, ResourceType type) throws Exception;
+
+    Page<Resource> getResourcesForType(String tenant, ResourceType type, int limit, String after) throws Exception;
+
+    /**
+     * Writes the resources of the type as JSON array.
+     */
+    void writeResourcesForType(String tenant, ResourceType type, Writer out) throws Exception;
+
+    /**
+     * Writes the resources, all or those of the type if not null, each with its metrics as JSON array.
+     */
+    void writeResourcesWithMetrics(String tenant, ResourceType type, Writer out) throws Exception;
+
+    /**
+     * Writes every resource with its metrics as a line of JSON, see {@link Inventory#exportTenant(String, Writer)}.
+     */
+    void exportTenant(String tenant, Writer out) throws Exception;
+
+    List<Resource> findResourcesByParameter(String tenant, String name, String value) throws Exception;
+
+    /**
+     * @return the largest resource id of any tenant from from to to (both inclusive), null if there is none
+     */
+    String getLastResourceId(String from, String to) throws Exception;
+
+    /**
+     * Deletes the resources with their metrics. Unknown ids are skipped.
+     *
+     * @return the ids of the deleted resources
+     */
+    List<String> deleteResources(String tenant, Collection<String> ids) throws Exception;
+
+    /**
+     * Deletes all resources of the tenant with their metrics.
+     *
+     * @return the number of deleted resources
+     */
+    int purgeTenant(String tenant) throws Exception;
+
+    /**
+     * Inserts the new and updates the changed definitions, which all have a name, with distinct names.
+     *
+     * @return a result per definition in the same order, CREATED, UPDATED or UNCHANGED
+     * @throws ResourceNotFoundException if the resource does not exist
+     */
+    List<ItemResult> upsertMetrics(String tenant, String resourceId, List<MetricDefinition> definitions)
+            throws Exception;
+
+    /**
+     * Inserts or updates the definitions of any resources. Definitions of resources that do not
+     * exist are dropped.
+     *
+     * @return the keys of the written definitions
+     */
+    List<CacheKey> mergeMetrics(Map<CacheKey, MetricDefinition> definitions) throws Exception;
+
+    /**
+     * @throws ResourceNotFoundException if the resource does not exist
+     */
+    List<MetricDefinition> listMetricsForResource(String tenant, String resourceId) throws Exception;
+
+    /**
+     * @throws ResourceNotFoundException if the resource does not exist
+     */
+    Page<MetricDefinition> listMetricsForResource(String tenant, String resourceId, int limit, String after)
+            throws Exception;
+
+    /**
+     * Writes the metrics of the resource as JSON array, an empty one if the resource does not exist.
+     */
+    void writeMetricsForResource(String tenant, String resourceId, Writer out) throws Exception;
+
+    /**
+     * @return the metric or null if the resource has none with this name
+     * @throws ResourceNotFoundException if the resource does not exist
+     */
+    MetricDefinition getMetric(String tenant, String resourceId, String name) throws Exception;
+}
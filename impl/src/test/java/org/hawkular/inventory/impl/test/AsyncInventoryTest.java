@@ -0,0 +1,119 @@
+/*
+ * Copyright 2015 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.inventory.impl.test;
+
+import org.hawkular.inventory.api.Resource;
+import org.hawkular.inventory.api.ResourceNotFoundException;
+import org.hawkular.inventory.api.ResourceType;
+import org.hawkular.inventory.impl.AsyncInventoryService;
+import org.hawkular.inventory.impl.InventoryService;
+import org.h2.jdbcx.JdbcConnectionPool;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests for the asynchronous inventory
+ *
+ * @author agent
+ */
+public class AsyncInventoryTest {
+
+    JdbcConnectionPool dataSource;
+
+    @Before
+    public void setup() throws Exception {
+
+        dataSource = JdbcConnectionPool.create("jdbc:h2:mem:test;DB_CLOSE_DELAY=-1", "sa", "sa");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        dataSource.dispose();
+    }
+
+    @Test
+    public void testResultsAndFailures() throws Exception {
+
+        AsyncInventoryService async = new AsyncInventoryService(new InventoryService(dataSource), 2, 10);
+
+        Resource resource = new Resource();
+        resource.setType(ResourceType.URL);
+        resource.addParameter("url", "http://hawkular.org");
+        String id = async.addResource("async", resource).toCompletableFuture().get(10, TimeUnit.SECONDS);
+
+        Resource result = async.getResource("async", id).toCompletableFuture().get(10, TimeUnit.SECONDS);
+        assertEquals(id, result.getId());
+
+        try {
+            async.listMetricsForResource("async", "not-there").toCompletableFuture().get(10, TimeUnit.SECONDS);
+            fail("The stage should have failed");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof ResourceNotFoundException);
+        }
+
+        async.cleanup();
+    }
+
+    @Test
+    public void testSaturatedPoolRejects() throws Exception {
+
+        final CountDownLatch blocked = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        InventoryService inventory = new InventoryService(dataSource) {
+            @Override
+            public boolean resourceExists(String tenant, String uid) {
+                blocked.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return true;
+            }
+        };
+        AsyncInventoryService async = new AsyncInventoryService(inventory, 1, 1);
+
+        CompletionStage<Boolean> running = async.resourceExists("async", "a");
+        blocked.await(10, TimeUnit.SECONDS);
+        CompletionStage<Boolean> queued = async.resourceExists("async", "b");
+        assertEquals(1, async.getQueueSize());
+
+        try {
+            async.resourceExists("async", "c").toCompletableFuture().get(10, TimeUnit.SECONDS);
+            fail("The pool is full, the call should have been rejected");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof RejectedExecutionException);
+        }
+
+        release.countDown();
+        assertTrue(running.toCompletableFuture().get(10, TimeUnit.SECONDS));
+        assertTrue(queued.toCompletableFuture().get(10, TimeUnit.SECONDS));
+
+        async.cleanup();
+    }
+}
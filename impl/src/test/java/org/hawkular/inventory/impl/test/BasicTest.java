@@ -16,21 +16,48 @@
  */
 package org.hawkular.inventory.impl.test;
 
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.hawkular.inventory.api.ChangeEvent;
+import org.hawkular.inventory.api.Changes;
+import org.hawkular.inventory.api.ImportResult;
+import org.hawkular.inventory.api.ItemResult;
 import org.hawkular.inventory.api.MetricDefinition;
 import org.hawkular.inventory.api.MetricUnit;
+import org.hawkular.inventory.api.Page;
 import org.hawkular.inventory.api.Resource;
+import org.hawkular.inventory.api.ResourceNotFoundException;
 import org.hawkular.inventory.api.ResourceType;
 import org.hawkular.inventory.impl.InventoryService;
+import org.hawkular.inventory.impl.codec.PayloadCodecs;
+import org.hawkular.inventory.impl.db.DbManager;
+import org.hawkular.inventory.impl.db.DbSession;
+import org.hawkular.inventory.impl.id.TimeOrderedIdGenerator;
+import org.h2.jdbcx.JdbcConnectionPool;
+import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.io.StringReader;
+import java.io.StringWriter;
 import java.sql.Connection;
-import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 /**
  * Test some basic functionality
@@ -39,22 +66,73 @@ import static org.junit.Assert.assertNotNull;
  */
 public class BasicTest {
 
+    private static final AtomicInteger DATABASES = new AtomicInteger();
 
-    Connection conn;
+    private final List<InventoryService> services = new ArrayList<>();
+    private final List<JdbcConnectionPool> databases = new ArrayList<>();
+
+    JdbcConnectionPool dataSource;
 
     @Before
     public void setup() throws Exception {
 
+        dataSource = newDatabase();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        for (InventoryService service : services) {
+            service.cleanup();
+        }
+        for (JdbcConnectionPool database : databases) {
+            try (Connection connection = database.getConnection(); Statement s = connection.createStatement()) {
+                s.execute("DROP ALL OBJECTS");
+            } finally {
+                database.dispose();
+            }
+        }
+    }
+
+    /**
+     * @return an empty in-memory database of the current test, dropped after it
+     */
+    protected JdbcConnectionPool newDatabase() {
+        String url = "jdbc:h2:mem:basic-" + DATABASES.incrementAndGet() + ";DB_CLOSE_DELAY=-1";
+        JdbcConnectionPool database = JdbcConnectionPool.create(url, "sa", "sa");
+        databases.add(database);
+        return database;
+    }
 
-        Class.forName("org.h2.Driver");
-        conn = DriverManager.
-            getConnection("jdbc:h2:mem:test");
+    /**
+     * @return the service, which gets stopped after the current test
+     */
+    protected InventoryService started(InventoryService service) {
+        services.add(service);
+        return service;
+    }
+
+    /**
+     * @return a new service on the storage under test, all services of a test share the data
+     */
+    protected InventoryService newInventory() {
+        return started(new InventoryService(dataSource));
+    }
+
+    /**
+     * Checks that the storage has nothing left of the metrics of the tenant.
+     */
+    protected void assertNoMetricsLeft(String tenant) throws Exception {
+        try (Connection connection = dataSource.getConnection(); Statement s = connection.createStatement()) {
+            ResultSet rs = s.executeQuery("SELECT COUNT(*) FROM HWK_METRICS WHERE tenant = '" + tenant + "'");
+            rs.next();
+            assertEquals(0, rs.getInt(1));
+        }
     }
 
     @Test
     public void testAddGetOne() throws Exception {
 
-        InventoryService inventory = new InventoryService(conn);
+        InventoryService inventory = newInventory();
 
         Resource resource = new Resource();
         resource.setType(ResourceType.URL);
@@ -77,10 +155,30 @@ public class BasicTest {
 
     }
 
+    @Test
+    public void testIdsFollowTheStoredOnes() throws Exception {
+
+        // stored by a run whose clock was an hour ahead
+        long ahead = System.currentTimeMillis() + TimeUnit.HOURS.toMillis(1);
+        String issued = new TimeOrderedIdGenerator(1, () -> ahead).nextId();
+        Resource resource = new Resource();
+        resource.setType(ResourceType.URL);
+        resource.setId(issued);
+        resource.addParameter("url", "http://hawkular.org");
+        newInventory().addResource("ids", resource);
+
+        // a new service on the same data does not go back to ids of that hour
+        resource = new Resource();
+        resource.setType(ResourceType.URL);
+        resource.addParameter("url", "http://hawkular.org");
+        String id = newInventory().addResource("ids", resource);
+        assertTrue(id + " <= " + issued, id.compareTo(issued) > 0);
+    }
+
     @Test
     public void testAddGetBadTenant() throws Exception {
 
-        InventoryService inventory = new InventoryService(conn);
+        InventoryService inventory = newInventory();
 
         Resource resource = new Resource();
         resource.setType(ResourceType.URL);
@@ -95,7 +193,7 @@ public class BasicTest {
     @Test
     public void testAddMetricsToResource() throws Exception {
 
-        InventoryService inventory = new InventoryService(conn);
+        InventoryService inventory = newInventory();
 
         Resource resource = new Resource();
         resource.setType(ResourceType.URL);
@@ -131,4 +229,691 @@ public class BasicTest {
         assertEquals("vm.size", vmDef.getName());
         assertEquals(MetricUnit.BYTE, vmDef.getUnit());
     }
+
+    @Test
+    public void testSchemaIsMigrated() throws Exception {
+
+        started(new InventoryService(dataSource));
+
+        try (Connection connection = dataSource.getConnection()) {
+            assertEquals(DbManager.getLatestVersion(), DbManager.getSchemaVersion(connection));
+
+            // Running the setup again must not re-apply anything
+            DbManager.setupDB(connection);
+            assertEquals(DbManager.getLatestVersion(), DbManager.getSchemaVersion(connection));
+
+            List<String> key = new ArrayList<>();
+            try (Statement s = connection.createStatement(); ResultSet rs = s.executeQuery(
+                    "SELECT COLUMN_NAME FROM INFORMATION_SCHEMA.INDEXES WHERE TABLE_SCHEMA = 'PUBLIC' " +
+                            "AND TABLE_NAME = 'HWK_METRICS' AND PRIMARY_KEY = TRUE ORDER BY ORDINAL_POSITION")) {
+                while (rs.next()) {
+                    key.add(rs.getString(1));
+                }
+            }
+            assertEquals(Arrays.asList("TENANT", "RESOURCE_ID", "METRIC_NAME"), key);
+        }
+    }
+
+    @Test
+    public void testBrokenMigrationStopsStartup() throws Exception {
+
+        JdbcConnectionPool broken = newDatabase();
+        int lastGood = DbManager.getLatestVersion() - 1;
+        try (Connection connection = broken.getConnection(); Statement s = connection.createStatement()) {
+            // claims all but the last step, but has none of the tables the last step needs
+            DbManager.getSchemaVersion(connection);
+            s.execute("INSERT INTO HWK_SCHEMA_VERSION (version) VALUES (" + lastGood + ")");
+        }
+        try {
+            started(new InventoryService(broken));
+            fail("The service must not start on a schema whose migration failed");
+        } catch (IllegalStateException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("schema version " + DbManager.getLatestVersion()));
+        }
+        try (Connection connection = broken.getConnection()) {
+            assertEquals(lastGood, DbManager.getSchemaVersion(connection));
+        }
+    }
+
+    @Test
+    public void testPaging() throws Exception {
+
+        InventoryService inventory = newInventory();
+
+        String tenant = "paging";
+        for (int i = 4; i >= 0; i--) {
+            Resource resource = new Resource();
+            resource.setType(ResourceType.URL);
+            resource.setId("page-" + i);
+            inventory.addResource(tenant, resource);
+        }
+        for (int i = 4; i >= 0; i--) {
+            inventory.addMetricToResource(tenant, "page-0", "metric." + i);
+        }
+
+        Page<Resource> page = inventory.getResourcesForType(tenant, ResourceType.URL, 2, null);
+        assertEquals(2, page.getItems().size());
+        assertEquals("page-0", page.getItems().get(0).getId());
+        assertEquals("page-1", page.getItems().get(1).getId());
+        assertTrue(page.hasMore());
+
+        page = inventory.getResourcesForType(tenant, ResourceType.URL, 2, page.getContinuation());
+        assertEquals("page-2", page.getItems().get(0).getId());
+        assertEquals("page-3", page.getItems().get(1).getId());
+
+        page = inventory.getResourcesForType(tenant, ResourceType.URL, 2, page.getContinuation());
+        assertEquals(1, page.getItems().size());
+        assertEquals("page-4", page.getItems().get(0).getId());
+        assertFalse(page.hasMore());
+        assertNull(page.getContinuation());
+
+        Page<MetricDefinition> metrics = inventory.listMetricsForResource(tenant, "page-0", 3, null);
+        assertEquals(3, metrics.getItems().size());
+        assertEquals("metric.0", metrics.getItems().get(0).getName());
+        metrics = inventory.listMetricsForResource(tenant, "page-0", 3, metrics.getContinuation());
+        assertEquals(2, metrics.getItems().size());
+        assertEquals("metric.4", metrics.getItems().get(1).getName());
+        assertFalse(metrics.hasMore());
+    }
+
+    @Test
+    public void testStreaming() throws Exception {
+
+        InventoryService inventory = newInventory();
+
+        String tenant = "streaming";
+        StringWriter empty = new StringWriter();
+        inventory.writeResourcesForType(tenant, ResourceType.URL, empty);
+        assertEquals("[]", empty.toString());
+
+        for (int i = 0; i < 3; i++) {
+            Resource resource = new Resource();
+            resource.setType(ResourceType.URL);
+            resource.setId("stream-" + i);
+            resource.addParameter("url", "http://hawkular.org/" + i);
+            inventory.addResource(tenant, resource);
+        }
+        inventory.addMetricToResource(tenant, "stream-0", "cpu.load1");
+        inventory.addMetricToResource(tenant, "stream-0", "cpu.load5");
+
+        StringWriter out = new StringWriter();
+        inventory.writeResourcesForType(tenant, ResourceType.URL, out);
+        Resource[] resources = new Gson().fromJson(out.toString(), Resource[].class);
+        assertEquals(3, resources.length);
+        assertEquals(inventory.getResource(tenant, resources[0].getId()), resources[0]);
+        assertEquals("http://hawkular.org/", resources[0].getParameters().get("url").substring(0, 20));
+
+        out = new StringWriter();
+        inventory.writeMetricsForResource(tenant, "stream-0", out);
+        MetricDefinition[] metrics = new Gson().fromJson(out.toString(), MetricDefinition[].class);
+        assertEquals(2, metrics.length);
+    }
+
+    @Test
+    public void testCachedReadsSeeWrites() throws Exception {
+
+        InventoryService inventory = newInventory();
+
+        String tenant = "caching";
+        Resource resource = new Resource();
+        resource.setType(ResourceType.URL);
+        resource.setId("cached");
+        inventory.addResource(tenant, resource);
+        inventory.addMetricToResource(tenant, "cached", "cpu.load1");
+
+        assertNotNull(inventory.getResource(tenant, "cached"));
+        assertNotNull(inventory.getResource(tenant, "cached"));
+        assertEquals(1, inventory.getResourceCache().getHits());
+
+        assertEquals(MetricUnit.NONE, inventory.getMetric(tenant, "cached", "cpu.load1").getUnit());
+        inventory.updateMetric(tenant, "cached", new MetricDefinition("cpu.load1", MetricUnit.SECONDS));
+        assertEquals(MetricUnit.SECONDS, inventory.getMetric(tenant, "cached", "cpu.load1").getUnit());
+
+        inventory.deleteResource(tenant, "cached");
+        assertNull(inventory.getResource(tenant, "cached"));
+        try {
+            inventory.getMetric(tenant, "cached", "cpu.load1");
+            fail("The cached metric must be gone with the resource");
+        } catch (ResourceNotFoundException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testMetricsOfMissingResource() throws Exception {
+
+        InventoryService inventory = newInventory();
+
+        String tenant = "missing";
+        Resource resource = new Resource();
+        resource.setType(ResourceType.URL);
+        resource.setId("exists");
+        inventory.addResource(tenant, resource);
+
+        assertTrue(inventory.resourceExists(tenant, "exists"));
+        assertFalse(inventory.resourceExists(tenant, "absent"));
+        assertFalse(inventory.resourceExists("other", "exists"));
+
+        // an existing resource without metrics is not an error
+        assertTrue(inventory.listMetricsForResource(tenant, "exists").isEmpty());
+        assertTrue(inventory.listMetricsForResource(tenant, "exists", 10, null).getItems().isEmpty());
+        assertNull(inventory.getMetric(tenant, "exists", "cpu.load1"));
+
+        try {
+            inventory.addMetricToResource(tenant, "absent", "cpu.load1");
+            fail("Metric added to a missing resource");
+        } catch (ResourceNotFoundException e) {
+            assertEquals("absent", e.getResourceId());
+        }
+        try {
+            inventory.updateMetric(tenant, "absent", new MetricDefinition("cpu.load1"));
+            fail("Metric updated on a missing resource");
+        } catch (ResourceNotFoundException e) {
+            // expected
+        }
+        try {
+            inventory.listMetricsForResource("other", "exists");
+            fail("Metrics listed for the resource of another tenant");
+        } catch (ResourceNotFoundException e) {
+            // expected
+        }
+        try {
+            inventory.getMetric(tenant, "absent", "cpu.load1");
+            fail("Metric found on a missing resource");
+        } catch (ResourceNotFoundException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testAddResources() throws Exception {
+
+        InventoryService inventory = newInventory();
+
+        String tenant = "bulk";
+        Resource existing = new Resource();
+        existing.setType(ResourceType.URL);
+        existing.setId("bulk-taken");
+        inventory.addResource(tenant, existing);
+
+        List<Resource> resources = new ArrayList<>();
+        for (int i = 0; i < 1200; i++) {
+            Resource resource = new Resource();
+            resource.setType(ResourceType.URL);
+            resource.addParameter("url", "http://hawkular.org/" + i);
+            resources.add(resource);
+        }
+        Resource taken = new Resource();
+        taken.setType(ResourceType.URL);
+        taken.setId("bulk-taken");
+        resources.add(600, taken);
+        Resource untyped = new Resource();
+        untyped.setId("bulk-untyped");
+        resources.add(untyped);
+
+        List<ItemResult> results = inventory.addResources(tenant, resources);
+
+        assertEquals(resources.size(), results.size());
+        assertEquals(ItemResult.Status.FAILED, results.get(600).getStatus());
+        assertEquals("bulk-taken", results.get(600).getId());
+        assertNotNull(results.get(600).getError());
+        assertEquals(ItemResult.Status.FAILED, results.get(results.size() - 1).getStatus());
+        assertEquals(ItemResult.Status.CREATED, results.get(0).getStatus());
+        assertEquals(ItemResult.Status.CREATED, results.get(601).getStatus());
+
+        // generated ids are unique and everything but the two failures got stored
+        assertEquals(1201, inventory.getResourcesForType(tenant, ResourceType.URL).size());
+        assertNotNull(inventory.getResource(tenant, results.get(1100).getId()));
+    }
+
+    @Test
+    public void testSessionClosesItsStatements() throws Exception {
+
+        long open = DbSession.getOpenStatementCount();
+        List<PreparedStatement> statements = new ArrayList<>();
+        try (DbSession session = new DbSession(dataSource)) {
+            PreparedStatement first = session.prepare("SELECT 0");
+            assertTrue(first == session.prepare("SELECT 0"));
+            statements.add(first);
+
+            // going over the limit closes the least recently used statement
+            for (int i = 1; i <= 20; i++) {
+                statements.add(session.prepare("SELECT " + i));
+            }
+            assertTrue(first.isClosed());
+            assertEquals(open + 16, DbSession.getOpenStatementCount());
+        }
+
+        assertEquals(open, DbSession.getOpenStatementCount());
+        for (PreparedStatement statement : statements) {
+            assertTrue(statement.isClosed());
+        }
+    }
+
+    @Test
+    public void testBinaryPayloads() throws Exception {
+
+        String tenant = "binary";
+        InventoryService jsonInventory = started(new InventoryService(dataSource));
+        Resource resource = new Resource();
+        resource.setType(ResourceType.URL);
+        resource.setId("json-1");
+        resource.addParameter("url", "http://hawkular.org");
+        jsonInventory.addResource(tenant, resource);
+        jsonInventory.addMetricToResource(tenant, "json-1", "cpu.load1");
+
+        InventoryService inventory;
+        System.setProperty(InventoryService.PAYLOAD_CODEC_PROPERTY, PayloadCodecs.BINARY);
+        try {
+            inventory = started(new InventoryService(dataSource));
+        } finally {
+            System.clearProperty(InventoryService.PAYLOAD_CODEC_PROPERTY);
+        }
+        resource.setId("binary-1");
+        inventory.addResource(tenant, resource);
+        inventory.addMetricToResource(tenant, "binary-1", "cpu.load5");
+
+        // both formats are readable side by side
+        assertEquals(2, inventory.getResourcesForType(tenant, ResourceType.URL).size());
+        assertEquals("http://hawkular.org", jsonInventory.getResource(tenant, "binary-1").getParameters().get("url"));
+        assertEquals("cpu.load1", inventory.getMetric(tenant, "json-1", "cpu.load1").getName());
+        StringWriter out = new StringWriter();
+        jsonInventory.writeMetricsForResource(tenant, "binary-1", out);
+        assertEquals("cpu.load5", new Gson().fromJson(out.toString(), MetricDefinition[].class)[0].getName());
+
+        // converts exactly the resource and metric written as JSON
+        assertEquals(2, inventory.convertPayloads());
+        assertEquals(0, inventory.convertPayloads());
+        assertTrue(inventory.getResourcesForType(tenant, ResourceType.URL).contains(resource));
+        assertEquals(4, jsonInventory.convertPayloads());
+        assertEquals(1, jsonInventory.listMetricsForResource(tenant, "json-1").size());
+    }
+
+    @Test
+    public void testFindResourcesByParameter() throws Exception {
+
+        InventoryService inventory = newInventory();
+
+        String tenant = "params";
+        List<Resource> resources = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            Resource resource = new Resource();
+            resource.setType(ResourceType.URL);
+            resource.setId("param-" + i);
+            resource.addParameter("url", "http://hawkular.org/" + i);
+            resource.addParameter("group", i % 2 == 0 ? "even" : "odd");
+            resources.add(resource);
+        }
+        inventory.addResource(tenant, resources.get(0));
+        inventory.addResources(tenant, resources.subList(1, 3));
+        // the id is taken, so its parameters must not show up either
+        Resource taken = new Resource();
+        taken.setType(ResourceType.URL);
+        taken.setId("param-0");
+        taken.addParameter("url", "http://example.com");
+        inventory.addResources("other", Arrays.asList(taken));
+
+        List<Resource> found = inventory.findResourcesByParameter(tenant, "url", "http://hawkular.org/1");
+        assertEquals(1, found.size());
+        assertEquals(resources.get(1), found.get(0));
+        assertEquals(2, inventory.findResourcesByParameter(tenant, "group", "even").size());
+        assertTrue(inventory.findResourcesByParameter("other", "url", "http://example.com").isEmpty());
+        assertTrue(inventory.findResourcesByParameter("other", "group", "even").isEmpty());
+
+        inventory.deleteResource(tenant, "param-2");
+        assertEquals(1, inventory.findResourcesByParameter(tenant, "group", "even").size());
+    }
+
+    @Test
+    public void testParametersOfOldResourcesAreIndexed() throws Exception {
+
+        JdbcConnectionPool old = newDatabase();
+        started(new InventoryService(old));
+        // a resource stored before the parameter table existed
+        try (Connection connection = old.getConnection(); Statement s = connection.createStatement()) {
+            s.execute("INSERT INTO HWK_RESOURCES (id, tenant, type, payload) VALUES ('old-1', 'old', 'URL', " +
+                    "'{\"type\":\"URL\",\"id\":\"old-1\",\"parameters\":{\"url\":\"http://old\"}}')");
+            s.execute("DELETE FROM HWK_SCHEMA_VERSION WHERE version >= " + DbManager.RESOURCE_PARAMS_VERSION);
+        }
+
+        InventoryService inventory = started(new InventoryService(old));
+        List<Resource> found = inventory.findResourcesByParameter("old", "url", "http://old");
+        assertEquals(1, found.size());
+        assertEquals("old-1", found.get(0).getId());
+    }
+
+    @Test
+    public void testDeleteCascades() throws Exception {
+
+        InventoryService inventory = newInventory();
+
+        String tenant = "delete";
+        List<Resource> resources = new ArrayList<>();
+        List<String> ids = new ArrayList<>();
+        for (int i = 0; i < 1200; i++) {
+            Resource resource = new Resource();
+            resource.setType(ResourceType.URL);
+            resource.setId("delete-" + i);
+            resource.addParameter("url", "http://hawkular.org/" + i);
+            resources.add(resource);
+            ids.add(resource.getId());
+        }
+        inventory.addResources(tenant, resources);
+        inventory.addMetricToResource(tenant, "delete-0", "cpu.load1");
+        inventory.addMetricToResource(tenant, "delete-1", "cpu.load1");
+        assertNotNull(inventory.getMetric(tenant, "delete-1", "cpu.load1"));
+
+        assertTrue(inventory.deleteResource(tenant, "delete-0"));
+        assertFalse(inventory.deleteResource(tenant, "delete-0"));
+
+        // ids of other tenants and unknown ids are skipped
+        ids.add("unknown");
+        assertEquals(0, inventory.deleteResources("other", ids));
+        assertEquals(1199, inventory.deleteResources(tenant, ids));
+
+        assertTrue(inventory.getResourcesForType(tenant, ResourceType.URL).isEmpty());
+        assertTrue(inventory.findResourcesByParameter(tenant, "url", "http://hawkular.org/1").isEmpty());
+        try {
+            inventory.getMetric(tenant, "delete-1", "cpu.load1");
+            fail("The metrics must be gone with the resource");
+        } catch (ResourceNotFoundException expected) {
+        }
+        assertNoMetricsLeft(tenant);
+    }
+
+    @Test
+    public void testResourcesWithMetrics() throws Exception {
+
+        InventoryService inventory = newInventory();
+
+        String tenant = "withMetrics";
+        StringWriter empty = new StringWriter();
+        inventory.writeResourcesWithMetrics(tenant, null, empty);
+        assertEquals("[]", empty.toString());
+
+        for (int i = 0; i < 3; i++) {
+            Resource resource = new Resource();
+            resource.setType(ResourceType.URL);
+            resource.setId("with-" + i);
+            inventory.addResource(tenant, resource);
+        }
+        inventory.addMetricToResource(tenant, "with-0", "cpu.load5");
+        inventory.addMetricToResource(tenant, "with-0", "cpu.load1");
+        inventory.addMetricToResource(tenant, "with-2", "cpu.load1");
+
+        StringWriter out = new StringWriter();
+        inventory.writeResourcesWithMetrics(tenant, ResourceType.URL, out);
+        JsonArray result = new JsonParser().parse(out.toString()).getAsJsonArray();
+        assertEquals(3, result.size());
+
+        JsonObject first = result.get(0).getAsJsonObject();
+        assertEquals("with-0", first.getAsJsonObject("resource").get("id").getAsString());
+        assertEquals(2, first.getAsJsonArray("metrics").size());
+        assertEquals("cpu.load1",
+                first.getAsJsonArray("metrics").get(0).getAsJsonObject().get("name").getAsString());
+        assertEquals(0, result.get(1).getAsJsonObject().getAsJsonArray("metrics").size());
+        assertEquals(1, result.get(2).getAsJsonObject().getAsJsonArray("metrics").size());
+
+        out = new StringWriter();
+        inventory.writeResourcesWithMetrics(tenant, null, out);
+        assertEquals(3, new JsonParser().parse(out.toString()).getAsJsonArray().size());
+    }
+
+    @Test
+    public void testWriteBehindMetrics() throws Exception {
+
+        InventoryService inventory;
+        System.setProperty(InventoryService.WRITE_BEHIND_SIZE_PROPERTY, "100");
+        System.setProperty(InventoryService.WRITE_BEHIND_INTERVAL_PROPERTY, "3600000");
+        try {
+            inventory = newInventory();
+        } finally {
+            System.clearProperty(InventoryService.WRITE_BEHIND_SIZE_PROPERTY);
+            System.clearProperty(InventoryService.WRITE_BEHIND_INTERVAL_PROPERTY);
+        }
+
+        String tenant = "writebehind";
+        Resource resource = new Resource();
+        resource.setType(ResourceType.URL);
+        resource.setId("wb-1");
+        resource.addParameter("url", "http://hawkular.org");
+        inventory.addResource(tenant, resource);
+
+        MetricDefinition metric = new MetricDefinition("cpu.load1", MetricUnit.NONE);
+        inventory.addMetricsToResource(tenant, "wb-1", Arrays.asList(metric));
+        metric = new MetricDefinition("cpu.load1", MetricUnit.NONE);
+        metric.setDescription("Load");
+        inventory.updateMetric(tenant, "wb-1", metric);
+
+        // coalesced and not written yet, but visible to single reads
+        assertEquals(1, inventory.getMetricBuffer().size());
+        assertEquals("Load", inventory.getMetric(tenant, "wb-1", "cpu.load1").getDescription());
+        assertTrue(inventory.listMetricsForResource(tenant, "wb-1").isEmpty());
+
+        assertEquals(1, inventory.flushMetrics());
+        assertEquals(1, inventory.listMetricsForResource(tenant, "wb-1").size());
+
+        // sending the same definition again is skipped, a changed one is buffered
+        inventory.updateMetric(tenant, "wb-1", metric);
+        assertEquals(0, inventory.getMetricBuffer().size());
+        inventory.addMetricToResource(tenant, "wb-1", "cpu.load5");
+        assertEquals(1, inventory.getMetricBuffer().size());
+
+        try {
+            inventory.addMetricToResource(tenant, "not-there", "cpu.load1");
+            fail("The resource does not exist");
+        } catch (ResourceNotFoundException e) {
+            // expected
+        }
+
+        // shutting down writes what is still pending
+        inventory.cleanup();
+        assertEquals(2, inventory.listMetricsForResource(tenant, "wb-1").size());
+    }
+
+    @Test
+    public void testUpsertMetrics() throws Exception {
+
+        InventoryService inventory = newInventory();
+
+        String tenant = "upsert";
+        Resource resource = new Resource();
+        resource.setType(ResourceType.URL);
+        resource.setId("up-1");
+        resource.addParameter("url", "http://hawkular.org");
+        inventory.addResource(tenant, resource);
+        inventory.addMetricToResource(tenant, "up-1", "cpu.load1");
+        inventory.addMetricToResource(tenant, "up-1", "cpu.load5");
+
+        MetricDefinition changed = new MetricDefinition("cpu.load5", MetricUnit.NONE);
+        changed.setDescription("Five minutes");
+        List<ItemResult> results = inventory.upsertMetrics(tenant, "up-1", Arrays.asList(
+                new MetricDefinition("cpu.load1"), changed, new MetricDefinition("cpu.load15"),
+                new MetricDefinition("cpu.load15", MetricUnit.BYTE)));
+
+        assertEquals(4, results.size());
+        assertEquals(ItemResult.Status.UNCHANGED, results.get(0).getStatus());
+        assertEquals(ItemResult.Status.UPDATED, results.get(1).getStatus());
+        assertEquals(ItemResult.Status.CREATED, results.get(2).getStatus());
+        assertEquals(ItemResult.Status.FAILED, results.get(3).getStatus());
+        assertEquals("cpu.load15", results.get(3).getId());
+
+        assertEquals(3, inventory.listMetricsForResource(tenant, "up-1").size());
+        assertEquals("Five minutes", inventory.getMetric(tenant, "up-1", "cpu.load5").getDescription());
+        assertEquals(MetricUnit.NONE, inventory.getMetric(tenant, "up-1", "cpu.load15").getUnit());
+
+        // adding metrics that exist already no longer fails
+        assertTrue(inventory.addMetricsToResource(tenant, "up-1", Arrays.asList(changed,
+                new MetricDefinition("cpu.load30"))));
+        assertEquals(4, inventory.listMetricsForResource(tenant, "up-1").size());
+
+        try {
+            inventory.upsertMetrics(tenant, "not-there", Arrays.asList(changed));
+            fail("The resource does not exist");
+        } catch (ResourceNotFoundException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testChangeFeed() throws Exception {
+
+        InventoryService inventory = newInventory();
+
+        String tenant = "changes";
+        long start = inventory.getChangeFeed().getSequence();
+        Resource resource = new Resource();
+        resource.setType(ResourceType.URL);
+        resource.setId("ch-1");
+        resource.addParameter("url", "http://hawkular.org");
+        inventory.addResource(tenant, resource);
+        inventory.addMetricToResource(tenant, "ch-1", "cpu.load1");
+        inventory.addMetricToResource(tenant, "ch-1", "cpu.load1"); // unchanged, no event
+        inventory.deleteResources(tenant, Arrays.asList("ch-1", "not-there"));
+
+        Changes changes = inventory.getChanges(tenant, start, 100);
+        assertEquals(3, changes.getEvents().size());
+        assertEquals(ChangeEvent.Type.RESOURCE_ADDED, changes.getEvents().get(0).getType());
+        assertEquals(ChangeEvent.Type.METRIC_ADDED, changes.getEvents().get(1).getType());
+        assertEquals("cpu.load1", changes.getEvents().get(1).getMetricName());
+        assertEquals(ChangeEvent.Type.RESOURCE_DELETED, changes.getEvents().get(2).getType());
+        assertTrue(inventory.getChanges("other", start, 100).getEvents().isEmpty());
+    }
+
+    @Test
+    public void testPurgeTenant() throws Exception {
+
+        InventoryService inventory = newInventory();
+
+        String tenant = "purge";
+        for (int i = 0; i < 3; i++) {
+            Resource resource = new Resource();
+            resource.setType(ResourceType.URL);
+            resource.setId("purge-" + i);
+            resource.addParameter("url", "http://hawkular.org/" + i);
+            inventory.addResource(tenant, resource);
+            inventory.addMetricToResource(tenant, "purge-" + i, "cpu.load1");
+        }
+        Resource kept = new Resource();
+        kept.setType(ResourceType.URL);
+        kept.setId("purge-kept");
+        kept.addParameter("url", "http://hawkular.org/0");
+        inventory.addResource("purge-other", kept);
+        inventory.addMetricToResource("purge-other", "purge-kept", "cpu.load1");
+        assertNotNull(inventory.getResource(tenant, "purge-0")); // cached
+        long start = inventory.getChangeFeed().getSequence();
+
+        assertEquals(3, inventory.purgeTenant(tenant));
+
+        assertNull(inventory.getResource(tenant, "purge-0"));
+        assertTrue(inventory.getResourcesForType(tenant, ResourceType.URL).isEmpty());
+        assertTrue(inventory.findResourcesByParameter(tenant, "url", "http://hawkular.org/0").isEmpty());
+        try {
+            inventory.getMetric(tenant, "purge-1", "cpu.load1");
+            fail("The resource has been purged");
+        } catch (ResourceNotFoundException e) {
+            // expected
+        }
+        assertNoMetricsLeft(tenant);
+        assertEquals(1, inventory.findResourcesByParameter("purge-other", "url", "http://hawkular.org/0").size());
+        assertEquals(1, inventory.listMetricsForResource("purge-other", "purge-kept").size());
+
+        Changes changes = inventory.getChanges(tenant, start, 100);
+        assertEquals(1, changes.getEvents().size());
+        assertEquals(ChangeEvent.Type.TENANT_PURGED, changes.getEvents().get(0).getType());
+
+        assertEquals(0, inventory.purgeTenant(tenant));
+        // the ids are free again
+        kept.setId("purge-0");
+        inventory.addResource(tenant, kept);
+        assertEquals(1, inventory.getResourcesForType(tenant, ResourceType.URL).size());
+    }
+
+    @Test
+    public void testExportTenant() throws Exception {
+
+        InventoryService inventory = newInventory();
+
+        String tenant = "export";
+        StringWriter out = new StringWriter();
+        inventory.exportTenant(tenant, out);
+        assertEquals("", out.toString());
+
+        for (int i = 0; i < 2; i++) {
+            Resource resource = new Resource();
+            resource.setType(ResourceType.URL);
+            resource.setId("export-" + i);
+            resource.addParameter("url", "http://hawkular.org/" + i);
+            inventory.addResource(tenant, resource);
+        }
+        inventory.addMetricsToResource(tenant, "export-0", Arrays.asList(new MetricDefinition("cpu.load1",
+                MetricUnit.NONE), new MetricDefinition("cpu.load5", MetricUnit.NONE)));
+
+        out = new StringWriter();
+        inventory.exportTenant(tenant, out);
+        assertTrue(out.toString().endsWith("\n"));
+        String[] lines = out.toString().split("\n");
+        assertEquals(2, lines.length);
+        int metrics = 0;
+        for (String line : lines) {
+            JsonObject exported = new JsonParser().parse(line).getAsJsonObject();
+            Resource resource = new Gson().fromJson(exported.get("resource"), Resource.class);
+            assertEquals(inventory.getResource(tenant, resource.getId()), resource);
+            metrics += exported.getAsJsonArray("metrics").size();
+        }
+        assertEquals(2, metrics);
+    }
+
+    @Test
+    public void testImportTenant() throws Exception {
+
+        InventoryService inventory = newInventory();
+
+        String tenant = "import";
+        StringBuilder lines = new StringBuilder();
+        for (int i = 0; i < 600; i++) { // more than a chunk
+            lines.append("{\"resource\":{\"type\":\"URL\",\"id\":\"imp-").append(i)
+                    .append("\",\"parameters\":{\"url\":\"http://hawkular.org\"}},")
+                    .append("\"metrics\":[{\"name\":\"cpu.load1\",\"unit\":\"NONE\"}]}\n");
+        }
+        long start = inventory.getChangeFeed().getSequence();
+        ImportResult result = inventory.importTenant(tenant, new StringReader(lines.toString()));
+        assertEquals(600, result.getResources());
+        assertEquals(600, result.getMetrics());
+        assertEquals(0, result.getFailed());
+        int added = 0;
+        for (ChangeEvent event : inventory.getChanges(tenant, start, 10000).getEvents()) {
+            assertTrue(event.getType().toString(), event.getType() != ChangeEvent.Type.METRIC_UPDATED);
+            if (event.getType() == ChangeEvent.Type.METRIC_ADDED) {
+                added++;
+            }
+        }
+        assertEquals(600, added);
+        assertEquals(600, inventory.getResourcesForType(tenant, ResourceType.URL).size());
+        assertEquals(MetricUnit.NONE, inventory.getMetric(tenant, "imp-599", "cpu.load1").getUnit());
+
+        // the ids are taken now, only the first failures are listed
+        result = inventory.importTenant(tenant, new StringReader(lines.toString()));
+        assertEquals(0, result.getResources());
+        assertEquals(600, result.getFailed());
+        assertEquals(ImportResult.MAX_FAILURES, result.getFailures().size());
+
+        // what is exported can be imported again
+        StringWriter out = new StringWriter();
+        inventory.exportTenant(tenant, out);
+        inventory.purgeTenant(tenant);
+        result = inventory.importTenant(tenant, new StringReader(out.toString()));
+        assertEquals(600, result.getResources());
+        assertEquals(600, result.getMetrics());
+        assertEquals(1, inventory.listMetricsForResource(tenant, "imp-0").size());
+
+        try {
+            inventory.importTenant(tenant, new StringReader(
+                    "{\"resource\":{\"type\":\"URL\",\"id\":\"imp-bad\"},\"metrics\":[]}\n{not json}\n"));
+            fail("The second line is not valid");
+        } catch (IllegalArgumentException e) {
+            // expected, the chunk with the first line was not written yet
+        }
+        assertNull(inventory.getResource(tenant, "imp-bad"));
+    }
 }
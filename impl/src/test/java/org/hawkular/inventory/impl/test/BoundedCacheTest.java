@@ -0,0 +1,151 @@
+/*
+ * Copyright 2015 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.inventory.impl.test;
+
+import org.hawkular.inventory.impl.cache.BoundedCache;
+import org.hawkular.inventory.impl.cache.CacheKey;
+import org.junit.Test;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for the cache in front of resources and metrics
+ *
+ * @author agent
+ */
+public class BoundedCacheTest {
+
+    @Test
+    public void testHitsAndMisses() throws Exception {
+
+        BoundedCache<CacheKey, String> cache = new BoundedCache<>(100, 1, TimeUnit.MINUTES);
+        CacheKey key = CacheKey.resource("t1", "r1");
+
+        assertNull(cache.get(key));
+        cache.put(key, "value", cache.stamp(key));
+        assertEquals("value", cache.get(key));
+
+        // same id for another tenant is another entry
+        assertNull(cache.get(CacheKey.resource("t2", "r1")));
+
+        assertEquals(1, cache.getHits());
+        assertEquals(2, cache.getMisses());
+    }
+
+    @Test
+    public void testSizeIsBounded() throws Exception {
+
+        BoundedCache<CacheKey, String> cache = new BoundedCache<>(160, 1, TimeUnit.MINUTES);
+        for (int i = 0; i < 10000; i++) {
+            CacheKey key = CacheKey.resource("t", "r" + i);
+            cache.put(key, "v" + i, cache.stamp(key));
+        }
+
+        assertTrue("Cache holds " + cache.size() + " entries", cache.size() <= 160);
+        assertTrue(cache.getEvictions() >= 10000 - 160);
+    }
+
+    @Test
+    public void testEntriesExpire() throws Exception {
+
+        BoundedCache<CacheKey, String> cache = new BoundedCache<>(100, 10, TimeUnit.MILLISECONDS);
+        CacheKey key = CacheKey.resource("t", "r");
+        cache.put(key, "value", cache.stamp(key));
+
+        Thread.sleep(20);
+
+        assertNull(cache.get(key));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testInvalidationWhileLoadingDropsValue() throws Exception {
+
+        BoundedCache<CacheKey, String> cache = new BoundedCache<>(100, 1, TimeUnit.MINUTES);
+        CacheKey key = CacheKey.metric("t", "r", "m");
+
+        long stamp = cache.stamp(key);
+        // a writer changes the entry while the reader still loads the old value
+        cache.invalidate(key);
+        cache.put(key, "stale", stamp);
+
+        assertNull(cache.get(key));
+    }
+
+    @Test
+    public void testInvalidateResourceDropsItsMetrics() throws Exception {
+
+        BoundedCache<CacheKey, String> cache = new BoundedCache<>(100, 1, TimeUnit.MINUTES);
+        for (String name : new String[]{"m1", "m2"}) {
+            CacheKey key = CacheKey.metric("t", "r", name);
+            cache.put(key, name, cache.stamp(key));
+        }
+        CacheKey other = CacheKey.metric("t", "other", "m1");
+        cache.put(other, "m1", cache.stamp(other));
+
+        cache.invalidateIf(new BoundedCache.Matcher<CacheKey>() {
+            @Override
+            public boolean matches(CacheKey key) {
+                return key.belongsTo("t", "r");
+            }
+        });
+
+        assertEquals(1, cache.size());
+        assertEquals("m1", cache.get(other));
+    }
+
+    @Test
+    public void testDisabled() throws Exception {
+
+        BoundedCache<CacheKey, String> cache = new BoundedCache<>(0, 1, TimeUnit.MINUTES);
+        CacheKey key = CacheKey.resource("t", "r");
+        cache.put(key, "value", cache.stamp(key));
+
+        assertNull(cache.get(key));
+    }
+
+    @Test
+    public void testCountersOverJmx() throws Exception {
+
+        BoundedCache<CacheKey, String> cache = new BoundedCache<>(100, 1, TimeUnit.MINUTES);
+        CacheKey key = CacheKey.resource("t", "r");
+        cache.get(key);
+        cache.put(key, "v", cache.stamp(key));
+        cache.get(key);
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName("org.hawkular.inventory:type=Cache,name=test");
+        cache.register("test");
+        try {
+            assertEquals(1, server.getAttribute(name, "Size"));
+            assertEquals(1L, server.getAttribute(name, "Hits"));
+            assertEquals(1L, server.getAttribute(name, "Misses"));
+            assertEquals(0L, server.getAttribute(name, "Evictions"));
+        } finally {
+            cache.unregister("test");
+        }
+        assertFalse(server.isRegistered(name));
+    }
+}
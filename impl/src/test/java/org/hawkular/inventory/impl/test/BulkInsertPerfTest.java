@@ -0,0 +1,98 @@
+/*
+ * Copyright 2015 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.inventory.impl.test;
+
+import org.hawkular.inventory.api.Resource;
+import org.hawkular.inventory.api.ResourceType;
+import org.hawkular.inventory.impl.InventoryService;
+import org.h2.jdbcx.JdbcConnectionPool;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Compares adding resources one by one with adding them in bulk.
+ *
+ * Only run with the perf profile: mvn test -Pperf
+ *
+ * @author agent
+ */
+public class BulkInsertPerfTest {
+
+    private static final int COUNT = 20000;
+    private static final int REQUEST_SIZE = 1000;
+
+    JdbcConnectionPool dataSource;
+    InventoryService inventory;
+
+    @Before
+    public void setup() throws Exception {
+        dataSource = JdbcConnectionPool.create("jdbc:h2:mem:bulk;DB_CLOSE_DELAY=-1", "sa", "sa");
+        inventory = new InventoryService(dataSource);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        dataSource.dispose();
+    }
+
+    @Test
+    public void testBulkAgainstSingleInserts() throws Exception {
+
+        // warm up both paths
+        for (Resource resource : resources("warmup-single", REQUEST_SIZE)) {
+            inventory.addResource("warmup", resource);
+        }
+        inventory.addResources("warmup", resources("warmup-bulk", REQUEST_SIZE));
+
+        long start = System.nanoTime();
+        for (Resource resource : resources("single", COUNT)) {
+            inventory.addResource("single", resource);
+        }
+        long single = System.nanoTime() - start;
+
+        List<Resource> all = resources("bulk", COUNT);
+        start = System.nanoTime();
+        for (int i = 0; i < COUNT; i += REQUEST_SIZE) {
+            inventory.addResources("bulk", all.subList(i, i + REQUEST_SIZE));
+        }
+        long bulk = System.nanoTime() - start;
+
+        System.out.printf("single: %8.0f resources/s%n", COUNT * 1e9 / single);
+        System.out.printf("bulk:   %8.0f resources/s (%d per request)%n", COUNT * 1e9 / bulk, REQUEST_SIZE);
+
+        assertEquals(COUNT, inventory.getResourcesForType("single", ResourceType.URL).size());
+        assertEquals(COUNT, inventory.getResourcesForType("bulk", ResourceType.URL).size());
+    }
+
+    private static List<Resource> resources(String prefix, int count) {
+        List<Resource> resources = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            Resource resource = new Resource();
+            resource.setId(prefix + "-" + i);
+            resource.setType(ResourceType.URL);
+            resource.addParameter("url", "http://hawkular.org/" + i);
+            resources.add(resource);
+        }
+        return resources;
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright 2015 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.inventory.impl.test;
+
+import org.hawkular.inventory.api.ChangeEvent;
+import org.hawkular.inventory.api.Changes;
+import org.hawkular.inventory.impl.feed.ChangeFeed;
+import org.junit.Test;
+
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for the change feed
+ *
+ * @author agent
+ */
+public class ChangeFeedTest {
+
+    @Test
+    public void testReadInOrderPerTenant() throws Exception {
+
+        ChangeFeed feed = new ChangeFeed(16);
+        feed.publish(ChangeEvent.Type.RESOURCE_ADDED, "t1", "r1", null);
+        feed.publish(ChangeEvent.Type.RESOURCE_ADDED, "t2", "r1", null);
+        feed.publish(ChangeEvent.Type.METRIC_ADDED, "t1", "r1", "cpu.load1");
+
+        Changes changes = feed.read("t1", 0, 10);
+        assertEquals(2, changes.getEvents().size());
+        assertEquals(1, changes.getEvents().get(0).getSequence());
+        assertEquals("cpu.load1", changes.getEvents().get(1).getMetricName());
+        assertEquals(3, changes.getSequence());
+        assertFalse(changes.isMissed());
+
+        changes = feed.read("t1", 0, 1);
+        assertEquals(1, changes.getEvents().size());
+        assertEquals(1, changes.getSequence());
+
+        // the other tenant's event is skipped, but the position moves on
+        changes = feed.read("t1", 1, 10);
+        assertEquals(1, changes.getEvents().size());
+        assertEquals(3, changes.getSequence());
+        assertTrue(feed.read("t1", 3, 10).getEvents().isEmpty());
+        feed.close();
+    }
+
+    @Test
+    public void testOverwrittenEventsAreReported() throws Exception {
+
+        ChangeFeed feed = new ChangeFeed(10);
+        assertEquals(16, feed.getCapacity());
+        for (int i = 0; i < 40; i++) {
+            feed.publish(ChangeEvent.Type.RESOURCE_ADDED, "t", "r" + i, null);
+        }
+
+        Changes changes = feed.read("t", 5, 100);
+        assertTrue(changes.isMissed());
+        assertEquals(16, changes.getEvents().size());
+        assertEquals(25, changes.getEvents().get(0).getSequence());
+
+        changes = feed.read("t", 30, 100);
+        assertFalse(changes.isMissed());
+        assertEquals(10, changes.getEvents().size());
+        feed.close();
+    }
+
+    @Test
+    public void testAwait() throws Exception {
+
+        ChangeFeed feed = new ChangeFeed(16);
+        CompletionStage<Changes> waiting = feed.await("t1", 0, 10, 1, TimeUnit.MINUTES);
+        feed.publish(ChangeEvent.Type.RESOURCE_ADDED, "t2", "r1", null);
+        assertFalse(waiting.toCompletableFuture().isDone());
+
+        feed.publish(ChangeEvent.Type.RESOURCE_ADDED, "t1", "r1", null);
+        Changes changes = waiting.toCompletableFuture().get(10, TimeUnit.SECONDS);
+        assertEquals(1, changes.getEvents().size());
+        assertEquals(2, changes.getSequence());
+
+        // nothing happens, so the wait ends empty handed
+        changes = feed.await("t1", 2, 10, 50, TimeUnit.MILLISECONDS).toCompletableFuture().get(10, TimeUnit.SECONDS);
+        assertTrue(changes.getEvents().isEmpty());
+        assertEquals(2, changes.getSequence());
+        feed.close();
+    }
+
+    @Test
+    public void testCloseReleasesWaitingReaders() throws Exception {
+
+        ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1);
+        timer.setRemoveOnCancelPolicy(true);
+        try {
+            ChangeFeed feed = new ChangeFeed(16, timer);
+            feed.publish(ChangeEvent.Type.RESOURCE_ADDED, "t2", "r1", null);
+            CompletionStage<Changes> waiting = feed.await("t1", 1, 10, 1, TimeUnit.HOURS);
+            assertFalse(waiting.toCompletableFuture().isDone());
+
+            feed.close();
+            Changes changes = waiting.toCompletableFuture().get(10, TimeUnit.SECONDS);
+            assertTrue(changes.getEvents().isEmpty());
+            assertEquals(1, changes.getSequence());
+            assertFalse(changes.isMissed());
+            // the timer is shared, so it keeps running, but without the expiry of the reader
+            assertFalse(timer.isShutdown());
+            assertTrue(timer.getQueue().isEmpty());
+
+            assertTrue(feed.await("t1", 1, 10, 1, TimeUnit.HOURS).toCompletableFuture().isDone());
+        } finally {
+            timer.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,207 @@
+/*
+ * Copyright 2015 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.inventory.impl.test;
+
+import org.hawkular.inventory.api.Resource;
+import org.hawkular.inventory.api.ResourceType;
+import org.hawkular.inventory.impl.InventoryService;
+import org.h2.jdbcx.JdbcConnectionPool;
+import org.jboss.logging.Logger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Load test that hammers one {@link InventoryService} from a growing number of threads.
+ *
+ * It checks that the operations of several threads hold connections of the pool at the same
+ * time instead of queuing on a single one, and that every operation hands its connection back.
+ * The read and write throughput for each thread count is logged.
+ *
+ * Only run with the perf profile: mvn test -Pperf
+ *
+ * @author agent
+ */
+public class ConcurrentAccessPerfTest {
+
+    private static final int[] THREADS = {1, 2, 4, 8, 16};
+    private static final int OPS_PER_THREAD = 5000;
+    private static final int PRELOADED = 1000;
+    private static final String TENANT = "perf";
+    private static final Logger LOG = Logger.getLogger(ConcurrentAccessPerfTest.class);
+
+    JdbcConnectionPool dataSource;
+    InventoryService inventory;
+    /** Connections currently borrowed from the pool, and the most borrowed at the same time */
+    final AtomicInteger borrowed = new AtomicInteger();
+    final AtomicInteger peakBorrowed = new AtomicInteger();
+
+    @Before
+    public void setup() throws Exception {
+        dataSource = JdbcConnectionPool.create("jdbc:h2:mem:perf;DB_CLOSE_DELAY=-1", "sa", "sa");
+        dataSource.setMaxConnections(THREADS[THREADS.length - 1] * 2);
+        inventory = new InventoryService(countBorrowed(dataSource));
+
+        for (int i = 0; i < PRELOADED; i++) {
+            inventory.addResource(TENANT, resource("pre-" + i));
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        dataSource.dispose();
+    }
+
+    @Test
+    public void testThroughputScalesWithThreads() throws Exception {
+
+        for (int threads : THREADS) {
+            peakBorrowed.set(0);
+            double reads = run(threads, new OperationFactory() {
+                @Override
+                public Callable<Void> create(final int thread) {
+                    return new Callable<Void>() {
+                        @Override
+                        public Void call() throws Exception {
+                            for (int i = 0; i < OPS_PER_THREAD; i++) {
+                                String id = "pre-" + ((thread * 31 + i) % PRELOADED);
+                                assertNotNull(inventory.getResource(TENANT, id));
+                            }
+                            return null;
+                        }
+                    };
+                }
+            });
+            final String prefix = "w" + threads + "-";
+            double writes = run(threads, new OperationFactory() {
+                @Override
+                public Callable<Void> create(final int thread) {
+                    return new Callable<Void>() {
+                        @Override
+                        public Void call() throws Exception {
+                            for (int i = 0; i < OPS_PER_THREAD; i++) {
+                                inventory.addResource(TENANT, resource(prefix + thread + "-" + i));
+                            }
+                            return null;
+                        }
+                    };
+                }
+            });
+            LOG.infof("%2d threads: %9.0f reads/s %9.0f writes/s, at most %d connections at a time",
+                    threads, reads, writes, peakBorrowed.get());
+
+            // Operations borrow a connection each and hand it back, none is kept by the service
+            assertEquals(0, borrowed.get());
+            if (threads > 1) {
+                assertTrue("The operations of " + threads + " threads queued on a single connection",
+                        peakBorrowed.get() > 1);
+            }
+
+            // Every write must have landed, no matter how many threads raced
+            int expected = PRELOADED;
+            for (int t : THREADS) {
+                expected += t * OPS_PER_THREAD;
+                if (t == threads) {
+                    break;
+                }
+            }
+            assertEquals(expected, inventory.getResourcesForType(TENANT, ResourceType.URL).size());
+        }
+    }
+
+    /** Runs the operations on the given number of threads and returns the overall ops/s */
+    private double run(int threads, OperationFactory factory) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Callable<Void>> tasks = new ArrayList<>(threads);
+            for (int i = 0; i < threads; i++) {
+                tasks.add(factory.create(i));
+            }
+            long start = System.nanoTime();
+            List<Future<Void>> futures = executor.invokeAll(tasks);
+            for (Future<Void> future : futures) {
+                future.get(); // re-throws any failure of the worker
+            }
+            long elapsed = System.nanoTime() - start;
+            return threads * (double) OPS_PER_THREAD / elapsed * TimeUnit.SECONDS.toNanos(1);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Wraps the pool so that borrowed and peakBorrowed follow the connections that are out.
+     */
+    private DataSource countBorrowed(final DataSource pool) {
+        return (DataSource) Proxy.newProxyInstance(DataSource.class.getClassLoader(),
+                new Class<?>[] {DataSource.class}, (proxy, method, args) -> {
+                    Object result = invoke(pool, method, args);
+                    if (!method.getName().equals("getConnection")) {
+                        return result;
+                    }
+                    peakBorrowed.accumulateAndGet(borrowed.incrementAndGet(), Math::max);
+                    final Connection connection = (Connection) result;
+                    final AtomicBoolean closed = new AtomicBoolean();
+                    return Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                            new Class<?>[] {Connection.class}, (p, m, a) -> {
+                                if (m.getName().equals("close") && !closed.getAndSet(true)) {
+                                    borrowed.decrementAndGet();
+                                }
+                                return invoke(connection, m, a);
+                            });
+                });
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    private static Resource resource(String id) {
+        Resource resource = new Resource();
+        resource.setId(id);
+        resource.setType(ResourceType.URL);
+        resource.addParameter("url", "http://hawkular.org/" + id);
+        return resource;
+    }
+
+    private interface OperationFactory {
+        Callable<Void> create(int thread);
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright 2015 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.inventory.impl.test;
+
+import org.hawkular.inventory.impl.id.TimeOrderedIdGenerator;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Hammers the id generator from many threads and checks that no id is handed out twice.
+ *
+ * @author agent
+ */
+public class IdGeneratorTest {
+
+    private static final int THREADS = 16;
+    private static final int IDS_PER_THREAD = 200000;
+
+    @Test
+    public void testNoCollisionsAcrossThreads() throws Exception {
+
+        final TimeOrderedIdGenerator generator = new TimeOrderedIdGenerator(1);
+        final long[][] values = new long[THREADS][IDS_PER_THREAD];
+        final CountDownLatch start = new CountDownLatch(1);
+
+        Thread[] threads = new Thread[THREADS];
+        for (int t = 0; t < THREADS; t++) {
+            final long[] mine = values[t];
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int i = 0; i < mine.length; i++) {
+                        mine[i] = generator.nextValue();
+                    }
+                }
+            };
+            threads[t].start();
+        }
+
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        long[] all = new long[THREADS * IDS_PER_THREAD];
+        for (int t = 0; t < THREADS; t++) {
+            // every thread sees strictly increasing values
+            for (int i = 1; i < IDS_PER_THREAD; i++) {
+                assertTrue(values[t][i] > values[t][i - 1]);
+            }
+            System.arraycopy(values[t], 0, all, t * IDS_PER_THREAD, IDS_PER_THREAD);
+        }
+        Arrays.sort(all);
+        for (int i = 1; i < all.length; i++) {
+            assertTrue("Collision at " + all[i], all[i - 1] != all[i]);
+        }
+    }
+
+    @Test
+    public void testIdsSortInCreationOrder() throws Exception {
+
+        TimeOrderedIdGenerator generator = new TimeOrderedIdGenerator(0xabc);
+
+        String previous = generator.nextId();
+        assertEquals(20, previous.length());
+        assertTrue(previous.endsWith("0abc"));
+        for (int i = 0; i < 100000; i++) {
+            String id = generator.nextId();
+            assertTrue(previous + " >= " + id, previous.compareTo(id) < 0);
+            previous = id;
+        }
+    }
+
+    @Test
+    public void testNodesDoNotCollide() throws Exception {
+
+        // on a clock that stands still both nodes run through the very same values
+        final TimeOrderedIdGenerator one = new TimeOrderedIdGenerator(1, () -> 1500000000000L);
+        final TimeOrderedIdGenerator two = new TimeOrderedIdGenerator(2, () -> 1500000000000L);
+        final Set<String> ofOne = new HashSet<>();
+        final Set<String> ofTwo = new HashSet<>();
+        final CountDownLatch start = new CountDownLatch(1);
+
+        Thread first = new Thread(() -> generate(start, one, ofOne));
+        Thread second = new Thread(() -> generate(start, two, ofTwo));
+        first.start();
+        second.start();
+        start.countDown();
+        first.join();
+        second.join();
+
+        assertEquals(IDS_PER_THREAD, ofOne.size());
+        assertEquals(IDS_PER_THREAD, ofTwo.size());
+        ofOne.retainAll(ofTwo);
+        assertTrue("Both nodes issued " + ofOne.size() + " ids", ofOne.isEmpty());
+    }
+
+    @Test
+    public void testClockSetBack() throws Exception {
+
+        AtomicLong clock = new AtomicLong(1500000000000L);
+        TimeOrderedIdGenerator generator = new TimeOrderedIdGenerator(1, clock::get);
+        long before = generator.nextValue();
+
+        clock.addAndGet(-TimeUnit.HOURS.toMillis(1));
+        long after = generator.nextValue();
+        assertTrue(after > before);
+        // stays on the last timestamp instead of going back with the clock
+        assertEquals(before >>> 16, after >>> 16);
+
+        clock.addAndGet(TimeUnit.HOURS.toMillis(2));
+        assertTrue(generator.nextValue() >>> 16 > before >>> 16);
+    }
+
+    @Test
+    public void testSeed() throws Exception {
+
+        // ids of a run whose clock was an hour ahead
+        long now = System.currentTimeMillis();
+        String issued = new TimeOrderedIdGenerator(1, () -> now + TimeUnit.HOURS.toMillis(1)).nextId();
+
+        TimeOrderedIdGenerator generator = new TimeOrderedIdGenerator(1, () -> now);
+        generator.seed("not-a-generated-id!!");
+        generator.seed(null);
+        assertTrue(generator.nextId().compareTo(issued) < 0);
+
+        generator.seed(issued);
+        assertTrue(generator.nextId().compareTo(issued) > 0);
+    }
+
+    private static void generate(CountDownLatch start, TimeOrderedIdGenerator generator, Set<String> ids) {
+        try {
+            start.await();
+        } catch (InterruptedException e) {
+            return;
+        }
+        for (int i = 0; i < IDS_PER_THREAD; i++) {
+            ids.add(generator.nextId());
+        }
+    }
+}
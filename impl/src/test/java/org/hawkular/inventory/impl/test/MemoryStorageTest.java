@@ -0,0 +1,78 @@
+/*
+ * Copyright 2015 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.inventory.impl.test;
+
+import org.hawkular.inventory.impl.InventoryService;
+import org.hawkular.inventory.impl.storage.MemoryStorage;
+import org.junit.Before;
+import org.junit.Ignore;
+import org.junit.Test;
+
+/**
+ * Runs the basic tests on the {@link MemoryStorage}, but for those of the database specifics.
+ *
+ * @author agent
+ */
+public class MemoryStorageTest extends BasicTest {
+
+    private MemoryStorage storage;
+
+    @Before
+    public void createStorage() {
+        storage = new MemoryStorage();
+    }
+
+    @Override
+    protected InventoryService newInventory() {
+        return started(new InventoryService(storage));
+    }
+
+    @Override
+    protected void assertNoMetricsLeft(String tenant) {
+        // the metrics are held by their resource and cannot outlive it
+    }
+
+    @Test
+    @Ignore("Database schema")
+    @Override
+    public void testSchemaIsMigrated() {
+    }
+
+    @Test
+    @Ignore("Database schema")
+    @Override
+    public void testBrokenMigrationStopsStartup() {
+    }
+
+    @Test
+    @Ignore("Database statements")
+    @Override
+    public void testSessionClosesItsStatements() {
+    }
+
+    @Test
+    @Ignore("Payload format in the database")
+    @Override
+    public void testBinaryPayloads() {
+    }
+
+    @Test
+    @Ignore("Database schema")
+    @Override
+    public void testParametersOfOldResourcesAreIndexed() {
+    }
+}
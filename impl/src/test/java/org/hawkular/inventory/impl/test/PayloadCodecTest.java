@@ -0,0 +1,135 @@
+/*
+ * Copyright 2015 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.inventory.impl.test;
+
+import com.google.gson.Gson;
+import org.hawkular.inventory.api.MetricDefinition;
+import org.hawkular.inventory.api.MetricUnit;
+import org.hawkular.inventory.api.Resource;
+import org.hawkular.inventory.api.ResourceType;
+import org.hawkular.inventory.impl.InventoryService;
+import org.hawkular.inventory.impl.codec.BinaryPayloadCodec;
+import org.hawkular.inventory.impl.codec.PayloadCodec;
+import org.hawkular.inventory.impl.codec.PayloadCodecs;
+import org.hawkular.inventory.impl.storage.MemoryStorage;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests for the payload codecs
+ *
+ * @author agent
+ */
+public class PayloadCodecTest {
+
+    @Test
+    public void testRoundTrip() throws Exception {
+
+        Resource resource = new Resource();
+        resource.setType(ResourceType.URL);
+        resource.setId("r1");
+        resource.addParameter("url", "http://hawkular.org");
+        resource.addParameter("unicode", "\u00e4\u00f6\u00fc \u20ac");
+
+        MetricDefinition metric = new MetricDefinition("cpu.load", MetricUnit.MILLI_SECOND);
+        metric.setDescription("The load");
+
+        for (String name : Arrays.asList(PayloadCodecs.JSON, PayloadCodecs.BINARY)) {
+            PayloadCodec codec = PayloadCodecs.forName(name, new Gson());
+
+            Resource decoded = codec.decode(codec.encode(resource), Resource.class);
+            assertEquals(resource, decoded);
+            assertEquals(resource.getParameters(), decoded.getParameters());
+
+            MetricDefinition decodedMetric = codec.decode(codec.encode(metric), MetricDefinition.class);
+            assertEquals(metric, decodedMetric);
+            assertEquals("The load", decodedMetric.getDescription());
+        }
+    }
+
+    @Test
+    public void testBinaryNullFields() throws Exception {
+
+        PayloadCodec codec = new BinaryPayloadCodec();
+
+        MetricDefinition metric = new MetricDefinition();
+        metric.setName("");
+        MetricDefinition decoded = codec.decode(codec.encode(metric), MetricDefinition.class);
+        assertEquals("", decoded.getName());
+        assertNull(decoded.getUnit());
+        assertNull(decoded.getDescription());
+
+        Resource resource = new Resource();
+        resource.setParameters(null);
+        Resource decodedResource = codec.decode(codec.encode(resource), Resource.class);
+        assertNull(decodedResource.getId());
+        assertNull(decodedResource.getType());
+        assertTrue(decodedResource.getParameters().isEmpty());
+    }
+
+    @Test
+    public void testBinaryIsSmaller() throws Exception {
+
+        Resource resource = new Resource();
+        resource.setType(ResourceType.URL);
+        resource.setId("0150a3b2c4d5e6f70001abcd");
+        resource.addParameter("url", "http://hawkular.org");
+
+        PayloadCodec json = PayloadCodecs.forName(PayloadCodecs.JSON, new Gson());
+        PayloadCodec binary = PayloadCodecs.forName(PayloadCodecs.BINARY, new Gson());
+        int jsonSize = json.encode(resource).length;
+        int binarySize = binary.encode(resource).length;
+        assertTrue("binary " + binarySize + " vs json " + jsonSize + " bytes", binarySize < jsonSize * 0.8);
+    }
+
+    @Test
+    public void testBinaryRejectsBadPayloads() throws Exception {
+
+        PayloadCodec codec = new BinaryPayloadCodec();
+        byte[] metric = codec.encode(new MetricDefinition("m1"));
+
+        try {
+            codec.decode(metric, Resource.class);
+            fail("A metric payload must not decode into a resource");
+        } catch (IllegalArgumentException expected) {
+        }
+        try {
+            codec.decode(Arrays.copyOf(metric, metric.length - 1), MetricDefinition.class);
+            fail("A truncated payload must not decode");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    @Test
+    public void testUnknownCodecFailsStartup() throws Exception {
+
+        System.setProperty(InventoryService.PAYLOAD_CODEC_PROPERTY, "binray");
+        try {
+            new InventoryService(new MemoryStorage());
+            fail("A misspelled codec must not fall back to JSON");
+        } catch (IllegalArgumentException expected) {
+        } finally {
+            System.clearProperty(InventoryService.PAYLOAD_CODEC_PROPERTY);
+        }
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright 2015 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.inventory.impl.test;
+
+import org.hawkular.inventory.api.ResourceType;
+import org.hawkular.inventory.impl.InventoryService;
+import org.h2.jdbcx.JdbcConnectionPool;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that the per tenant lookups stay flat while the tables grow from 10k to 1M rows.
+ * The measured tenant always has the same number of resources, only the other tenants grow.
+ *
+ * Only run with the perf profile: mvn test -Pperf
+ *
+ * @author agent
+ */
+public class QueryScalingPerfTest {
+
+    private static final int[] TABLE_SIZES = {10000, 100000, 1000000};
+    private static final int TENANT_RESOURCES = 100;
+    private static final int ROUNDS = 500;
+    private static final String TENANT = "measured";
+
+    JdbcConnectionPool dataSource;
+    InventoryService inventory;
+    int rows;
+
+    @Before
+    public void setup() throws Exception {
+        dataSource = JdbcConnectionPool.create("jdbc:h2:mem:scaling;DB_CLOSE_DELAY=-1", "sa", "sa");
+        inventory = new InventoryService(dataSource);
+        fill(TENANT, TENANT_RESOURCES);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        dataSource.dispose();
+    }
+
+    @Test
+    public void testLookupLatencyIsIndependentOfTableSize() throws Exception {
+
+        double first = 0;
+        System.out.println("    rows   byType(us)   metrics(us)");
+        for (int size : TABLE_SIZES) {
+            fill("other", size - rows);
+
+            double byType = measureByType();
+            double metrics = measureMetrics();
+            System.out.printf("%8d %12.1f %13.1f%n", rows, byType, metrics);
+
+            if (first == 0) {
+                first = byType;
+            } else {
+                // Without the indexes this grows with the table, i.e. 100 times from 10k to 1M
+                assertTrue("Lookup went from " + first + "us to " + byType + "us", byType < first * 5);
+            }
+        }
+    }
+
+    private double measureByType() throws Exception {
+        long start = System.nanoTime();
+        for (int i = 0; i < ROUNDS; i++) {
+            assertEquals(TENANT_RESOURCES, inventory.getResourcesForType(TENANT, ResourceType.URL).size());
+        }
+        return (System.nanoTime() - start) / 1000.0 / ROUNDS;
+    }
+
+    private double measureMetrics() throws Exception {
+        long start = System.nanoTime();
+        for (int i = 0; i < ROUNDS; i++) {
+            assertEquals(1, inventory.listMetricsForResource(TENANT, TENANT + "-" + (i % TENANT_RESOURCES)).size());
+        }
+        return (System.nanoTime() - start) / 1000.0 / ROUNDS;
+    }
+
+    /** Bulk loads resources with one metric each directly via JDBC, "other" rows are spread over 100 tenants */
+    private void fill(String tenantPrefix, int count) throws Exception {
+        try (Connection c = dataSource.getConnection();
+             PreparedStatement resources = c.prepareStatement(
+                     "INSERT INTO HWK_RESOURCES (id, tenant, type, payload) VALUES (?,?,?,?)");
+             PreparedStatement metrics = c.prepareStatement(
+                     "INSERT INTO HWK_METRICS (resource_id, tenant, metric_name, payload) VALUES (?,?,?,?)")) {
+
+            c.setAutoCommit(false);
+            for (int i = 0; i < count; i++) {
+                String tenant = tenantPrefix.equals(TENANT) ? TENANT : tenantPrefix + (i % 100);
+                String id = tenantPrefix + "-" + (rows + i);
+                resources.setString(1, id);
+                resources.setString(2, tenant);
+                resources.setString(3, ResourceType.URL.name());
+                resources.setString(4, "{\"type\":\"URL\",\"id\":\"" + id + "\",\"parameters\":{}}");
+                resources.addBatch();
+
+                metrics.setString(1, id);
+                metrics.setString(2, tenant);
+                metrics.setString(3, "cpu.load");
+                metrics.setString(4, "{\"name\":\"cpu.load\",\"unit\":\"NONE\"}");
+                metrics.addBatch();
+
+                if (i % 1000 == 999) {
+                    resources.executeBatch();
+                    metrics.executeBatch();
+                    c.commit();
+                }
+            }
+            resources.executeBatch();
+            metrics.executeBatch();
+            c.commit();
+        }
+        rows += count;
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2015 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.inventory.impl.test;
+
+import org.hawkular.inventory.api.Resource;
+import org.hawkular.inventory.api.ResourceType;
+import org.hawkular.inventory.impl.InventoryService;
+import org.hawkular.inventory.impl.db.SlowQuery;
+import org.hawkular.inventory.impl.db.SlowQueryLog;
+import org.h2.jdbcx.JdbcConnectionPool;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for the slow query log
+ *
+ * @author agent
+ */
+public class SlowQueryLogTest {
+
+    JdbcConnectionPool dataSource;
+
+    @Before
+    public void setup() throws Exception {
+
+        dataSource = JdbcConnectionPool.create("jdbc:h2:mem:test;DB_CLOSE_DELAY=-1", "sa", "sa");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        dataSource.dispose();
+    }
+
+    @Test
+    public void testQueriesAreRecorded() throws Exception {
+
+        InventoryService inventory = new InventoryService(dataSource);
+        // with a threshold of 0 every statement is slow
+        SlowQueryLog log = new SlowQueryLog(0, 3, true);
+        inventory.setSlowQueryLog(log);
+
+        String tenant = "slow-secret-tenant";
+        for (int i = 0; i < 2; i++) {
+            Resource resource = new Resource();
+            resource.setType(ResourceType.URL);
+            resource.addParameter("url", "http://hawkular.org/" + i);
+            inventory.addResource(tenant, resource);
+        }
+        assertEquals(2, inventory.getResourcesForType(tenant, ResourceType.URL, 10, null).getItems().size());
+
+        List<SlowQuery> queries = log.getRecent();
+        assertEquals(3, queries.size());
+        SlowQuery query = queries.get(0);
+        assertTrue(query.getSql(), query.getSql().startsWith("SELECT r.id, r.payload"));
+        assertEquals(2, query.getRows());
+        // strings are redacted, the limit is shown
+        assertFalse(query.getBinds(), query.getBinds().contains(tenant));
+        assertTrue(query.getBinds(), query.getBinds().contains("<" + tenant.length() + " chars>"));
+        assertTrue(query.getBinds(), query.getBinds().contains("11"));
+        assertNotNull(query.getPlan());
+        assertTrue(query.getPlan(), query.getPlan().contains("HWK_RESOURCES"));
+
+        // the parameters of the second resource, as a batch
+        assertTrue(queries.get(1).getSql().startsWith("INSERT INTO HWK_RESOURCE_PARAMS"));
+        assertTrue(queries.get(1).getBinds(), queries.get(1).getBinds().startsWith("1 rows"));
+    }
+
+    @Test
+    public void testDisabled() throws Exception {
+
+        InventoryService inventory = new InventoryService(dataSource);
+        SlowQueryLog log = new SlowQueryLog(-1, 10, false);
+        inventory.setSlowQueryLog(log);
+
+        inventory.getResourcesForType("slow", ResourceType.URL);
+        assertTrue(log.getRecent().isEmpty());
+    }
+}
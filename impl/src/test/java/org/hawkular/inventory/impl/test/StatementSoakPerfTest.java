@@ -0,0 +1,104 @@
+/*
+ * Copyright 2015 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.inventory.impl.test;
+
+import org.hawkular.inventory.api.MetricDefinition;
+import org.hawkular.inventory.api.Resource;
+import org.hawkular.inventory.api.ResourceType;
+import org.hawkular.inventory.impl.InventoryService;
+import org.hawkular.inventory.impl.db.DbSession;
+import org.h2.jdbcx.JdbcConnectionPool;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Soak test for the statement handling: millions of metric updates and reads must neither
+ * leave statements open nor get slower over time. The cache is switched off, so every
+ * read goes to the database.
+ *
+ * Only run with the perf profile: mvn test -Pperf
+ *
+ * @author agent
+ */
+public class StatementSoakPerfTest {
+
+    private static final int WINDOWS = 20;
+    private static final int CALLS_PER_WINDOW = 100000;
+    private static final String TENANT = "soak";
+
+    JdbcConnectionPool dataSource;
+    InventoryService inventory;
+    String oldCacheSize;
+
+    @Before
+    public void setup() throws Exception {
+        oldCacheSize = System.getProperty(InventoryService.CACHE_SIZE_PROPERTY);
+        System.setProperty(InventoryService.CACHE_SIZE_PROPERTY, "0");
+
+        dataSource = JdbcConnectionPool.create("jdbc:h2:mem:soak;DB_CLOSE_DELAY=-1", "sa", "sa");
+        inventory = new InventoryService(dataSource);
+
+        Resource resource = new Resource();
+        resource.setId("soaked");
+        resource.setType(ResourceType.URL);
+        inventory.addResource(TENANT, resource);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        dataSource.dispose();
+        if (oldCacheSize == null) {
+            System.clearProperty(InventoryService.CACHE_SIZE_PROPERTY);
+        } else {
+            System.setProperty(InventoryService.CACHE_SIZE_PROPERTY, oldCacheSize);
+        }
+    }
+
+    @Test
+    public void testStatementsAndLatencyStayFlat() throws Exception {
+
+        long openBefore = DbSession.getOpenStatementCount();
+        MetricDefinition metric = new MetricDefinition("soak.metric");
+
+        double first = 0;
+        System.out.println("window   us/call   open statements");
+        for (int window = 0; window < WINDOWS; window++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < CALLS_PER_WINDOW; i += 2) {
+                metric.setDescription("call " + i);
+                inventory.updateMetric(TENANT, "soaked", metric);
+                assertNotNull(inventory.getMetric(TENANT, "soaked", "soak.metric"));
+            }
+            double perCall = (System.nanoTime() - start) / 1000.0 / CALLS_PER_WINDOW;
+            long open = DbSession.getOpenStatementCount() - openBefore;
+            System.out.printf("%6d %9.2f %17d%n", window, perCall, open);
+
+            assertEquals("Statements left open after window " + window, 0, open);
+            if (window == 1) {
+                // the first window includes warm up
+                first = perCall;
+            } else if (window > 1) {
+                assertTrue("Latency went from " + first + "us to " + perCall + "us", perCall < first * 3);
+            }
+        }
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright 2015 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.inventory.impl.test;
+
+import org.hawkular.inventory.api.Resource;
+import org.hawkular.inventory.api.ResourceType;
+import org.hawkular.inventory.impl.InventoryService;
+import org.hawkular.inventory.impl.stats.LatencyHistogram;
+import org.hawkular.inventory.impl.stats.OperationStats;
+import org.hawkular.inventory.impl.stats.OperationSummary;
+import org.hawkular.inventory.impl.stats.Statistics;
+import org.h2.jdbcx.JdbcConnectionPool;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests for the call statistics
+ *
+ * @author agent
+ */
+public class StatisticsTest {
+
+    @Test
+    public void testHistogramPrecision() throws Exception {
+
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(TimeUnit.MICROSECONDS.toNanos(i));
+        }
+
+        assertEquals(1000, histogram.getCount());
+        assertEquals(TimeUnit.MICROSECONDS.toNanos(1000), histogram.getMax());
+        assertEquals(500500.0, histogram.getMean(), 0.001);
+        assertWithin(500000, histogram.getPercentile(50));
+        assertWithin(990000, histogram.getPercentile(99));
+        assertEquals(histogram.getMax(), histogram.getPercentile(100));
+
+        // out of range values are clamped instead of failing
+        histogram.record(-1);
+        histogram.record(Long.MAX_VALUE);
+        assertEquals(1002, histogram.getCount());
+    }
+
+    @Test
+    public void testNestedCallsCountOnce() throws Exception {
+
+        Statistics stats = new Statistics("test");
+        long outer = stats.start();
+        long inner = stats.start();
+        long serialization = System.nanoTime();
+        stats.serialized(serialization);
+        stats.stop("inner", "t1", inner);
+        stats.failed();
+        stats.stop("outer", "t1", outer);
+
+        assertNull(stats.getOperation("inner"));
+        OperationStats operation = stats.getOperation("outer");
+        assertEquals(1, operation.getCalls());
+        assertEquals(1, operation.getErrors());
+        assertEquals(1, operation.getSerialization().getCount());
+        assertEquals(1, stats.getTenants().size());
+
+        // a new call starts without the failure of the last one
+        stats.stop("outer", "t2", stats.start());
+        assertEquals(2, operation.getCalls());
+        assertEquals(1, operation.getErrors());
+
+        // the operations of each tenant are counted apart
+        stats.stop("other", "t2", stats.start());
+        assertEquals(1, stats.getTenantOperations("t1").size());
+        assertEquals(1, stats.getTenantOperations("t1").get(0).getErrors());
+        assertEquals(2, stats.getTenantOperations("t2").size());
+        assertEquals(0, stats.getTenantOperations("t2").get(1).getErrors());
+        assertEquals("outer", stats.getTenantOperations("t2").get(1).getName());
+        assertTrue(stats.getTenantOperations("t3").isEmpty());
+    }
+
+    @Test
+    public void testInventoryCalls() throws Exception {
+
+        JdbcConnectionPool dataSource = JdbcConnectionPool.create("jdbc:h2:mem:test;DB_CLOSE_DELAY=-1", "sa", "sa");
+        try {
+            InventoryService inventory = new InventoryService(dataSource);
+            Statistics.INVENTORY.reset();
+
+            Resource resource = new Resource();
+            resource.setType(ResourceType.URL);
+            resource.addParameter("url", "http://hawkular.org");
+            String id = inventory.addResource("stats", resource);
+            inventory.addMetricToResource("stats", id, "cpu.load1");
+            try {
+                inventory.listMetricsForResource("stats", "not-there");
+                fail("The resource does not exist");
+            } catch (Exception e) {
+                // expected
+            }
+
+            assertEquals(1, Statistics.INVENTORY.getOperation("addResource").getCalls());
+            assertTrue(Statistics.INVENTORY.getOperation("addResource").getSerialization().getMax() > 0);
+            // the upsert it has called does not count on its own
+            assertNotNull(Statistics.INVENTORY.getOperation("addMetricToResource"));
+            assertNull(Statistics.INVENTORY.getOperation("upsertMetrics"));
+            assertEquals(1, Statistics.INVENTORY.getOperation("listMetricsForResource").getErrors());
+
+            OperationSummary tenant = Statistics.INVENTORY.getTenants().get(0);
+            assertEquals("stats", tenant.getName());
+            assertEquals(3, tenant.getCalls());
+        } finally {
+            dataSource.dispose();
+        }
+    }
+
+    /** The histogram is precise to 1/16 of the value */
+    private static void assertWithin(long expected, long actual) {
+        assertTrue("Expected about " + expected + ", but was " + actual,
+                Math.abs(actual - expected) <= expected / 16);
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright 2015 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.inventory.impl.test;
+
+import org.hawkular.inventory.api.Resource;
+import org.hawkular.inventory.api.ResourceNotFoundException;
+import org.hawkular.inventory.api.ResourceType;
+import org.hawkular.inventory.impl.InventoryService;
+import org.hawkular.inventory.impl.db.DbManager;
+import org.hawkular.inventory.impl.storage.JdbcStorage;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Runs the basic tests with every tenant in a schema of its own.
+ *
+ * @author agent
+ */
+public class TenantSchemaTest extends BasicTest {
+
+    @Override
+    protected InventoryService newInventory() {
+        System.setProperty(JdbcStorage.TENANT_SCHEMAS_PROPERTY, "true");
+        try {
+            return started(new InventoryService(dataSource));
+        } finally {
+            System.clearProperty(JdbcStorage.TENANT_SCHEMAS_PROPERTY);
+        }
+    }
+
+    @Override
+    protected void assertNoMetricsLeft(String tenant) throws Exception {
+        try (Connection connection = dataSource.getConnection(); Statement s = connection.createStatement()) {
+            if (!DbManager.getTenants(connection).contains(tenant)) {
+                return; // dropped with all its metrics
+            }
+            ResultSet rs = s.executeQuery("SELECT COUNT(*) FROM " + DbManager.schemaOf(tenant) + ".HWK_METRICS");
+            rs.next();
+            assertEquals(0, rs.getInt(1));
+        }
+    }
+
+    private static Resource resource(String id, String url) {
+        Resource resource = new Resource();
+        resource.setType(ResourceType.URL);
+        resource.setId(id);
+        resource.addParameter("url", url);
+        return resource;
+    }
+
+    @Test
+    @Override
+    public void testFindResourcesByParameter() throws Exception {
+
+        InventoryService inventory = newInventory();
+
+        // ids are unique per tenant only, and neither resources nor parameters mix
+        inventory.addResource("schema-a", resource("param-0", "http://hawkular.org"));
+        inventory.addResources("schema-b", Arrays.asList(resource("param-0", "http://example.com")));
+
+        assertEquals("http://hawkular.org", inventory.getResource("schema-a", "param-0").getParameters().get("url"));
+        assertEquals("http://example.com", inventory.getResource("schema-b", "param-0").getParameters().get("url"));
+        assertEquals(1, inventory.findResourcesByParameter("schema-b", "url", "http://example.com").size());
+        assertTrue(inventory.findResourcesByParameter("schema-b", "url", "http://hawkular.org").isEmpty());
+
+        inventory.deleteResource("schema-a", "param-0");
+        assertNotNull(inventory.getResource("schema-b", "param-0"));
+    }
+
+    @Test
+    public void testDropTenant() throws Exception {
+
+        InventoryService inventory = newInventory();
+        String dropped = "it's \"dropped\"";
+        String kept = "kept";
+        for (String tenant : Arrays.asList(dropped, kept)) {
+            inventory.addResource(tenant, resource("drop-1", "http://hawkular.org"));
+            inventory.addMetricToResource(tenant, "drop-1", "cpu.load1");
+        }
+        try (Connection connection = dataSource.getConnection()) {
+            assertTrue(DbManager.getTenants(connection).contains(dropped));
+        }
+
+        ((JdbcStorage) inventory.getStorage()).dropTenant(dropped);
+
+        try (Connection connection = dataSource.getConnection()) {
+            assertFalse(DbManager.getTenants(connection).contains(dropped));
+        }
+        assertEquals(1, inventory.listMetricsForResource(kept, "drop-1").size());
+        // the service on top still has the resource cached, a new one does not
+        inventory = newInventory();
+        assertNull(inventory.getResource(dropped, "drop-1"));
+        try {
+            inventory.listMetricsForResource(dropped, "drop-1");
+            fail("The resource has been dropped");
+        } catch (ResourceNotFoundException e) {
+            // expected
+        }
+
+        // the tenant can start over
+        inventory.addResource(dropped, resource("drop-1", "http://hawkular.org"));
+        assertTrue(inventory.listMetricsForResource(dropped, "drop-1").isEmpty());
+    }
+
+    @Test
+    public void testPurgeUnknownTenant() throws Exception {
+
+        InventoryService inventory = newInventory();
+
+        assertEquals(0, inventory.purgeTenant("never-seen"));
+        try (Connection connection = dataSource.getConnection()) {
+            assertFalse(DbManager.hasTenant(connection, "never-seen"));
+        }
+    }
+}
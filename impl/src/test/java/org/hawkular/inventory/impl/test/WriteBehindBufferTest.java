@@ -0,0 +1,147 @@
+/*
+ * Copyright 2015 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.inventory.impl.test;
+
+import org.hawkular.inventory.impl.cache.CacheKey;
+import org.hawkular.inventory.impl.cache.WriteBehindBuffer;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests for the write-behind buffer of metric definitions
+ *
+ * @author agent
+ */
+public class WriteBehindBufferTest {
+
+    @Test
+    public void testWritesAreCoalesced() throws Exception {
+
+        final List<Map<CacheKey, String>> batches = Collections.synchronizedList(new ArrayList<>());
+        WriteBehindBuffer<CacheKey, String> buffer = new WriteBehindBuffer<>(100, 1, TimeUnit.HOURS,
+                new WriteBehindBuffer.Flusher<CacheKey, String>() {
+                    @Override
+                    public void flush(Map<CacheKey, String> batch) {
+                        batches.add(batch);
+                    }
+                });
+
+        CacheKey key = CacheKey.metric("t", "r", "m");
+        buffer.put(key, "v1");
+        buffer.put(key, "v2");
+        buffer.put(CacheKey.metric("t", "r", "other"), "v1");
+
+        assertEquals(2, buffer.size());
+        assertEquals("v2", buffer.get(key));
+        assertEquals(1, buffer.getCoalesced());
+
+        assertEquals(2, buffer.flush());
+        assertEquals(1, batches.size());
+        assertEquals("v2", batches.get(0).get(key));
+        assertNull(buffer.get(key));
+        assertEquals(0, buffer.flush());
+
+        buffer.put(key, "v3");
+        buffer.close();
+        assertEquals(2, batches.size());
+        assertEquals("v3", batches.get(1).get(key));
+    }
+
+    @Test
+    public void testSizeIsBounded() throws Exception {
+
+        final int[] written = new int[1];
+        WriteBehindBuffer<CacheKey, String> buffer = new WriteBehindBuffer<>(16, 1, TimeUnit.HOURS,
+                new WriteBehindBuffer.Flusher<CacheKey, String>() {
+                    @Override
+                    public void flush(Map<CacheKey, String> batch) throws Exception {
+                        // slower than the writer, so the writer has to wait for it
+                        Thread.sleep(1);
+                        synchronized (written) {
+                            written[0] += batch.size();
+                        }
+                    }
+                });
+
+        for (int i = 0; i < 1000; i++) {
+            buffer.put(CacheKey.metric("t", "r", "m" + i), "v");
+            assertTrue(buffer.size() <= 16);
+        }
+        buffer.close();
+
+        assertEquals(1000, written[0]);
+        assertEquals(0, buffer.size());
+    }
+
+    @Test
+    public void testFailedBatchIsRetried() throws Exception {
+
+        final List<Map<CacheKey, String>> batches = new ArrayList<>();
+        final CacheKey key = CacheKey.metric("t", "r", "m");
+        final CacheKey other = CacheKey.metric("t", "r", "other");
+        final CacheKey dropped = CacheKey.metric("t", "gone", "m");
+        final AtomicReference<WriteBehindBuffer<CacheKey, String>> holder = new AtomicReference<>();
+        WriteBehindBuffer<CacheKey, String> buffer = new WriteBehindBuffer<>(100, 1, TimeUnit.HOURS,
+                new WriteBehindBuffer.Flusher<CacheKey, String>() {
+                    @Override
+                    public void flush(Map<CacheKey, String> batch) throws Exception {
+                        if (batches.isEmpty()) {
+                            batches.add(null);
+                            // written and dropped again while the batch is on its way
+                            holder.get().put(key, "v2");
+                            holder.get().removeIf(k -> k.getResourceId().equals("gone"));
+                            throw new Exception("database down");
+                        }
+                        batches.add(batch);
+                    }
+                });
+        holder.set(buffer);
+
+        buffer.put(key, "v1");
+        buffer.put(other, "v1");
+        buffer.put(dropped, "v1");
+        try {
+            buffer.flush();
+            fail("The failure of the flusher must be passed on");
+        } catch (Exception e) {
+            assertEquals("database down", e.getMessage());
+        }
+
+        assertEquals(2, buffer.size());
+        assertEquals("v2", buffer.get(key));
+        assertEquals("v1", buffer.get(other));
+        assertNull(buffer.get(dropped));
+
+        assertEquals(2, buffer.flush());
+        Map<CacheKey, String> retried = batches.get(1);
+        assertEquals("v2", retried.get(key));
+        assertEquals("v1", retried.get(other));
+        assertEquals(key, retried.keySet().iterator().next());
+        buffer.close();
+    }
+}
@@ -17,10 +17,16 @@
 package org.hawkular.inventory.rest;
 
 
+import org.hawkular.inventory.api.AsyncInventory;
 import org.hawkular.inventory.api.Inventory;
 import org.hawkular.inventory.api.MetricDefinition;
+import org.hawkular.inventory.api.Page;
 import org.hawkular.inventory.api.Resource;
+import org.hawkular.inventory.api.ResourceNotFoundException;
 import org.hawkular.inventory.api.ResourceType;
+import org.hawkular.inventory.impl.db.SlowQuery;
+import org.hawkular.inventory.impl.db.SlowQueryLog;
+import org.hawkular.inventory.impl.stats.Statistics;
 
 import javax.ejb.EJB;
 import javax.ws.rs.Consumes;
@@ -32,13 +38,41 @@ import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
+import javax.ws.rs.core.Context;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import javax.ws.rs.core.UriInfo;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 
 import static javax.ws.rs.core.MediaType.APPLICATION_JSON;
 
 /**
  * The Rest api for Hawkular Inventory
+ *
+ * Requests are suspended while the inventory works on them on its own database threads
+ * (see {@link AsyncInventory}), so the container threads are free for other requests in the
+ * meantime. When the inventory is saturated or does not answer in time, the request is
+ * answered with 503 Service Unavailable.
+ *
  * @author Heiko Rupp
  */
 @Path("/")
@@ -46,10 +80,23 @@ import static javax.ws.rs.core.MediaType.APPLICATION_JSON;
 @Consumes(value = APPLICATION_JSON)
 public class RestApi {
 
+    /** Page size used if a client asks for a page but does not say how large */
+    static final int DEFAULT_PAGE_SIZE = 100;
+    /** Upper bound for the page size, so a single request can't pull in the whole tenant */
+    static final int MAX_PAGE_SIZE = 1000;
+    /** Seconds a suspended request waits for the inventory before it is answered with 503 */
+    static final int TIMEOUT_SECONDS = 30;
+    /** Longest a client may wait for changes, well within the timeout of the request */
+    static final int MAX_WAIT_SECONDS = 25;
+    /** Newline delimited JSON, one object per line */
+    static final String APPLICATION_NDJSON = "application/x-ndjson";
 
     @EJB
     Inventory inventory;
 
+    @EJB
+    AsyncInventory asyncInventory;
+
 
     @GET
     @Path("/")
@@ -57,180 +104,445 @@ public class RestApi {
         return new StringWrapper("Hello World");
     }
 
+    /**
+     * Calls, errors and latencies of the REST endpoints and of the inventory methods, per operation and per tenant.
+     * Lists all tenants, so it is restricted to the admin role in web.xml.
+     */
+    @GET
+    @Path("/stats")
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> result = new LinkedHashMap<>();
+        for (Statistics stats : new Statistics[] { Statistics.REST, Statistics.INVENTORY }) {
+            Map<String, Object> summary = new LinkedHashMap<>();
+            summary.put("operations", stats.getOperations());
+            summary.put("tenants", stats.getTenants());
+            result.put(stats.getName(), summary);
+        }
+        return result;
+    }
+
+    /**
+     * Calls, errors and latencies of the REST endpoints and of the inventory methods for the operations of
+     * the tenant.
+     */
+    @GET
+    @Path("/{tenantId}/stats")
+    public Map<String, Object> getTenantStatistics(@PathParam("tenantId") String tenantId) {
+        Map<String, Object> result = new LinkedHashMap<>();
+        for (Statistics stats : new Statistics[] { Statistics.REST, Statistics.INVENTORY }) {
+            result.put(stats.getName(), stats.getTenantOperations(tenantId));
+        }
+        return result;
+    }
+
+    /**
+     * The latest statements that took longer than the slow query threshold, the latest first. The statements
+     * are those of all tenants, so it is restricted to the admin role in web.xml.
+     */
+    @GET
+    @Path("/slowQueries")
+    public List<SlowQuery> getSlowQueries() {
+        return SlowQueryLog.INSTANCE.getRecent();
+    }
+
     @POST
     @Path("/{tenantId}/resources")
-    public Response addResource(@PathParam("tenantId") String tenantId,
+    public void addResource(@Suspended AsyncResponse response,
+                            @PathParam("tenantId") String tenantId,
                             Resource definition) {
 
-        try {
-            String id = inventory.addResource(tenantId, definition);
+        resume(response, asyncInventory.addResource(tenantId, definition),
+                id -> Response.ok(new IdWrapper(id)).build());
+    }
 
-            return Response.ok(new IdWrapper(id)).build();
-        } catch (Exception e) {
-            RestApiLogger.LOGGER.warn(e);
-            return Response.serverError().entity(e).build();
+
+    @POST
+    @Path("/{tenantId}/resources/bulk")
+    public void addResources(@Suspended AsyncResponse response,
+                             @PathParam("tenantId") String tenantId,
+                             Collection<Resource> definitions) {
+
+        if (definitions == null || definitions.isEmpty()) {
+            response.resume(Response.status(Response.Status.BAD_REQUEST).build());
+            return;
         }
+
+        resume(response, asyncInventory.addResources(tenantId, definitions),
+                results -> Response.ok(results).build());
     }
 
+    @POST
+    @Path("/{tenantId}/resources/bulk/delete")
+    public void deleteResources(@Suspended AsyncResponse response,
+                                @PathParam("tenantId") String tenantId,
+                                Collection<String> ids) {
+
+        if (ids == null || ids.isEmpty()) {
+            response.resume(Response.status(Response.Status.BAD_REQUEST).build());
+            return;
+        }
+
+        resume(response, asyncInventory.deleteResources(tenantId, ids),
+                deleted -> Response.ok(deleted).build());
+    }
+
+    /**
+     * A verb of its own rather than DELETE on the tenant, so wiping a tenant is always explicit.
+     */
+    @POST
+    @Path("/{tenantId}/purge")
+    public void purgeTenant(@Suspended AsyncResponse response,
+                            @PathParam("tenantId") String tenantId) {
+
+        resume(response, asyncInventory.purgeTenant(tenantId),
+                purged -> Response.ok(purged).build());
+    }
 
     @GET
-    @Path("/{tenantId}/resources")
-    public Response getResourcesByType(@PathParam("tenantId") String tenantId,
-                                       @QueryParam("type") String type) {
+    @Path("/{tenantId}/export")
+    @Produces(APPLICATION_NDJSON)
+    public Response exportTenant(@PathParam("tenantId") final String tenantId) {
+
+        return Response.ok(new JsonStream() {
+            @Override
+            void write(Writer out) throws Exception {
+                inventory.exportTenant(tenantId, out);
+            }
+        }).build();
+    }
 
-        ResourceType rtype = ResourceType.valueOf(type.toUpperCase());
+    /**
+     * Imports on the request thread, which reads the body only as fast as the chunks are written. The
+     * body is never held as a whole, and a client that sends faster is held back by the connection.
+     */
+    @POST
+    @Path("/{tenantId}/import")
+    @Consumes(APPLICATION_NDJSON)
+    public Response importTenant(@PathParam("tenantId") String tenantId, InputStream body) {
 
         try {
-            Collection<Resource> resources = inventory.getResourcesForType(tenantId, rtype);
-            return Response.ok(resources).build();
+            return Response.ok(inventory.importTenant(tenantId, new InputStreamReader(body, StandardCharsets.UTF_8)))
+                    .build();
         } catch (Exception e) {
-            RestApiLogger.LOGGER.warn(e);
-            return Response.serverError().entity(e).build();
+            return errorResponse(e);
         }
     }
 
     @GET
-    @Path("/{tenantId}/resource/{uid}")
-    public Response getResource(@PathParam("tenantId") String tenantId, @PathParam
-            ("uid") String uid) {
+    @Path("/{tenantId}/resources")
+    public void getResourcesByType(@Suspended AsyncResponse response,
+                                   @PathParam("tenantId") final String tenantId,
+                                   @QueryParam("type") String type,
+                                   @QueryParam("limit") Integer limit,
+                                   @QueryParam("after") String after,
+                                   @QueryParam("stream") boolean stream,
+                                   @Context final UriInfo uriInfo) {
 
         try {
-            Resource def = inventory.getResource(tenantId, uid);
+            final ResourceType rtype = ResourceType.valueOf(type.toUpperCase());
+
+            if (stream) {
+                response.resume(Response.ok(new JsonStream() {
+                    @Override
+                    void write(Writer out) throws Exception {
+                        inventory.writeResourcesForType(tenantId, rtype, out);
+                    }
+                }).build());
+                return;
+            }
+
+            if (limit == null && after == null) {
+                resume(response, asyncInventory.getResourcesForType(tenantId, rtype),
+                        resources -> Response.ok(resources).build());
+                return;
+            }
 
+            resume(response, asyncInventory.getResourcesForType(tenantId, rtype, pageSize(limit), after),
+                    page -> pageResponse(page, uriInfo));
+        } catch (RuntimeException e) {
+            response.resume(errorResponse(e));
+        }
+    }
+
+    @GET
+    @Path("/{tenantId}/resources/withMetrics")
+    public Response getResourcesWithMetrics(@PathParam("tenantId") final String tenantId,
+                                            @QueryParam("type") String type) {
+
+        try {
+            final ResourceType rtype = type != null ? ResourceType.valueOf(type.toUpperCase()) : null;
+
+            return Response.ok(new JsonStream() {
+                @Override
+                void write(Writer out) throws Exception {
+                    inventory.writeResourcesWithMetrics(tenantId, rtype, out);
+                }
+            }).build();
+        } catch (IllegalArgumentException e) {
+            return Response.status(Response.Status.BAD_REQUEST).entity(e.getMessage()).build();
+        }
+    }
+
+    @GET
+    @Path("/{tenantId}/resources/byParameter")
+    public void findResourcesByParameter(@Suspended AsyncResponse response,
+                                         @PathParam("tenantId") String tenantId,
+                                         @QueryParam("name") String name,
+                                         @QueryParam("value") String value) {
+
+        if (name == null || value == null) {
+            response.resume(Response.status(Response.Status.BAD_REQUEST).entity("name and value are required")
+                    .build());
+            return;
+        }
+
+        resume(response, asyncInventory.findResourcesByParameter(tenantId, name, value),
+                resources -> Response.ok(resources).build());
+    }
+
+    @GET
+    @Path("/{tenantId}/resource/{uid}")
+    public void getResource(@Suspended AsyncResponse response,
+                            @PathParam("tenantId") String tenantId, @PathParam
+            ("uid") String uid) {
+
+        resume(response, asyncInventory.getResource(tenantId, uid), def -> {
             if (def != null) {
                 return Response.ok(def).build();
             } else {
                 return Response.status(Response.Status.NOT_FOUND).build();
             }
-
-        } catch (Exception e) {
-            RestApiLogger.LOGGER.warn(e);
-            return Response.serverError().build();
-        }
+        });
     }
 
 
     @DELETE
     @Path("/{tenantId}/resource/{uid}")
-    public Response deleteResource(@PathParam("tenantId") String tenantId, @PathParam
+    public void deleteResource(@Suspended AsyncResponse response,
+                               @PathParam("tenantId") String tenantId, @PathParam
             ("uid") String uid) {
 
-        try {
-            boolean def = inventory.deleteResource(tenantId, uid);
-
+        resume(response, asyncInventory.deleteResource(tenantId, uid), def -> {
             if (def) {
                 return Response.ok(def).build();
             } else {
                 return Response.status(Response.Status.NOT_FOUND).build();
             }
-
-        } catch (Exception e) {
-            RestApiLogger.LOGGER.warn(e);
-            return Response.serverError().build();
-        }
+        });
     }
 
 
     @PUT
     @Path("/{tenantId}/resource/{resourceId}/metrics/")
-    public Response addMetricToResource(@PathParam("tenantId") String tenantId,
-                                        @PathParam("resourceId") String resourceId,
-                                        Collection<MetricDefinition> payload) {
-
-
-        try {
-
-            if (inventory.getResource(tenantId, resourceId)==null) {
-                return Response.status(404).entity("Resource with ID " + resourceId + " not found for tenant").build();
-            }
-
-            if (payload.size() == 0) {
-                return Response.status(Response.Status.BAD_REQUEST).build();
-            }
-
-            boolean def = inventory.addMetricsToResource(tenantId, resourceId, payload);
+    public void addMetricToResource(@Suspended AsyncResponse response,
+                                    @PathParam("tenantId") String tenantId,
+                                    @PathParam("resourceId") String resourceId,
+                                    Collection<MetricDefinition> payload) {
+
+        if (payload.size() == 0) {
+            response.resume(Response.status(Response.Status.BAD_REQUEST).build());
+            return;
+        }
 
+        resume(response, asyncInventory.addMetricsToResource(tenantId, resourceId, payload), def -> {
             if (def) {
                 return Response.ok(def).build();
             } else {
                 return Response.status(Response.Status.NOT_MODIFIED).build();
             }
+        });
+    }
 
-        } catch (Exception e) {
-            RestApiLogger.LOGGER.warn(e);
-            return Response.serverError().build();
+    @POST
+    @Path("/{tenantId}/resource/{resourceId}/metrics/bulk")
+    public void upsertMetricsOfResource(@Suspended AsyncResponse response,
+                                        @PathParam("tenantId") String tenantId,
+                                        @PathParam("resourceId") String resourceId,
+                                        Collection<MetricDefinition> definitions) {
+
+        if (definitions == null || definitions.isEmpty()) {
+            response.resume(Response.status(Response.Status.BAD_REQUEST).build());
+            return;
         }
+
+        resume(response, asyncInventory.upsertMetrics(tenantId, resourceId, definitions),
+                results -> Response.ok(results).build());
     }
 
     @GET
     @Path("/{tenantId}/resource/{resourceId}/metrics")
-    public Response listMetricsOfResource(@PathParam("tenantId") String tenantId,
-                                            @PathParam("resourceId") String resourceId) {
-
+    public void listMetricsOfResource(@Suspended final AsyncResponse response,
+                                      @PathParam("tenantId") final String tenantId,
+                                      @PathParam("resourceId") final String resourceId,
+                                      @QueryParam("limit") Integer limit,
+                                      @QueryParam("after") String after,
+                                      @QueryParam("stream") boolean stream,
+                                      @Context final UriInfo uriInfo) {
 
         try {
+            if (stream) {
+                // checked up front, as the status can't be changed once streaming has started
+                resume(response, asyncInventory.resourceExists(tenantId, resourceId), exists -> {
+                    if (!exists) {
+                        return Response.status(404).entity("Resource with ID " + resourceId + " not found for tenant")
+                                .build();
+                    }
+                    return Response.ok(new JsonStream() {
+                        @Override
+                        void write(Writer out) throws Exception {
+                            inventory.writeMetricsForResource(tenantId, resourceId, out);
+                        }
+                    }).build();
+                });
+                return;
+            }
 
-            if (inventory.getResource(tenantId, resourceId)==null) {
-                return Response.status(404).entity("Resource with ID " + resourceId + " not found for tenant").build();
+            if (limit == null && after == null) {
+                resume(response, asyncInventory.listMetricsForResource(tenantId, resourceId),
+                        metrics -> Response.ok(metrics).build());
+                return;
             }
 
-            Collection<MetricDefinition> bla = inventory.listMetricsForResource(tenantId, resourceId);
-            return Response.ok(bla).build();
-        } catch (Exception e) {
-            RestApiLogger.LOGGER.warn(e);
-            return Response.serverError().entity(e).build();
+            resume(response, asyncInventory.listMetricsForResource(tenantId, resourceId, pageSize(limit), after),
+                    page -> pageResponse(page, uriInfo));
+        } catch (RuntimeException e) {
+            response.resume(errorResponse(e));
         }
-
     }
 
     @GET
     @Path("/{tenantId}/resource/{resourceId}/metric/{metricId}")
-    public Response getMetricOfResource(@PathParam("tenantId") String tenantId,
-                                            @PathParam("resourceId") String resourceId,
-                                            @PathParam("metricId") String metricId
+    public void getMetricOfResource(@Suspended AsyncResponse response,
+                                    @PathParam("tenantId") String tenantId,
+                                    @PathParam("resourceId") final String resourceId,
+                                    @PathParam("metricId") final String metricId
     ) {
 
-
-        try {
-
-            if (inventory.getResource(tenantId, resourceId)==null) {
-                return Response.status(404).entity("Resource with ID " + resourceId + " not found for tenant").build();
-            }
-
-            MetricDefinition bla = inventory.getMetric(tenantId, resourceId, metricId);
+        resume(response, asyncInventory.getMetric(tenantId, resourceId, metricId), bla -> {
             if (bla==null) {
                 return Response.status(404).entity("Metric {" + metricId + "} for " +
                         "Resource with ID " + resourceId + " not found for tenant")
                         .build();
             }
             return Response.ok(bla).build();
-        } catch (Exception e) {
-            RestApiLogger.LOGGER.warn(e);
-            return Response.serverError().entity(e).build();
-        }
+        });
     }
 
     @PUT
     @Path("/{tenantId}/resource/{resourceId}/metric/{metricId}")
-    public Response getMetricOfResource(@PathParam("tenantId") String tenantId,
-                                            @PathParam("resourceId") String resourceId,
-                                            MetricDefinition payload) {
-
-        try {
-            if (inventory.getResource(tenantId, resourceId)==null) {
-                return Response.status(404).entity("Resource with ID " + resourceId + " not found for tenant").build();
-            }
-
-            boolean updated = inventory.updateMetric(tenantId,resourceId,payload);
+    public void getMetricOfResource(@Suspended AsyncResponse response,
+                                    @PathParam("tenantId") String tenantId,
+                                    @PathParam("resourceId") String resourceId,
+                                    MetricDefinition payload) {
 
+        resume(response, asyncInventory.updateMetric(tenantId, resourceId, payload), updated -> {
             if (updated) {
                 return Response.ok().build();
             } else {
                 return Response.notModified().build();
             }
-        } catch (Exception e) {
-            RestApiLogger.LOGGER.warn(e);
-            return Response.serverError().entity(e).build();
+        });
+    }
+
+    @GET
+    @Path("/{tenantId}/changes")
+    public void getChanges(@Suspended AsyncResponse response,
+                           @PathParam("tenantId") String tenantId,
+                           @QueryParam("after") long after,
+                           @QueryParam("limit") Integer limit,
+                           @QueryParam("wait") int wait) {
+
+        try {
+            int seconds = Math.min(Math.max(wait, 0), MAX_WAIT_SECONDS);
+            resume(response, asyncInventory.awaitChanges(tenantId, after, pageSize(limit), seconds, TimeUnit.SECONDS),
+                    changes -> Response.ok(changes).build());
+        } catch (RuntimeException e) {
+            response.resume(errorResponse(e));
+        }
+    }
+
+    /**
+     * Resumes the suspended request once the stage completes: with the response built from
+     * its result, or with the error response for its failure.
+     */
+    private static <T> void resume(final AsyncResponse response, CompletionStage<T> stage,
+                                   final Function<T, Response> onSuccess) {
+
+        response.setTimeout(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        stage.whenComplete((result, failure) -> {
+            if (failure != null) {
+                response.resume(errorResponse(failure));
+                return;
+            }
+            try {
+                response.resume(onSuccess.apply(result));
+            } catch (RuntimeException e) {
+                response.resume(errorResponse(e));
+            }
+        });
+    }
+
+    private static Response errorResponse(Throwable failure) {
+        Throwable e = failure instanceof CompletionException && failure.getCause() != null
+                ? failure.getCause() : failure;
+
+        if (e instanceof ResourceNotFoundException) {
+            return Response.status(404).entity(e.getMessage()).build();
+        }
+        if (e instanceof IllegalArgumentException) {
+            return Response.status(Response.Status.BAD_REQUEST).entity(e.getMessage()).build();
+        }
+        if (e instanceof RejectedExecutionException) {
+            // all database threads are busy and the queue is full
+            return Response.status(Response.Status.SERVICE_UNAVAILABLE).build();
+        }
+        RestApiLogger.LOGGER.warn(e);
+        return Response.serverError().entity(e).build();
+    }
+
+    private static int pageSize(Integer limit) {
+        if (limit == null) {
+            return DEFAULT_PAGE_SIZE;
+        }
+        if (limit < 1) {
+            throw new IllegalArgumentException("limit must be positive");
+        }
+        return Math.min(limit, MAX_PAGE_SIZE);
+    }
+
+    /**
+     * Returns the items of the page. If there is a next page, its URL is passed in a
+     * Link header with rel="next", which is the request URL with the 'after' parameter replaced.
+     */
+    private static Response pageResponse(Page<?> page, UriInfo uriInfo) {
+        Response.ResponseBuilder builder = Response.ok(page.getItems());
+        if (page.hasMore()) {
+            builder.link(uriInfo.getRequestUriBuilder().replaceQueryParam("after", page.getContinuation()).build(),
+                    "next");
+        }
+        return builder.build();
+    }
+
+    /**
+     * Response body that is written by the inventory directly to the client, row by row,
+     * instead of materializing the result before the first byte goes out.
+     */
+    private abstract static class JsonStream implements StreamingOutput {
+
+        abstract void write(Writer out) throws Exception;
+
+        @Override
+        public void write(OutputStream output) throws IOException {
+            Writer out = new BufferedWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8));
+            try {
+                write(out);
+            } catch (IOException e) {
+                throw e;
+            } catch (Exception e) {
+                RestApiLogger.LOGGER.warn(e);
+                throw new WebApplicationException(e);
+            }
+            out.flush();
         }
     }
 
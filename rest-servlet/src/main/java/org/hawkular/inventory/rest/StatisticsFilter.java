@@ -0,0 +1,116 @@
+/*
+ * Copyright 2015 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.inventory.rest;
+
+import org.hawkular.inventory.impl.stats.Statistics;
+
+import javax.ws.rs.Path;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerRequestFilter;
+import javax.ws.rs.container.ContainerResponseContext;
+import javax.ws.rs.container.ContainerResponseFilter;
+import javax.ws.rs.container.ResourceInfo;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.ext.Provider;
+import javax.ws.rs.ext.WriterInterceptor;
+import javax.ws.rs.ext.WriterInterceptorContext;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Counts and times the calls of the REST endpoints in {@link Statistics#REST}.
+ *
+ * A call is timed from the start of the request until its body has been written, so suspended
+ * requests count with the time they have waited for the inventory. Writing the body is recorded
+ * as serialization time. Responses with a status of 500 and above count as errors.
+ *
+ * @author agent
+ */
+@Provider
+public class StatisticsFilter implements ContainerRequestFilter, ContainerResponseFilter, WriterInterceptor {
+
+    private static final String START = StatisticsFilter.class.getName() + ".start";
+    private static final String OPERATION = StatisticsFilter.class.getName() + ".operation";
+    private static final String TENANT = StatisticsFilter.class.getName() + ".tenant";
+    private static final String FAILED = StatisticsFilter.class.getName() + ".failed";
+
+    /** Operation names by resource method, e.g. "GET /{tenantId}/resources" */
+    private static final ConcurrentMap<Method, String> OPERATIONS = new ConcurrentHashMap<>();
+
+    @Context
+    ResourceInfo resourceInfo;
+
+    @Override
+    public void filter(ContainerRequestContext request) throws IOException {
+        request.setProperty(START, System.nanoTime());
+    }
+
+    @Override
+    public void filter(ContainerRequestContext request, ContainerResponseContext response) throws IOException {
+
+        Long start = (Long) request.getProperty(START);
+        Method method = resourceInfo.getResourceMethod();
+        if (start == null || method == null) {
+            return; // no endpoint matched
+        }
+        String operation = operation(request.getMethod(), method);
+        String tenant = request.getUriInfo().getPathParameters().getFirst("tenantId");
+        boolean failed = response.getStatus() >= 500;
+
+        if (!response.hasEntity()) {
+            Statistics.REST.record(operation, tenant, System.nanoTime() - start, 0, failed);
+            return;
+        }
+        // recorded once the body is written
+        request.setProperty(OPERATION, operation);
+        if (tenant != null) {
+            request.setProperty(TENANT, tenant);
+        }
+        request.setProperty(FAILED, failed);
+    }
+
+    @Override
+    public void aroundWriteTo(WriterInterceptorContext context) throws IOException {
+
+        long writing = System.nanoTime();
+        boolean written = false;
+        try {
+            context.proceed();
+            written = true;
+        } finally {
+            Long start = (Long) context.getProperty(START);
+            String operation = (String) context.getProperty(OPERATION);
+            if (start != null && operation != null) {
+                long end = System.nanoTime();
+                Statistics.REST.record(operation, (String) context.getProperty(TENANT), end - start, end - writing,
+                        !written || Boolean.TRUE.equals(context.getProperty(FAILED)));
+            }
+        }
+    }
+
+    private static String operation(String httpMethod, Method method) {
+        String operation = OPERATIONS.get(method);
+        if (operation == null) {
+            Path path = method.getAnnotation(Path.class);
+            operation = httpMethod + " " + (path != null ? path.value() : "/");
+            OPERATIONS.putIfAbsent(method, operation);
+        }
+        return operation;
+    }
+}
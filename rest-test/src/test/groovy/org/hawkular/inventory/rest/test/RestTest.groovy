@@ -87,11 +87,124 @@ class RestTest extends AbstractTestBase{
         assert response.data.size() > 0
         assertEquals(id,response.data[0].id)
 
+        response = client.get(path: "$tenantId/resources", query: [type: "url", stream: true] )
+
+        assertEquals(200, response.status)
+        assert response.data.size() > 0
+        assertEquals(id,response.data[0].id)
+
         response = client.delete(path: "$tenantId/resource/$id");
         assertEquals(200, response.status)
 
     }
 
+    @Test
+    void findByTypePaged() {
+
+        def tenantId = "rest-test-paging";
+
+        for (i in 0..2) {
+            def res = new Resource()
+            res.setType(ResourceType.URL)
+            res.setId("paged-$i")
+            res.addParameter("url","http://hawkular.org/$i")
+            def response = client.post(path: "$tenantId/resources", body: res)
+            assertEquals(200, response.status)
+        }
+
+        def response = client.get(path: "$tenantId/resources", query: [type: "url", limit: 2] )
+        assertEquals(200, response.status)
+        assertEquals(2, response.data.size())
+        def next = response.getFirstHeader("Link")
+        assert next != null
+        assert next.value.contains("rel=\"next\"")
+
+        def after = (next.value =~ /after=([0-9a-f]+)/)[0][1]
+        response = client.get(path: "$tenantId/resources", query: [type: "url", limit: 2, after: after] )
+        assertEquals(200, response.status)
+        assertEquals(1, response.data.size())
+        assertEquals("paged-2", response.data[0].id)
+        assert response.getFirstHeader("Link") == null
+
+        for (i in 0..2) {
+            client.delete(path: "$tenantId/resource/paged-$i")
+        }
+    }
+
+    @Test
+    void findWithMetrics() {
+
+        def res = new Resource()
+        res.setType(ResourceType.URL)
+        res.setId("with-metrics")
+
+        def tenantId = "rest-test-with-metrics";
+
+        def response = client.post(path: "$tenantId/resources", body: res)
+        assertEquals(200, response.status)
+        response = client.put(path: "$tenantId/resource/with-metrics/metrics",
+                body: [new MetricDefinition("cpu.load1")])
+        assertEquals(200, response.status)
+
+        response = client.get(path: "$tenantId/resources/withMetrics", query: [type: "url"] )
+        assertEquals(200, response.status)
+        assertEquals(1, response.data.size())
+        assertEquals("with-metrics", response.data[0].resource.id)
+        assertEquals("cpu.load1", response.data[0].metrics[0].name)
+
+        client.delete(path: "$tenantId/resource/with-metrics")
+    }
+
+    @Test
+    void findByParameter() {
+
+        def res = new Resource()
+        res.setType(ResourceType.URL)
+        res.setId("by-param")
+        res.addParameter("url","http://hawkular.org/by-param")
+
+        def tenantId = "rest-test-params";
+
+        def response = client.post(path: "$tenantId/resources", body: res)
+        assertEquals(200, response.status)
+
+        response = client.get(path: "$tenantId/resources/byParameter",
+                query: [name: "url", value: "http://hawkular.org/by-param"] )
+        assertEquals(200, response.status)
+        assertEquals(1, response.data.size())
+        assertEquals("by-param", response.data[0].id)
+
+        response = client.get(path: "$tenantId/resources/byParameter", query: [name: "url", value: "nope"] )
+        assertEquals(200, response.status)
+        assertEquals(0, response.data.size())
+
+        client.delete(path: "$tenantId/resource/by-param")
+    }
+
+    @Test
+    void followChanges() {
+
+        def tenantId = "rest-test-changes";
+
+        def response = client.get(path: "$tenantId/changes")
+        assertEquals(200, response.status)
+        def after = response.data.sequence
+
+        def res = new Resource()
+        res.setType(ResourceType.URL)
+        res.setId("changed")
+        res.addParameter("url","http://hawkular.org/changed")
+        client.post(path: "$tenantId/resources", body: res)
+
+        response = client.get(path: "$tenantId/changes", query: [after: after, wait: 5])
+        assertEquals(200, response.status)
+        assertEquals(1, response.data.events.size())
+        assertEquals("RESOURCE_ADDED", response.data.events[0].type)
+        assertEquals("changed", response.data.events[0].resourceId)
+
+        client.delete(path: "$tenantId/resource/changed")
+    }
+
     @Test
     void addGetWrongTenant() {
 
@@ -198,6 +311,31 @@ class RestTest extends AbstractTestBase{
 
     }
 
+    @Test
+    public void testUpsertMetrics() throws Exception {
+
+        Resource res = new Resource()
+        res.setType(ResourceType.URL)
+        res.addParameter("url","http://hawkular.org")
+        def tenantId = "rest-test-upsert";
+
+        def response = client.post(path: "$tenantId/resources", body: res)
+        def rid = response.data.id
+        client.put(path: "$tenantId/resource/$rid/metrics", body: ["cpu.load1"])
+
+        def changed = new MetricDefinition("cpu.load1", MetricUnit.BYTE)
+        response = client.post(path: "$tenantId/resource/$rid/metrics/bulk",
+                body: [changed, new MetricDefinition("cpu.load5")])
+        assertEquals(200, response.status)
+        assertEquals("UPDATED", response.data[0].status)
+        assertEquals("INSERTED", response.data[1].status)
+
+        response = client.post(path: "$tenantId/resource/$rid/metrics/bulk", body: [changed])
+        assertEquals("UNCHANGED", response.data[0].status)
+
+        client.delete(path: "$tenantId/resource/$rid")
+    }
+
     @Test
     public void testAddMetricToUnknownResource() throws Exception {
 